@@ -0,0 +1,147 @@
+package org.openbw.tsbw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openbw.bwapi4j.unit.MineralPatch;
+import org.openbw.bwapi4j.unit.Unit;
+import org.openbw.tsbw.Group.Backend;
+
+/**
+ * Compares the group backends on mixes of operations resembling a game:
+ * - army: a 200 unit group with a few units joining and dying per frame, iterated by several strategies per frame
+ * - patches: re-sorting members by remove/re-add on a 24 unit group followed by first()
+ * - concurrent: the army mix while 4 threads (standing in for worker fibers) keep iterating the group
+ * Run on a machine with at least 5 cores and without other load; the numbers are only meant for relative comparison.
+ */
+public class GroupBenchmark {
+
+	private static final int FRAMES = 200_000;
+	private static final int WARMUP_FRAMES = 50_000;
+
+	private static class BenchmarkUnit extends MineralPatch {
+
+		private BenchmarkUnit(int id) {
+
+			super(id);
+		}
+	}
+
+	private static List<Unit> createUnits(int count) {
+
+		List<Unit> units = new ArrayList<>(count);
+		for (int id = 0; id < count; id++) {
+			units.add(new BenchmarkUnit(id));
+		}
+		return units;
+	}
+
+	private static long army(Group<Unit> group, List<Unit> units, int frames) {
+
+		Random random = new Random(42);
+		group.clear();
+		for (int i = 0; i < 200; i++) {
+			group.add(units.get(i));
+		}
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int frame = 0; frame < frames; frame++) {
+
+			for (int i = 0; i < 3; i++) {
+
+				Unit unit = units.get(random.nextInt(units.size()));
+				if (!group.add(unit)) {
+					group.destroy(unit);
+				}
+			}
+			for (int i = 0; i < 10; i++) {
+				for (Unit unit : group) {
+					checksum += unit.getId();
+				}
+			}
+			for (int i = 0; i < 20; i++) {
+				if (group.contains(units.get(random.nextInt(units.size())))) {
+					checksum++;
+				}
+			}
+		}
+		long duration = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return duration / frames;
+	}
+
+	private static long patches(Group<Unit> group, List<Unit> units, int frames) {
+
+		Random random = new Random(42);
+		group.clear();
+		for (int i = 0; i < 24; i++) {
+			group.add(units.get(i));
+		}
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int frame = 0; frame < frames; frame++) {
+
+			for (int i = 0; i < 8; i++) {
+
+				Unit patch = units.get(random.nextInt(24));
+				group.remove(patch);
+				group.add(patch);
+				checksum += group.first().getId();
+			}
+		}
+		long duration = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return duration / frames;
+	}
+
+	private static long concurrent(Group<Unit> group, List<Unit> units, int frames) throws InterruptedException {
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+
+			Thread reader = new Thread(() -> {
+
+				long checksum = 0;
+				while (running.get()) {
+					for (Unit unit : group) {
+						checksum += unit.getId();
+					}
+				}
+				if (checksum == 42) {
+					System.out.println();
+				}
+			});
+			reader.setDaemon(true);
+			reader.start();
+			readers.add(reader);
+		}
+		long result = army(group, units, frames);
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		List<Unit> units = createUnits(400);
+		for (Backend backend : Backend.values()) {
+
+			Group<Unit> group = new Group<>(backend);
+			army(group, units, WARMUP_FRAMES);
+			patches(group, units, WARMUP_FRAMES);
+
+			System.out.println(backend + " army: " + army(group, units, FRAMES) + " ns/frame");
+			System.out.println(backend + " patches: " + patches(group, units, FRAMES) + " ns/frame");
+			System.out.println(backend + " concurrent: " + concurrent(group, units, FRAMES / 10) + " ns/frame");
+		}
+	}
+}
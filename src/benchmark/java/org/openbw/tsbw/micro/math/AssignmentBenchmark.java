@@ -0,0 +1,97 @@
+package org.openbw.tsbw.micro.math;
+
+import java.util.Random;
+
+/**
+ * Compares AssignmentProblem to AssignmentSolver (cold and warm started) on SCV-to-patch distance matrices of 16 to 120 workers.
+ * The warm start uses the assignment of the previous round after all workers moved a few pixels, as in repeated re-balancing.
+ * The numbers are only meant for relative comparison.
+ */
+public class AssignmentBenchmark {
+
+	private static final int[] SIZES = {16, 32, 48, 64, 96, 120};
+	private static final int ROUNDS = 20;
+
+	private static double[] distances(double[] workers, double[] patches, int n) {
+
+		double[] costs = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				costs[i * n + j] = Math.hypot(workers[2 * i] - patches[2 * j], workers[2 * i + 1] - patches[2 * j + 1]);
+			}
+		}
+		return costs;
+	}
+
+	private static double[][] toMatrix(double[] costs, int n) {
+
+		double[][] matrix = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(costs, i * n, matrix[i], 0, n);
+		}
+		return matrix;
+	}
+
+	private static double[] randomPositions(Random random, int n, int extent) {
+
+		double[] positions = new double[2 * n];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = random.nextInt(extent);
+		}
+		return positions;
+	}
+
+	public static void main(String[] args) {
+
+		Random random = new Random(42);
+		AssignmentSolver solver = new AssignmentSolver();
+		for (int n : SIZES) {
+
+			double[] workers = randomPositions(random, n, 1024);
+			double[] patches = randomPositions(random, n, 1024);
+			double[][] matrices = new double[ROUNDS][];
+			for (int round = 0; round < ROUNDS; round++) {
+
+				for (int i = 0; i < workers.length; i++) {
+					workers[i] += random.nextInt(9) - 4;
+				}
+				matrices[round] = distances(workers, patches, n);
+			}
+
+			// warm up
+			for (int round = 0; round < ROUNDS; round++) {
+
+				new AssignmentProblem(toMatrix(matrices[round], n)).weight();
+				solver.solve(matrices[round], n, n);
+			}
+
+			double maxError = 0;
+			long start = System.nanoTime();
+			double[] reference = new double[ROUNDS];
+			for (int round = 0; round < ROUNDS; round++) {
+				reference[round] = new AssignmentProblem(toMatrix(matrices[round], n)).weight();
+			}
+			long algs4 = (System.nanoTime() - start) / ROUNDS;
+
+			start = System.nanoTime();
+			for (int round = 0; round < ROUNDS; round++) {
+				maxError = Math.max(maxError, Math.abs(solver.solve(matrices[round], n, n) - reference[round]));
+			}
+			long cold = (System.nanoTime() - start) / ROUNDS;
+
+			int[] assignment = null;
+			int augmentations = 0;
+			start = System.nanoTime();
+			for (int round = 0; round < ROUNDS; round++) {
+
+				maxError = Math.max(maxError, Math.abs(solver.solve(matrices[round], n, n, assignment) - reference[round]));
+				assignment = solver.getAssignment(assignment);
+				augmentations += solver.getAugmentations();
+			}
+			long warm = (System.nanoTime() - start) / ROUNDS;
+
+			System.out.println(String.format("n=%3d  AssignmentProblem: %8d us  solver cold: %6d us  solver warm: %6d us (%.1f augmentations)  max error: %.2e",
+					n, algs4 / 1000, cold / 1000, warm / 1000, (double)augmentations / ROUNDS, maxError));
+		}
+	}
+}
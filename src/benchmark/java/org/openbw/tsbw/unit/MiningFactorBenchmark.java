@@ -0,0 +1,99 @@
+package org.openbw.tsbw.unit;
+
+import java.util.Random;
+
+/**
+ * Compares computing mining factors with the formula (as every comparison of the mineral patch group did) to looking them up
+ * in the per-patch tables, and measures re-positioning a patch in the MineralPatchQueue after an SCV count change.
+ * The numbers are only meant for relative comparison.
+ */
+public class MiningFactorBenchmark {
+
+	private static final int PATCHES = 24;
+	private static final int CALLS = 20_000_000;
+
+	private static MineralPatch[] createPatches(Random random) {
+
+		MineralPatch[] patches = new MineralPatch[PATCHES];
+		for (int i = 0; i < PATCHES; i++) {
+
+			patches[i] = new MineralPatch(i);
+			patches[i].setRoundTripTime(150 + random.nextInt(150));
+		}
+		return patches;
+	}
+
+	private static double formula(MineralPatch[] patches, int calls) {
+
+		Random random = new Random(42);
+		double checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+
+			MineralPatch patch = patches[random.nextInt(PATCHES)];
+			checksum += MineralPatch.computeMiningFactor(patch.getRoundTripTime(), random.nextInt(4));
+		}
+		long duration = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return (double)duration / calls;
+	}
+
+	private static double table(MineralPatch[] patches, int calls) {
+
+		Random random = new Random(42);
+		double checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+
+			MineralPatch patch = patches[random.nextInt(PATCHES)];
+			patch.setScvCount(random.nextInt(4));
+			checksum += patch.getMiningFactor();
+		}
+		long duration = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return (double)duration / calls;
+	}
+
+	private static double queue(MineralPatch[] patches, int calls) {
+
+		Random random = new Random(42);
+		MineralPatchQueue queue = new MineralPatchQueue();
+		for (MineralPatch patch : patches) {
+
+			patch.setScvCount(0);
+			queue.add(patch);
+		}
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+
+			MineralPatch patch = queue.assignBest();
+			checksum += patch.getId();
+			if (patch.getScvCount() > 2) {
+				patches[random.nextInt(PATCHES)].resetScvCount();
+			}
+		}
+		long duration = System.nanoTime() - start;
+		queue.clear();
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return (double)duration / calls;
+	}
+
+	public static void main(String[] args) {
+
+		MineralPatch[] patches = createPatches(new Random(42));
+		formula(patches, CALLS);
+		table(patches, CALLS);
+		queue(patches, CALLS / 10);
+
+		System.out.println(String.format("formula: %.1f ns/call", formula(patches, CALLS)));
+		System.out.println(String.format("table: %.1f ns/call", table(patches, CALLS)));
+		System.out.println(String.format("queue assignBest: %.1f ns/call", queue(patches, CALLS / 10)));
+	}
+}
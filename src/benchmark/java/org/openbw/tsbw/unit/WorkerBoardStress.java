@@ -0,0 +1,148 @@
+package org.openbw.tsbw.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openbw.bwapi4j.unit.Building;
+import org.openbw.bwapi4j.unit.MobileUnit;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * Runs many workers against one WorkerBoard at the same time, like a worker rush: they claim and release repair slots, defend enemies and
+ * pass the scout token around, and check the invariants the board guarantees: at most {@link WorkerBoard#MAX_REPAIRERS} repairers per building,
+ * at most one token holder, and defender counts and hit points that add up. Pass the runtime as argument: thread (default) or quasar.
+ * Refineries stand in for buildings to repair and SCVs for enemies.
+ */
+public class WorkerBoardStress {
+
+	private static final int WORKERS = 1_000;
+	private static final int ROUNDS = 2_000;
+	private static final int BUILDINGS = 4;
+	private static final int ENEMIES = 8;
+
+	private static final AtomicLong violations = new AtomicLong();
+	private static final AtomicLong operations = new AtomicLong();
+
+	private static class StressWorker extends WorkerActor {
+
+		private final SCV self;
+		private final WorkerBoard board;
+		private final Building[] buildings;
+		private final AtomicInteger[] repairers;
+		private final MobileUnit[] enemies;
+		private final AtomicInteger tokenHolders;
+		private final CountDownLatch done;
+		private final Random random;
+
+		private StressWorker(int id, WorkerRuntime.Context context, WorkerBoard board, Building[] buildings, AtomicInteger[] repairers,
+				MobileUnit[] enemies, AtomicInteger tokenHolders, CountDownLatch done) {
+
+			super(board, context);
+			this.self = new SCV(id, this);
+			this.board = board;
+			this.buildings = buildings;
+			this.repairers = repairers;
+			this.enemies = enemies;
+			this.tokenHolders = tokenHolders;
+			this.done = done;
+			this.random = new Random(id);
+		}
+
+		@Override
+		/* default */ void doRun() throws InterruptedException, SuspendExecution {
+
+			try {
+				for (int round = 0; round < ROUNDS; round++) {
+
+					int building = this.random.nextInt(BUILDINGS);
+					if (this.board.addRepair(this.buildings[building], this.self)) {
+
+						if (this.repairers[building].incrementAndGet() > WorkerBoard.MAX_REPAIRERS) {
+							violations.incrementAndGet();
+						}
+						this.repairers[building].decrementAndGet();
+						this.board.removeRepair(this.buildings[building], this.self);
+					}
+
+					MobileUnit enemy = this.enemies[this.random.nextInt(ENEMIES)];
+					int hitPoints = 1 + this.random.nextInt(60);
+					this.board.addDefender(enemy, hitPoints);
+					if (this.board.getDefenderCount(enemy) < 1 || this.board.getDefenderHitPoints(enemy) < hitPoints) {
+						violations.incrementAndGet();
+					}
+					this.board.changeDefenderHitPoints(enemy, -1);
+					this.board.removeDefender(enemy, hitPoints - 1);
+
+					if (this.board.reserveToken()) {
+
+						if (this.tokenHolders.incrementAndGet() > 1) {
+							violations.incrementAndGet();
+						}
+						this.tokenHolders.decrementAndGet();
+						this.board.releaseToken();
+					}
+					operations.addAndGet(3);
+				}
+			} finally {
+				this.done.countDown();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+
+		WorkerRuntime runtime = args.length > 0 && args[0].equals("quasar") ? new QuasarWorkerRuntime() : new ThreadWorkerRuntime();
+		WorkerBoard board = new WorkerBoard();
+		Building[] buildings = new Building[BUILDINGS];
+		AtomicInteger[] repairers = new AtomicInteger[BUILDINGS];
+		for (int i = 0; i < BUILDINGS; i++) {
+
+			buildings[i] = new Refinery(-1 - i, 0);
+			repairers[i] = new AtomicInteger();
+		}
+		MobileUnit[] enemies = new MobileUnit[ENEMIES];
+		for (int i = 0; i < ENEMIES; i++) {
+			enemies[i] = new SCV(-100 - i, new WorkerActor(board, runtime.newContext()));
+		}
+		AtomicInteger tokenHolders = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(WORKERS);
+
+		List<StressWorker> workers = new ArrayList<>(WORKERS);
+		for (int i = 0; i < WORKERS; i++) {
+			workers.add(new StressWorker(i, runtime.newContext(), board, buildings, repairers, enemies, tokenHolders, done));
+		}
+		long start = System.nanoTime();
+		for (StressWorker worker : workers) {
+			worker.spawn();
+		}
+		done.await();
+		long duration = System.nanoTime() - start;
+
+		for (int i = 0; i < ENEMIES; i++) {
+
+			// every defender left again
+			if (board.getDefenderCount(enemies[i]) != 0 || board.getDefenderHitPoints(enemies[i]) != 0) {
+				violations.incrementAndGet();
+			}
+		}
+		if (!board.getDefendedEnemies().isEmpty()) {
+			violations.incrementAndGet();
+		}
+		for (int i = 0; i < BUILDINGS; i++) {
+
+			if (board.getRepairerCount(buildings[i]) != 0) {
+				violations.incrementAndGet();
+			}
+		}
+		System.out.println(String.format("%s: %d workers, %d operations in %d ms (%.0f ns per operation), %d violations", runtime.getName(), WORKERS,
+				operations.get(), duration / 1000000, (double)duration / operations.get(), violations.get()));
+		if (violations.get() > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package org.openbw.tsbw.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * Measures the per-frame wakeup latency (from sending a frame update until the worker has received it) and the memory per idle worker
+ * of the worker runtimes. Pass the runtimes to measure as arguments: quasar (needs the Quasar java agent), thread.
+ * Virtual threads are used if the JDK provides them. The numbers are only meant for relative comparison.
+ */
+public class WorkerRuntimeBenchmark {
+
+	private static final int WORKERS = 200;
+	private static final int FRAMES = 2_000;
+	private static final int WARMUP_FRAMES = 500;
+	private static final int MEMORY_WORKERS = 10_000;
+
+	private static volatile long sendTime;
+
+	/**
+	 * Receives frame updates and records when they arrive, like the main loop of a mining SCV.
+	 */
+	private static class EchoWorker extends WorkerActor {
+
+		private final WorkerRuntime.Context context;
+		private final long[] latencies;
+		private final AtomicInteger received;
+		private volatile CountDownLatch frameDone;
+
+		private EchoWorker(WorkerRuntime.Context context, long[] latencies, AtomicInteger received) {
+
+			super(null, context);
+			this.context = context;
+			this.latencies = latencies;
+			this.received = received;
+		}
+
+		@Override
+		/* default */ void doRun() throws InterruptedException, SuspendExecution {
+
+			while (true) {
+
+				Message message = this.context.receive();
+				if (message instanceof FrameUpdate && this.latencies != null) {
+
+					this.latencies[this.received.getAndIncrement()] = System.nanoTime() - sendTime;
+					this.frameDone.countDown();
+				}
+			}
+		}
+	}
+
+	private static WorkerRuntime createRuntime(String name) {
+
+		switch (name) {
+		case "quasar":
+			return new QuasarWorkerRuntime();
+		case "thread":
+			return new ThreadWorkerRuntime();
+		default:
+			throw new IllegalArgumentException("unknown runtime " + name);
+		}
+	}
+
+	private static long[] latency(WorkerRuntime runtime, int frames) throws InterruptedException {
+
+		long[] latencies = new long[frames * WORKERS];
+		AtomicInteger received = new AtomicInteger();
+		List<EchoWorker> workers = new ArrayList<>(WORKERS);
+		for (int i = 0; i < WORKERS; i++) {
+
+			EchoWorker worker = new EchoWorker(runtime.newContext(), latencies, received);
+			workers.add(worker);
+		}
+		CountDownLatch frameDone = new CountDownLatch(WORKERS);
+		for (EchoWorker worker : workers) {
+
+			worker.frameDone = frameDone;
+			worker.spawn();
+		}
+		FrameUpdate frameUpdate = new FrameUpdate();
+		for (int frame = 0; frame < frames; frame++) {
+
+			if (frame > 0) {
+
+				frameDone = new CountDownLatch(WORKERS);
+				for (EchoWorker worker : workers) {
+					worker.frameDone = frameDone;
+				}
+			}
+			sendTime = System.nanoTime();
+			for (EchoWorker worker : workers) {
+				worker.sendOrInterrupt(frameUpdate);
+			}
+			frameDone.await();
+		}
+		return latencies;
+	}
+
+	private static double memory(WorkerRuntime runtime) throws InterruptedException {
+
+		long before = usedMemory();
+		List<EchoWorker> workers = new ArrayList<>(MEMORY_WORKERS);
+		for (int i = 0; i < MEMORY_WORKERS; i++) {
+
+			EchoWorker worker = new EchoWorker(runtime.newContext(), null, null);
+			worker.spawn();
+			workers.add(worker);
+		}
+		// let all workers reach their receive
+		Thread.sleep(1000);
+		long after = usedMemory();
+		if (workers.size() != MEMORY_WORKERS) {
+			System.out.println();
+		}
+		return (double)(after - before) / MEMORY_WORKERS;
+	}
+
+	private static long usedMemory() throws InterruptedException {
+
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+
+		String[] names = args.length > 0 ? args : new String[] {"thread"};
+		for (String name : names) {
+
+			WorkerRuntime runtime = createRuntime(name);
+			latency(runtime, WARMUP_FRAMES);
+			long[] latencies = latency(runtime, FRAMES);
+			Arrays.sort(latencies);
+			double mean = Arrays.stream(latencies).average().orElse(0);
+			System.out.println(String.format("%s, %d workers, %d frames: wakeup latency mean %.1f us, median %.1f us, p99 %.1f us, max %.1f us",
+					runtime.getName(), WORKERS, FRAMES, mean / 1000, latencies[latencies.length / 2] / 1000.0,
+					latencies[(int)(latencies.length * 0.99)] / 1000.0, latencies[latencies.length - 1] / 1000.0));
+			System.out.println(String.format("%s: %.0f bytes heap per idle worker (%d workers)", runtime.getName(), memory(runtime), MEMORY_WORKERS));
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.openbw.tsbw;
+
+import java.util.List;
+
+import org.openbw.bwapi4j.unit.Unit;
+
+/**
+ * Group listener that can be notified once per frame about all changes of a group (see {@link Group#addBatchListener(BatchGroupListener)}).
+ * Changes that cancel each other out within a frame (e.g. a unit added and removed again) are not reported at all.
+ * The lists passed are only valid during the callback.
+ * By default, the batch callbacks fall back to the single unit callbacks.
+ */
+public interface BatchGroupListener<T extends Unit> extends GroupListener<T> {
+
+	/**
+	 * Callback for all units added to a group during the last frame.
+	 * @param units added units
+	 */
+	public default void onAddAll(List<T> units) {
+
+		for (int i = 0; i < units.size(); i++) {
+			onAdd(units.get(i));
+		}
+	}
+
+	/**
+	 * Callback for all units removed from a group during the last frame.
+	 * @param units removed units
+	 */
+	public default void onRemoveAll(List<T> units) {
+
+		for (int i = 0; i < units.size(); i++) {
+			onRemove(units.get(i));
+		}
+	}
+
+	/**
+	 * Callback for all units of a group destroyed during the last frame.
+	 * @param units destroyed units
+	 */
+	public default void onDestroyAll(List<T> units) {
+
+		for (int i = 0; i < units.size(); i++) {
+			onDestroy(units.get(i));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.openbw.tsbw;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,22 +30,35 @@ import org.openbw.tsbw.building.FactoryConstruction;
 import org.openbw.tsbw.building.RefineryConstruction;
 import org.openbw.tsbw.building.SupplyDepotConstruction;
 import org.openbw.tsbw.example.scouting.DefaultScoutingStrategy;
+import org.openbw.tsbw.metrics.ActorMetrics;
+import org.openbw.tsbw.metrics.EconomyMetrics;
+import org.openbw.tsbw.metrics.FrameProfiler;
+import org.openbw.tsbw.metrics.FrameProfiler.Stage;
+import org.openbw.tsbw.micro.CommandBuffer;
+import org.openbw.tsbw.mining.GasGatherer;
 import org.openbw.tsbw.mining.ResourceGatherer;
 import org.openbw.tsbw.strategy.AbstractGameStrategy;
 import org.openbw.tsbw.strategy.ScoutingStrategy;
 import org.openbw.tsbw.strategy.StrategyFactory;
+import org.openbw.tsbw.unit.DefenseAllocator;
 import org.openbw.tsbw.unit.FrameUpdate;
+import org.openbw.tsbw.unit.FrameUpdatePool;
 import org.openbw.tsbw.unit.MineralPatch;
 import org.openbw.tsbw.unit.SCV;
 import org.openbw.tsbw.unit.UnitFactory;
 import org.openbw.tsbw.unit.VespeneGeyser;
 import org.openbw.tsbw.unit.WorkerBoard;
+import org.openbw.tsbw.unit.WorkerScheduler;
 
 import bwta.BWTA;
 
 public abstract class Bot {
 
 	private static final Logger logger = LogManager.getLogger();
+	
+	private static final String PROFILE_SUMMARY_FILE = "bwapi-data/write/frame-profile.csv";
+	private static final String ECONOMY_METRICS_DIRECTORY = "bwapi-data/write/";
+	private static final String ACTOR_METRICS_FILE = "bwapi-data/write/actor-metrics.csv";
 
 	private BotEventListener eventListener;
 	private BW bw;
@@ -58,6 +72,9 @@ public abstract class Bot {
 	protected InteractionHandler interactionHandler;
 	protected BuildingPlanner buildingPlanner;
 	protected ResourceGatherer resourceGatherer;
+	protected GasGatherer gasGatherer;
+	protected EconomyMetrics economyMetrics;
+	protected CommandBuffer commandBuffer;
 	
 	protected ScoutingStrategy scoutingStrategy;
 	
@@ -65,12 +82,18 @@ public abstract class Bot {
 	protected AbstractGameStrategy gameStrategy;
 	
 	protected WorkerBoard publicBoard;
+	protected FrameProfiler frameProfiler;
+	protected ActorMetrics actorMetrics;
+	private GroupEventBus groupEventBus;
 	
 	protected boolean scoutingEnabled = true;
 	protected boolean cleanLogging = false;
 	protected boolean gameStarted = false;
 	
 	private Set<Subscriber<FrameUpdate>> subscribers;
+	private WorkerScheduler workerScheduler;
+	private DefenseAllocator defenseAllocator;
+	private FrameUpdatePool frameUpdatePool;
 	
 	public final void run() {
 		
@@ -101,6 +124,12 @@ public abstract class Bot {
 		this.eventListener = new BotEventListener(this);
 		this.unitInventories = new HashMap<Player, UnitInventory>();
 		this.subscribers = new HashSet<>();
+		this.workerScheduler = new WorkerScheduler();
+		this.frameUpdatePool = new FrameUpdatePool();
+		this.frameProfiler = new FrameProfiler();
+		this.actorMetrics = new ActorMetrics();
+		this.commandBuffer = new CommandBuffer();
+		this.groupEventBus = new GroupEventBus();
 	}
 	
 	public void subscribe(Subscriber<FrameUpdate> subscriber) {
@@ -120,6 +149,11 @@ public abstract class Bot {
 		logger.info("--- game started at {}.", new Date());
 		
 		this.subscribers.clear();
+		this.workerScheduler.clear();
+		this.commandBuffer.reset();
+		this.frameProfiler.reset();
+		this.actorMetrics.reset();
+		this.groupEventBus.clear();
 		
 		this.mapAnalyzer = new MapAnalyzer(bw, new BWTA());
         
@@ -132,7 +166,7 @@ public abstract class Bot {
 		
 		for (Player player : bw.getAllPlayers()) {
 			
-			UnitInventory unitInventory = new UnitInventory();
+			UnitInventory unitInventory = new UnitInventory(this.groupEventBus, player.equals(this.interactionHandler.self()));
 			unitInventory.initialize(bw.getBullets(), this.mapAnalyzer);
 			this.unitInventories.put(player, unitInventory);
 		}
@@ -154,13 +188,26 @@ public abstract class Bot {
 		this.buildingPlanner.initialize();
 		
 		this.resourceGatherer = new ResourceGatherer();
+		try {
+			this.resourceGatherer.getTripTimeRecorder().load(this.mapAnalyzer.getBWMap().mapHash());
+		} catch (IOException e) {
+			logger.error("could not load mineral trip times: {}", e.getMessage());
+		}
+		this.gasGatherer = new GasGatherer();
+		this.economyMetrics = new EconomyMetrics();
+		this.economyMetrics.setMap(this.mapAnalyzer.getBWMap().mapFileName());
+		this.economyMetrics.setDump(ECONOMY_METRICS_DIRECTORY, EconomyMetrics.DEFAULT_DUMP_INTERVAL);
 		
 		this.scoutingStrategy = getScoutingStrategy(this.mapAnalyzer, this.mapDrawer, this.interactionHandler);
-		this.strategyFactory = new StrategyFactory(this.bw, this.mapAnalyzer, this.scoutingStrategy, this.buildingPlanner, this.unitInventories.get(player1), this.unitInventories.get(player2));
+		this.strategyFactory = new StrategyFactory(this.bw, this.mapAnalyzer, this.scoutingStrategy, this.buildingPlanner, this.unitInventories.get(player1), this.unitInventories.get(player2), this.commandBuffer);
 		
 		this.scoutingStrategy.initialize(myInventory.getScouts(), myInventory, this.unitInventories.get(player2));
 		
 		this.publicBoard.initialize(this.mapAnalyzer, myInventory, this.interactionHandler, this.scoutingStrategy);
+		this.publicBoard.setCommandBuffer(this.commandBuffer);
+		this.defenseAllocator = new DefenseAllocator(this.publicBoard);
+		this.publicBoard.setDefenseAllocator(this.defenseAllocator);
+		this.publicBoard.setActorMetrics(this.actorMetrics);
 		
 		this.bw.getAllUnits().stream().filter(u -> u instanceof MineralPatch)
 				.forEach(u -> myInventory.register((MineralPatch)u));
@@ -183,12 +230,36 @@ public abstract class Bot {
 	final void internalOnEnd(boolean isWinner) {
 		
 		this.gameStrategy.stop();
+		try {
+			this.frameProfiler.writeSummary(PROFILE_SUMMARY_FILE);
+		} catch (IOException e) {
+			logger.error("could not write frame profile summary: {}", e.getMessage());
+		}
+		try {
+			this.resourceGatherer.getTripTimeRecorder().save(this.mapAnalyzer.getBWMap().mapHash());
+		} catch (IOException e) {
+			logger.error("could not write mineral trip times: {}", e.getMessage());
+		}
+		this.economyMetrics.dump();
+		if (this.actorMetrics.isEnabled()) {
+			
+			try {
+				this.actorMetrics.writeSummary(ACTOR_METRICS_FILE);
+			} catch (IOException e) {
+				logger.error("could not write actor metrics: {}", e.getMessage());
+			}
+			logger.info("worker actors: {}.", this.actorMetrics.getSnapshot().getTotal());
+		}
+		logger.info("commands: {}.", this.commandBuffer);
+		logger.info("frame updates to SCVs: {} delivered, {} skipped, {} snapshots.", this.workerScheduler.getDeliveries(), this.workerScheduler.getSkipped(),
+				this.frameUpdatePool.getCreated());
 		onEnd(isWinner);
 	}
 	
 	public void onFrame() {
 		
 		int frameCount = interactionHandler.getFrameCount();
+		this.frameProfiler.startFrame();
 //		long milliSeconds = System.currentTimeMillis();
 		
 		// Once the first frame has been played we truly start the game (units will be initialized)
@@ -198,20 +269,47 @@ public abstract class Bot {
 			
 			UnitInventory myInventory = this.unitInventories.get(this.player1);
 			this.resourceGatherer.initialize(myInventory.getWorkers(), myInventory.getCommandCenters(), myInventory.getMineralPatches());
+			this.gasGatherer.initialize(myInventory.getWorkers(), myInventory.getRefineries(), myInventory.getCommandCenters());
 			gameStrategy.start(player1.minerals(), player1.gas());
 			gameStarted = true;
 		} else if (frameCount == 0) {
 			return;
 		}
 		
-		FrameUpdate frameUpdate = new FrameUpdate(frameCount, player1.minerals(), player1.gas(), 
+		this.frameProfiler.begin(Stage.INVENTORY);
+		for (UnitInventory inventory : this.unitInventories.values()) {
+			inventory.onFrame(frameCount);
+		}
+		this.frameProfiler.end(Stage.INVENTORY);
+		
+		this.frameProfiler.begin(Stage.SUBSCRIBERS);
+		// workers still holding an earlier snapshot keep it: it is only refilled once they have released it
+		FrameUpdate frameUpdate = this.frameUpdatePool.acquire();
+		frameUpdate.update(frameCount, player1.minerals(), player1.gas(), 
 				this.interactionHandler.getRemainingLatencyFrames(), this.unitInventories.get(this.player1), this.unitInventories.get(this.player2));
 		
-		this.subscribers.stream().forEach(s -> s.onReceive(frameUpdate));
+		for (Subscriber<FrameUpdate> subscriber : this.subscribers) {
+			subscriber.onReceive(frameUpdate);
+		}
+		this.defenseAllocator.onFrame(frameUpdate.getAttackingUnits());
+		this.workerScheduler.onFrame(frameUpdate);
+		frameUpdate.release();
+		this.frameProfiler.end(Stage.SUBSCRIBERS);
 		
 		if (scoutingEnabled) {
+			this.frameProfiler.begin(Stage.SCOUTING);
 			scoutingStrategy.run(frameCount);
+			this.frameProfiler.end(Stage.SCOUTING);
 		}
+		
+		this.frameProfiler.begin(Stage.RESOURCE_GATHERER);
+		this.resourceGatherer.onFrame(frameCount);
+		this.gasGatherer.onFrame(frameCount);
+		this.frameProfiler.end(Stage.RESOURCE_GATHERER);
+		
+		this.frameProfiler.begin(Stage.ECONOMY_METRICS);
+		this.economyMetrics.onFrame(frameCount, this.unitInventories.get(this.player1).getWorkers());
+		this.frameProfiler.end(Stage.ECONOMY_METRICS);
 
 		/*
 		 * Do every 5 frames (just for performance reasons)
@@ -224,19 +322,49 @@ public abstract class Bot {
 				interactionHandler.sendText("map drawing enabled: " + mapDrawer.isEnabled());
 			} else if (interactionHandler.isKeyPressed(Key.K_CONTROL) && interactionHandler.isKeyPressed(Key.K_R)) {
 				toggleCleanLogging();
+			} else if (interactionHandler.isKeyPressed(Key.K_CONTROL) && interactionHandler.isKeyPressed(Key.K_P)) {
+				this.frameProfiler.setEnabled(!this.frameProfiler.isEnabled());
+				interactionHandler.sendText("frame profiling enabled: " + this.frameProfiler.isEnabled());
+			} else if (interactionHandler.isKeyPressed(Key.K_CONTROL) && interactionHandler.isKeyPressed(Key.K_M)) {
+				this.actorMetrics.setEnabled(!this.actorMetrics.isEnabled());
+				interactionHandler.sendText("worker actor metrics enabled: " + this.actorMetrics.isEnabled());
+			} else if (interactionHandler.isKeyPressed(Key.K_CONTROL) && interactionHandler.isKeyPressed(Key.K_J)) {
+				
+				// JFR events are emitted while the worker actor metrics are enabled as well
+				if (this.actorMetrics.setJfrEnabled(!this.actorMetrics.isJfrEnabled())) {
+					interactionHandler.sendText("worker command JFR events enabled: " + this.actorMetrics.isJfrEnabled());
+				} else {
+					interactionHandler.sendText("JFR is not available.");
+				}
 			}
 		}
 		
+		this.frameProfiler.begin(Stage.BUILDING_PLANNER);
 		buildingPlanner.run(player1.minerals(), player1.gas(), frameCount);
+		this.frameProfiler.end(Stage.BUILDING_PLANNER);
 		
 		int availableMinerals = player1.minerals() - buildingPlanner.getQueuedMinerals();
 		int availableGas = player1.gas() - buildingPlanner.getQueuedGas();
 		int availableSupply = player1.supplyTotal() - player1.supplyUsed();
 		
+		this.frameProfiler.begin(Stage.GAME_STRATEGY);
 		gameStrategy.run(frameCount, availableMinerals, availableGas, availableSupply);
+		this.frameProfiler.end(Stage.GAME_STRATEGY);
+		
+		this.frameProfiler.begin(Stage.GROUP_EVENTS);
+		this.groupEventBus.flush();
+		this.frameProfiler.end(Stage.GROUP_EVENTS);
 		
+		// all commands of the frame are sent here, including those issued by group listeners
+		this.frameProfiler.begin(Stage.COMMAND_BUFFER);
+		this.commandBuffer.flush(frameCount, this.interactionHandler.getRemainingLatencyFrames());
+		this.frameProfiler.end(Stage.COMMAND_BUFFER);
+		
+		this.frameProfiler.begin(Stage.DRAW);
 		drawGameInfo();
+		this.frameProfiler.end(Stage.DRAW);
 		
+		this.frameProfiler.endFrame();
 	}
 	
 	private void drawGameInfo() {
@@ -245,6 +373,9 @@ public abstract class Bot {
 		
 		mapDrawer.drawTextScreen(450, 25, "game time: " + interactionHandler.getFrameCount());
 		mapDrawer.drawTextScreen(530, 35, "FPS: " + interactionHandler.getFPS());
+		if (this.frameProfiler.isEnabled()) {
+			this.frameProfiler.draw(this.mapDrawer, 400, 50);
+		}
 	}
 
 	private void toggleCleanLogging() {
@@ -322,11 +453,35 @@ public abstract class Bot {
 		// do nothing
 		
 	}
+	
+	/* default */ final void internalOnUnitShow(Unit unit) {
+		
+		if (unit instanceof PlayerUnit) {
+			
+			UnitInventory inventory = this.unitInventories.get(((PlayerUnit) unit).getPlayer());
+			if (inventory != null) {
+				inventory.onUnitShow(unit);
+			}
+		}
+		onUnitShow(unit);
+	}
 
 	public void onUnitHide(Unit unit) {
 		// do nothing
 		
 	}
+	
+	/* default */ final void internalOnUnitHide(Unit unit) {
+		
+		if (unit instanceof PlayerUnit) {
+			
+			UnitInventory inventory = this.unitInventories.get(((PlayerUnit) unit).getPlayer());
+			if (inventory != null) {
+				inventory.onUnitHide(unit);
+			}
+		}
+		onUnitHide(unit);
+	}
 
 	/* default */  final void onUnitCreate(Unit unit) {
 		
@@ -348,7 +503,8 @@ public abstract class Bot {
         		SCV scv = (SCV) unit;
         		if (scv.getPlayer().equals(this.player1)) {
         			
-	        		unsubscribe((SCV)unit);
+	        		this.workerScheduler.remove(scv);
+	        		scv.onDestroy();
         		}
         	}
 			if (inventory == null) {
@@ -371,7 +527,10 @@ public abstract class Bot {
 		
 		if (unit instanceof GasMiningFacility) {
 			UnitInventory inventory = unitInventories.get(((GasMiningFacility) unit).getPlayer());
-			inventory.getVespeneGeysers().stream().filter(r -> r.getId() == unit.getId()).findFirst().ifPresent(c -> inventory.getVespeneGeysers().remove(c));
+			VespeneGeyser geyser = inventory.getVespeneGeysers().getValue(unit.getId());
+			if (geyser != null) {
+				inventory.getVespeneGeysers().remove(geyser);
+			}
 			onUnitCreate(unit);
 //		} else if (unit instanceof VespeneGeyser) {
 //			UnitInventory inventory = unitInventories.get(((Refinery) unit).getPlayer());
@@ -383,8 +542,7 @@ public abstract class Bot {
 				
 				logger.trace("zerg building {} morphed. Will add to unit inventory...", unit);
 				UnitInventory inventory = this.unitInventories.get(((PlayerUnit) unit).getPlayer());
-				inventory.getAllUnits().stream().filter(u -> u.getId() == unit.getId()).findAny().ifPresent(u -> inventory.unregister(unit));
-				inventory.register(unit);
+				inventory.reregister(unit);
 			}
 			onUnitMorph(unit);
 		}
@@ -412,8 +570,8 @@ public abstract class Bot {
         		SCV scv = (SCV) unit;
         		if (scv.getPlayer().equals(this.player1)) {
         			
-	        		scv.initialize(inventory.getMineralPatches(), inventory.getRefineries());
-	        		subscribe((SCV)unit);
+	        		scv.initialize(this.resourceGatherer.getMineralPatchQueue(), inventory.getRefineries());
+	        		this.workerScheduler.add(scv);
         		}
         	}
         } else {
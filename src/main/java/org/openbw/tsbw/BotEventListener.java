@@ -151,7 +151,7 @@ import org.openbw.bwapi4j.unit.Unit;
 	@Override
 	public void onUnitHide(Unit unit) {
 		try {
-			bot.onUnitHide(unit);
+			bot.internalOnUnitHide(unit);
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			throw e;
@@ -181,7 +181,7 @@ import org.openbw.bwapi4j.unit.Unit;
 	@Override
 	public void onUnitShow(Unit unit) {
 		try {
-			bot.onUnitShow(unit);
+			bot.internalOnUnitShow(unit);
 		} catch (Exception e) {
 			logger.error(e.getMessage(), e);
 			throw e;
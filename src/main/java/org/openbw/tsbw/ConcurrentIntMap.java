@@ -0,0 +1,83 @@
+package org.openbw.tsbw;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link IntMap} that may be read from any number of threads while it is written. Writers take the write lock of a StampedLock;
+ * readers read optimistically without locking and only take the read lock if a write overlapped. Lookups neither box the key nor block
+ * unless they race with a write, which for unit ids (added and removed a few times per frame) is rare.
+ */
+/* default */ class ConcurrentIntMap<V> {
+
+	private final IntMap<V> map;
+	private final StampedLock lock;
+
+	/* default */ ConcurrentIntMap() {
+
+		this.map = new IntMap<>();
+		this.lock = new StampedLock();
+	}
+
+	/* default */ V get(int key) {
+
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+
+			V value = this.map.get(key);
+			if (this.lock.validate(stamp)) {
+				return value;
+			}
+		}
+		stamp = this.lock.readLock();
+		try {
+			return this.map.get(key);
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param key non-negative key
+	 * @param value non-null value
+	 * @return previous value for key or null
+	 */
+	/* default */ V put(int key, V value) {
+
+		long stamp = this.lock.writeLock();
+		try {
+			return this.map.put(key, value);
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Removes the entry for the key only if it maps to a value equal to the given one.
+	 * @return true if the entry was removed
+	 */
+	/* default */ boolean remove(int key, Object value) {
+
+		long stamp = this.lock.writeLock();
+		try {
+
+			V current = this.map.get(key);
+			if (current == null || !current.equals(value)) {
+				return false;
+			}
+			this.map.remove(key);
+			return true;
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/* default */ void clear() {
+
+		long stamp = this.lock.writeLock();
+		try {
+			this.map.clear();
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+}
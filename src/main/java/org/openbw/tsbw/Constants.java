@@ -31,6 +31,11 @@ public class Constants {
 	 */
 	public static final double MINERALS_PER_ROUNDTRIP = 8.0;
 	
+	/**
+	 * One minute of real time at the fastest game speed (42 ms per frame) in frames. All per-minute rates use it.
+	 */
+	public static final double FRAMES_PER_MINUTE = 60 * 1000 / 42.0;
+	
 	/**
 	 * The amount of minerals a player starts with.
 	 */
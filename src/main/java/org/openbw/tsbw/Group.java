@@ -1,22 +1,62 @@
 package org.openbw.tsbw;
 
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.unit.Unit;
 
-public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
+/**
+ * Set of units ordered by their natural ordering that informs its listeners about added, removed and destroyed units.
+ * The members are stored in a backend that can be chosen per group (see {@link Backend}); neither the group nor the skip list backend locks.
+ * A group used to be a ConcurrentSkipListSet. It is still a NavigableSet, but it is neither Cloneable nor Serializable any more,
+ * and the views returned by subSet(), headSet(), tailSet() and descendingSet() are read-only (with the sorted array backend, views of a snapshot).
+ */
+public class Group<T extends Unit> extends AbstractSet<T> implements NavigableSet<T> {
 
-	private static final long serialVersionUID = 4561633085234598587L;
 	private static final Logger logger = LogManager.getLogger();
 	
+	public enum Backend {
+		
+		/**
+		 * Lock-free skip list: best for groups that are mutated concurrently from many fibers.
+		 */
+		SKIP_LIST,
+		
+		/**
+		 * Sorted array with copy-on-write snapshots: best for groups that are mostly mutated from one thread and iterated often.
+		 */
+		SORTED_ARRAY
+	}
+	
 	protected List<GroupListener<T>> listeners;
 	
+	private List<GroupEventBus.Subscription<T>> batchSubscriptions;
+	private GroupEventBus eventBus;
+	
+	private final GroupBackend<T> members;
+	
+	/**
+	 * Index of the members by unit id, read without locking. It is updated after the members, so getValue() may briefly lag behind a concurrent change.
+	 */
+	private final ConcurrentIntMap<T> index;
+	
 	/* default */ Group() {
+		this(Backend.SKIP_LIST);
+	}
+	
+	/* default */ Group(Backend backend) {
 		this.listeners = new LinkedList<GroupListener<T>>();
+		this.batchSubscriptions = new LinkedList<GroupEventBus.Subscription<T>>();
+		this.members = backend == Backend.SORTED_ARRAY ? new SortedArrayGroupBackend<>() : new SkipListGroupBackend<>();
+		this.index = new ConcurrentIntMap<>();
 	}
 	
 	/* default */ Group(List<T> units) {
@@ -29,13 +69,122 @@ public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
 	 */
 	public void clear() {
 		listeners.clear();
-		super.clear();
+		for (GroupEventBus.Subscription<T> subscription : batchSubscriptions) {
+			subscription.cancel();
+		}
+		batchSubscriptions.clear();
+		this.members.clear();
+		this.index.clear();
+	}
+	
+	@Override
+	public int size() {
+		
+		return this.members.size();
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		
+		return this.members.isEmpty();
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		
+		return o instanceof Unit && this.members.contains(o);
+	}
+	
+	/**
+	 * Iterates the members in ascending order. Removing via the iterator is the same as calling remove() on the group.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		
+		final Iterator<T> iterator = this.members.iterator();
+		return new Iterator<T>() {
+			
+			private T current;
+			
+			@Override
+			public boolean hasNext() {
+				
+				return iterator.hasNext();
+			}
+			
+			@Override
+			public T next() {
+				
+				this.current = iterator.next();
+				return this.current;
+			}
+			
+			@Override
+			public void remove() {
+				
+				if (this.current == null) {
+					throw new IllegalStateException();
+				}
+				Group.this.remove(this.current);
+				this.current = null;
+			}
+		};
+	}
+	
+	/**
+	 * Performs the action for each member in ascending order. With the sorted array backend this walks the current snapshot by index
+	 * and does not allocate.
+	 */
+	@Override
+	public void forEach(Consumer<? super T> action) {
+		
+		this.members.forEach(action);
+	}
+	
+	/**
+	 * @return the lowest member
+	 * @throws java.util.NoSuchElementException if the group is empty
+	 */
+	public T first() {
+		
+		return this.members.first();
+	}
+	
+	/**
+	 * @return the highest member
+	 * @throws java.util.NoSuchElementException if the group is empty
+	 */
+	public T last() {
+		
+		return this.members.last();
 	}
 	
 	public void addListener(GroupListener<T> listener) {
 		listeners.add(listener);
 	}
 	
+	/**
+	 * Adds a listener that is informed about the changes of this group once per frame (at the end of the frame), with
+	 * changes cancelling each other out being dropped. If this group is not attached to an event bus, the listener is called immediately instead.
+	 * @param listener batch listener
+	 */
+	public void addBatchListener(BatchGroupListener<T> listener) {
+		
+		if (this.eventBus == null) {
+			listeners.add(listener);
+		} else {
+			batchSubscriptions.add(this.eventBus.subscribe(listener));
+		}
+	}
+	
+	/**
+	 * Sets the bus used to deliver the events of batch listeners added afterwards.
+	 */
+	/* default */ void setEventBus(GroupEventBus eventBus) {
+		
+		this.eventBus = eventBus;
+	}
+	
 	@Override
 	public boolean add(T unit) {
 		
@@ -43,11 +192,14 @@ public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
 			return false;
 		}
 		
-		if (super.add(unit)) {
+		if (addIndexed(unit)) {
 			for (GroupListener<T> listener : listeners) {
 				
 				listener.onAdd(unit);
 			}
+			for (GroupEventBus.Subscription<T> subscription : batchSubscriptions) {
+				subscription.onAdd(unit);
+			}
 			return true;
 		} else {
 			return false;
@@ -57,12 +209,15 @@ public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
 	@SuppressWarnings("unchecked")
 	public boolean destroy(Object o) {
 		
-		if (super.remove(o)) {
+		if (removeIndexed(o)) {
 			for (GroupListener<T> listener : listeners) {
 				
 				logger.trace("calling destroyed listeners for {}", o);
 				listener.onDestroy((T)o);
 			}
+			for (GroupEventBus.Subscription<T> subscription : batchSubscriptions) {
+				subscription.onDestroy((T)o);
+			}
 			return true;
 		} else {
 			return false;
@@ -72,11 +227,14 @@ public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
 	@SuppressWarnings("unchecked")
 	public boolean remove(Object o) {
 		
-		if (super.remove(o)) {
+		if (removeIndexed(o)) {
 			for (GroupListener<T> listener : listeners) {
 				
 				listener.onRemove((T)o);
 			}
+			for (GroupEventBus.Subscription<T> subscription : batchSubscriptions) {
+				subscription.onRemove((T)o);
+			}
 			return true;
 		} else {
 			return false;
@@ -89,24 +247,138 @@ public class Group<T extends Unit> extends ConcurrentSkipListSet<T> {
 		newGroup.add(unit);
 	}
 
-	// TODO use index to speed up (replace naive implementation)
-	public T getValue(int id) {
-		for (T t : this) {
-			if (t.getId() == id) {
-				return t;
-			}
+	@Override
+	public T pollFirst() {
+		
+		T unit = this.members.pollFirst();
+		if (unit != null) {
+			this.index.remove(unit.getId(), unit);
 		}
+		return unit;
+	}
+	
+	@Override
+	public T pollLast() {
+		
+		T unit = this.members.pollLast();
+		if (unit != null) {
+			this.index.remove(unit.getId(), unit);
+		}
+		return unit;
+	}
+	
+	@Override
+	public Comparator<? super T> comparator() {
+		
+		// natural ordering
 		return null;
 	}
 	
-	// TODO use index to speed up (replace naive implementation)
+	@Override
+	public T lower(T unit) {
+		
+		return this.members.navigableView().lower(unit);
+	}
+	
+	@Override
+	public T floor(T unit) {
+		
+		return this.members.navigableView().floor(unit);
+	}
+	
+	@Override
+	public T ceiling(T unit) {
+		
+		return this.members.navigableView().ceiling(unit);
+	}
+	
+	@Override
+	public T higher(T unit) {
+		
+		return this.members.navigableView().higher(unit);
+	}
+	
+	@Override
+	public NavigableSet<T> descendingSet() {
+		
+		return this.members.navigableView().descendingSet();
+	}
+	
+	@Override
+	public Iterator<T> descendingIterator() {
+		
+		return this.members.navigableView().descendingIterator();
+	}
+	
+	@Override
+	public NavigableSet<T> subSet(T fromUnit, boolean fromInclusive, T toUnit, boolean toInclusive) {
+		
+		return this.members.navigableView().subSet(fromUnit, fromInclusive, toUnit, toInclusive);
+	}
+	
+	@Override
+	public NavigableSet<T> headSet(T toUnit, boolean inclusive) {
+		
+		return this.members.navigableView().headSet(toUnit, inclusive);
+	}
+	
+	@Override
+	public NavigableSet<T> tailSet(T fromUnit, boolean inclusive) {
+		
+		return this.members.navigableView().tailSet(fromUnit, inclusive);
+	}
+	
+	@Override
+	public SortedSet<T> subSet(T fromUnit, T toUnit) {
+		
+		return subSet(fromUnit, true, toUnit, false);
+	}
+	
+	@Override
+	public SortedSet<T> headSet(T toUnit) {
+		
+		return headSet(toUnit, false);
+	}
+	
+	@Override
+	public SortedSet<T> tailSet(T fromUnit) {
+		
+		return tailSet(fromUnit, true);
+	}
+	
+	/**
+	 * @return the member with the given unit id, or null if there is none
+	 */
+	public T getValue(int id) {
+		
+		return this.index.get(id);
+	}
+	
 	public boolean containsKey(int id) {
 		
-		for (T t : this) {
-			if (t.getId() == id) {
-				return true;
-			}
+		return getValue(id) != null;
+	}
+	
+	private boolean addIndexed(T unit) {
+		
+		if (!this.members.add(unit)) {
+			return false;
+		}
+		this.index.put(unit.getId(), unit);
+		if (!this.members.contains(unit)) {
+			
+			// removed concurrently before it was indexed
+			this.index.remove(unit.getId(), unit);
+		}
+		return true;
+	}
+	
+	private boolean removeIndexed(Object o) {
+		
+		if (!(o instanceof Unit) || !this.members.remove(o)) {
+			return false;
 		}
-		return false;
+		this.index.remove(((Unit)o).getId(), o);
+		return true;
 	}
 }
@@ -0,0 +1,47 @@
+package org.openbw.tsbw;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the members of a group, ordered by their natural ordering.
+ * Implementations must be safe to use from multiple threads; listeners and the id index are handled by the group itself.
+ */
+/* default */ interface GroupBackend<T extends Comparable<? super T>> {
+
+	public boolean add(T element);
+
+	public boolean remove(Object element);
+
+	public boolean contains(Object element);
+
+	public T first();
+
+	public T last();
+
+	public T pollFirst();
+
+	public T pollLast();
+
+	public int size();
+
+	public boolean isEmpty();
+
+	/**
+	 * @return iterator in ascending order that does not support removal
+	 */
+	public Iterator<T> iterator();
+
+	/**
+	 * Performs the action for each member in ascending order.
+	 */
+	public void forEach(Consumer<? super T> action);
+
+	public void clear();
+
+	/**
+	 * @return read-only navigable view of the members; may be a snapshot
+	 */
+	public NavigableSet<T> navigableView();
+}
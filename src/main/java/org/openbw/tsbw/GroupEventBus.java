@@ -0,0 +1,236 @@
+package org.openbw.tsbw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openbw.bwapi4j.unit.Unit;
+
+/**
+ * Collects group events for batch listeners and delivers them coalesced when flush() is called (once per frame by the bot).
+ * Per listener and unit only the net change of the frame is kept: added, removed or destroyed.
+ * Events may be posted from any thread; flush() must only be called from the BWAPI callback thread and calls the listeners on that thread.
+ */
+public class GroupEventBus {
+
+	private static final byte NONE = 0;
+	private static final byte ADDED = 1;
+	private static final byte REMOVED = 2;
+	private static final byte DESTROYED = 3;
+
+	/**
+	 * Pending events of one batch listener on one group.
+	 */
+	/* default */ final class Subscription<T extends Unit> {
+
+		private final BatchGroupListener<T> listener;
+		private boolean active;
+
+		private int[] slotById;
+		private Object[] units;
+		private byte[] states;
+		private int size;
+
+		private final List<T> added;
+		private final List<T> removed;
+		private final List<T> destroyed;
+
+		private Subscription(BatchGroupListener<T> listener) {
+
+			this.listener = listener;
+			this.active = true;
+			this.slotById = new int[256];
+			Arrays.fill(this.slotById, -1);
+			this.units = new Object[16];
+			this.states = new byte[16];
+			this.size = 0;
+			this.added = new ArrayList<>();
+			this.removed = new ArrayList<>();
+			this.destroyed = new ArrayList<>();
+		}
+
+		/* default */ void onAdd(T unit) {
+
+			post(unit, ADDED);
+		}
+
+		/* default */ void onRemove(T unit) {
+
+			post(unit, REMOVED);
+		}
+
+		/* default */ void onDestroy(T unit) {
+
+			post(unit, DESTROYED);
+		}
+
+		/**
+		 * Stops delivering events to the listener, including the ones still pending.
+		 */
+		/* default */ void cancel() {
+
+			synchronized (GroupEventBus.this) {
+
+				this.active = false;
+				reset();
+				subscriptions.remove(this);
+			}
+		}
+
+		private void post(T unit, byte event) {
+
+			synchronized (GroupEventBus.this) {
+
+				if (!this.active) {
+					return;
+				}
+				int id = unit.getId();
+				if (id >= this.slotById.length) {
+
+					int oldLength = this.slotById.length;
+					this.slotById = Arrays.copyOf(this.slotById, Math.max(oldLength * 2, id + 1));
+					Arrays.fill(this.slotById, oldLength, this.slotById.length, -1);
+				}
+				int slot = this.slotById[id];
+				if (slot < 0) {
+
+					if (this.size == this.units.length) {
+
+						this.units = Arrays.copyOf(this.units, this.size * 2);
+						this.states = Arrays.copyOf(this.states, this.size * 2);
+					}
+					slot = this.size++;
+					this.slotById[id] = slot;
+					this.units[slot] = unit;
+					this.states[slot] = NONE;
+				}
+				this.states[slot] = combine(this.states[slot], event);
+			}
+		}
+
+		/**
+		 * Moves the pending events into the dispatch lists. Must be called holding the bus lock.
+		 */
+		@SuppressWarnings("unchecked")
+		private void drain() {
+
+			this.added.clear();
+			this.removed.clear();
+			this.destroyed.clear();
+			for (int i = 0; i < this.size; i++) {
+
+				T unit = (T)this.units[i];
+				switch (this.states[i]) {
+				case ADDED:
+					this.added.add(unit);
+					break;
+				case REMOVED:
+					this.removed.add(unit);
+					break;
+				case DESTROYED:
+					this.destroyed.add(unit);
+					break;
+				default:
+					break;
+				}
+			}
+			reset();
+		}
+
+		private void dispatch() {
+
+			if (!this.destroyed.isEmpty()) {
+				this.listener.onDestroyAll(this.destroyed);
+			}
+			if (!this.removed.isEmpty()) {
+				this.listener.onRemoveAll(this.removed);
+			}
+			if (!this.added.isEmpty()) {
+				this.listener.onAddAll(this.added);
+			}
+		}
+
+		private void reset() {
+
+			for (int i = 0; i < this.size; i++) {
+
+				this.slotById[((Unit)this.units[i]).getId()] = -1;
+				this.units[i] = null;
+			}
+			this.size = 0;
+		}
+	}
+
+	private final List<Subscription<?>> subscriptions;
+	private final List<Subscription<?>> toDispatch;
+
+	public GroupEventBus() {
+
+		this.subscriptions = new ArrayList<>();
+		this.toDispatch = new ArrayList<>();
+	}
+
+	/* default */ synchronized <T extends Unit> Subscription<T> subscribe(BatchGroupListener<T> listener) {
+
+		Subscription<T> subscription = new Subscription<>(listener);
+		this.subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Delivers all pending events. Listeners are called without holding the bus lock,
+	 * so events caused by listeners are delivered with the next flush.
+	 */
+	public void flush() {
+
+		synchronized (this) {
+
+			this.toDispatch.clear();
+			for (int i = 0; i < this.subscriptions.size(); i++) {
+
+				Subscription<?> subscription = this.subscriptions.get(i);
+				if (subscription.size > 0) {
+
+					subscription.drain();
+					this.toDispatch.add(subscription);
+				}
+			}
+		}
+		for (int i = 0; i < this.toDispatch.size(); i++) {
+			this.toDispatch.get(i).dispatch();
+		}
+		this.toDispatch.clear();
+	}
+
+	/**
+	 * Drops all subscriptions and pending events.
+	 */
+	public synchronized void clear() {
+
+		for (Subscription<?> subscription : this.subscriptions) {
+
+			subscription.active = false;
+			subscription.reset();
+		}
+		this.subscriptions.clear();
+	}
+
+	/**
+	 * Net effect of an event following the already pending state of a unit.
+	 */
+	private static byte combine(byte state, byte event) {
+
+		switch (state) {
+		case ADDED:
+			// added and gone again within the same frame: the listener never needs to know
+			return event == ADDED ? ADDED : NONE;
+		case REMOVED:
+			// removed and re-added (e.g. to re-sort the group): nothing changed
+			return event == ADDED ? NONE : (event == DESTROYED ? DESTROYED : REMOVED);
+		case DESTROYED:
+			return event == ADDED ? ADDED : DESTROYED;
+		default:
+			return event;
+		}
+	}
+}
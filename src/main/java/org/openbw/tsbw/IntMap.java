@@ -0,0 +1,179 @@
+package org.openbw.tsbw;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from non-negative int keys (unit ids) to values, using open addressing with linear probing on primitive key arrays.
+ * Lookups neither box the key nor follow entry objects, and removals shift subsequent entries back instead of leaving tombstones.
+ * Not thread-safe: callers have to synchronize if the map is shared. get() tolerates a concurrent write (it may return a wrong value,
+ * but terminates without throwing), so {@link ConcurrentIntMap} can call it optimistically.
+ */
+/* default */ class IntMap<V> {
+
+	private static final int FREE = -1;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	/* default */ IntMap() {
+
+		this(16);
+	}
+
+	/* default */ IntMap(int expectedSize) {
+
+		int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 8)) << 1;
+		allocate(capacity);
+	}
+
+	/* default */ int size() {
+
+		return this.size;
+	}
+
+	/* default */ boolean isEmpty() {
+
+		return this.size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	/* default */ V get(int key) {
+
+		// the arrays are read once and the probe is bounded, in case they are replaced or changed meanwhile
+		int[] keys = this.keys;
+		Object[] values = this.values;
+		int mask = keys.length - 1;
+		int slot = indexOf(key, mask);
+		for (int probes = 0; probes < keys.length && keys[slot] != FREE; probes++) {
+
+			if (keys[slot] == key) {
+				return slot < values.length ? (V)values[slot] : null;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/* default */ boolean containsKey(int key) {
+
+		return get(key) != null;
+	}
+
+	/**
+	 * @param key non-negative key
+	 * @param value non-null value
+	 * @return previous value for key or null
+	 */
+	@SuppressWarnings("unchecked")
+	/* default */ V put(int key, V value) {
+
+		if (key < 0 || value == null) {
+			throw new IllegalArgumentException("key must be non-negative and value non-null: " + key + ", " + value);
+		}
+		int slot = indexOf(key);
+		while (this.keys[slot] != FREE) {
+
+			if (this.keys[slot] == key) {
+
+				V previous = (V)this.values[slot];
+				this.values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		this.size++;
+		if (this.size * 2 > this.keys.length) {
+			rehash(this.keys.length * 2);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	/* default */ V remove(int key) {
+
+		int slot = indexOf(key);
+		while (this.keys[slot] != FREE) {
+
+			if (this.keys[slot] == key) {
+
+				V previous = (V)this.values[slot];
+				shiftBack(slot);
+				this.size--;
+				return previous;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/* default */ void clear() {
+
+		Arrays.fill(this.keys, FREE);
+		Arrays.fill(this.values, null);
+		this.size = 0;
+	}
+
+	/**
+	 * Closes the gap at the given slot by moving back entries of the same probe chain which would otherwise become unreachable.
+	 */
+	private void shiftBack(int gap) {
+
+		int slot = gap;
+		while (true) {
+
+			slot = (slot + 1) & this.mask;
+			int key = this.keys[slot];
+			if (key == FREE) {
+				break;
+			}
+			int home = indexOf(key);
+			// entry may move into the gap only if its home slot is not cyclically between gap (exclusive) and slot (inclusive)
+			if (((slot - home) & this.mask) >= ((slot - gap) & this.mask)) {
+
+				this.keys[gap] = key;
+				this.values[gap] = this.values[slot];
+				gap = slot;
+			}
+		}
+		this.keys[gap] = FREE;
+		this.values[gap] = null;
+	}
+
+	private int indexOf(int key) {
+
+		return indexOf(key, this.mask);
+	}
+
+	private static int indexOf(int key, int mask) {
+
+		// Fibonacci hashing spreads sequential ids over the table
+		return (key * 0x9E3779B9 >>> 16) & mask;
+	}
+
+	private void allocate(int capacity) {
+
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(this.keys, FREE);
+		this.size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rehash(int capacity) {
+
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+
+			if (oldKeys[i] != FREE) {
+				put(oldKeys[i], (V)oldValues[i]);
+			}
+		}
+	}
+}
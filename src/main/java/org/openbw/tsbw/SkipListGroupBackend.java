@@ -0,0 +1,101 @@
+package org.openbw.tsbw;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free group storage based on a ConcurrentSkipListSet. Suited for groups that are mutated from many fibers concurrently.
+ * Iteration is weakly consistent, size() has to traverse the whole list.
+ */
+/* default */ class SkipListGroupBackend<T extends Comparable<? super T>> implements GroupBackend<T> {
+
+	private final ConcurrentSkipListSet<T> set;
+	private final NavigableSet<T> readOnlySet;
+
+	/* default */ SkipListGroupBackend() {
+
+		this.set = new ConcurrentSkipListSet<>();
+		this.readOnlySet = Collections.unmodifiableNavigableSet(this.set);
+	}
+
+	@Override
+	public boolean add(T element) {
+
+		return this.set.add(element);
+	}
+
+	@Override
+	public boolean remove(Object element) {
+
+		return this.set.remove(element);
+	}
+
+	@Override
+	public boolean contains(Object element) {
+
+		return this.set.contains(element);
+	}
+
+	@Override
+	public T first() {
+
+		return this.set.first();
+	}
+
+	@Override
+	public T last() {
+
+		return this.set.last();
+	}
+
+	@Override
+	public T pollFirst() {
+
+		return this.set.pollFirst();
+	}
+
+	@Override
+	public T pollLast() {
+
+		return this.set.pollLast();
+	}
+
+	@Override
+	public int size() {
+
+		return this.set.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+
+		return this.set.isEmpty();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+
+		return this.readOnlySet.iterator();
+	}
+
+	@Override
+	public void forEach(Consumer<? super T> action) {
+
+		this.set.forEach(action);
+	}
+
+	@Override
+	public void clear() {
+
+		this.set.clear();
+	}
+
+	@Override
+	public NavigableSet<T> navigableView() {
+
+		return this.readOnlySet;
+	}
+}
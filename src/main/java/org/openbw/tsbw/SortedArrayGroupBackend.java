@@ -0,0 +1,431 @@
+package org.openbw.tsbw;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Copy-on-write group storage in a single sorted array. Mutations are synchronized and build a new array
+ * (a binary search plus one array copy), which is cheap for the group sizes of a Brood War game.
+ * Readers never lock: iteration, size() and first()/last() work on the array published by the last mutation,
+ * so iterators handed out to fibers are stable snapshots, and forEach() walks that array by index without allocating. Lookups and navigation are binary searches on that array: as in any sorted set,
+ * members must not change their ordering (for units, the id) while they are in the group.
+ * Suited for groups that are changed a few times per frame and iterated frequently.
+ */
+/* default */ class SortedArrayGroupBackend<T extends Comparable<? super T>> implements GroupBackend<T> {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	/**
+	 * Sorted members. The array is never written to after it has been published.
+	 */
+	private volatile Object[] elements;
+
+	/* default */ SortedArrayGroupBackend() {
+
+		this.elements = EMPTY;
+	}
+
+	@Override
+	public synchronized boolean add(T element) {
+
+		Object[] current = this.elements;
+		int position = search(current, 0, current.length, element);
+		if (position >= 0) {
+			return false;
+		}
+		position = -(position + 1);
+		Object[] updated = new Object[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, position);
+		updated[position] = element;
+		System.arraycopy(current, position, updated, position + 1, current.length - position);
+		this.elements = updated;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized boolean remove(Object element) {
+
+		Object[] current = this.elements;
+		int position = search(current, 0, current.length, (T)element);
+		if (position < 0) {
+			return false;
+		}
+		removeAt(current, position);
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean contains(Object element) {
+
+		Object[] current = this.elements;
+		return search(current, 0, current.length, (T)element) >= 0;
+	}
+
+	@Override
+	public T first() {
+
+		Object[] current = this.elements;
+		if (current.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return elementAt(current, 0);
+	}
+
+	@Override
+	public T last() {
+
+		Object[] current = this.elements;
+		if (current.length == 0) {
+			throw new NoSuchElementException();
+		}
+		return elementAt(current, current.length - 1);
+	}
+
+	@Override
+	public synchronized T pollFirst() {
+
+		Object[] current = this.elements;
+		if (current.length == 0) {
+			return null;
+		}
+		removeAt(current, 0);
+		return elementAt(current, 0);
+	}
+
+	@Override
+	public synchronized T pollLast() {
+
+		Object[] current = this.elements;
+		if (current.length == 0) {
+			return null;
+		}
+		removeAt(current, current.length - 1);
+		return elementAt(current, current.length - 1);
+	}
+
+	@Override
+	public int size() {
+
+		return this.elements.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+
+		return this.elements.length == 0;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+
+		final Object[] snapshot = this.elements;
+		return new Iterator<T>() {
+
+			private int position = 0;
+
+			@Override
+			public boolean hasNext() {
+
+				return this.position < snapshot.length;
+			}
+
+			@Override
+			public T next() {
+
+				if (this.position >= snapshot.length) {
+					throw new NoSuchElementException();
+				}
+				return elementAt(snapshot, this.position++);
+			}
+		};
+	}
+
+	@Override
+	public void forEach(Consumer<? super T> action) {
+
+		Object[] snapshot = this.elements;
+		for (int i = 0; i < snapshot.length; i++) {
+			action.accept(elementAt(snapshot, i));
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+
+		this.elements = EMPTY;
+	}
+
+	/**
+	 * @return a read-only view of the current members, working on the published array without copying it
+	 */
+	@Override
+	public NavigableSet<T> navigableView() {
+
+		Object[] current = this.elements;
+		return new Snapshot<>(current, 0, current.length);
+	}
+
+	private void removeAt(Object[] current, int position) {
+
+		Object[] updated = new Object[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, position);
+		System.arraycopy(current, position + 1, updated, position, current.length - position - 1);
+		this.elements = updated;
+	}
+
+	/**
+	 * @return position of the element in [from, to), or -(insertion point + 1)
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<? super T>> int search(Object[] elements, int from, int to, T element) {
+
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+
+			int middle = (low + high) >>> 1;
+			int comparison = ((T)elements[middle]).compareTo(element);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T elementAt(Object[] elements, int position) {
+
+		return (T)elements[position];
+	}
+
+	/**
+	 * Read-only ascending view of the range [from, to) of a published array. Sub sets narrow the range, so they are O(log n) as well;
+	 * only descendingSet() copies.
+	 */
+	private static class Snapshot<T extends Comparable<? super T>> extends AbstractSet<T> implements NavigableSet<T> {
+
+		private final Object[] elements;
+		private final int from;
+		private final int to;
+
+		private Snapshot(Object[] elements, int from, int to) {
+
+			this.elements = elements;
+			this.from = from;
+			this.to = Math.max(from, to);
+		}
+
+		@Override
+		public int size() {
+
+			return this.to - this.from;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean contains(Object element) {
+
+			return element != null && search(this.elements, this.from, this.to, (T)element) >= 0;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+
+			return new Iterator<T>() {
+
+				private int position = Snapshot.this.from;
+
+				@Override
+				public boolean hasNext() {
+
+					return this.position < Snapshot.this.to;
+				}
+
+				@Override
+				public T next() {
+
+					if (this.position >= Snapshot.this.to) {
+						throw new NoSuchElementException();
+					}
+					return elementAt(Snapshot.this.elements, this.position++);
+				}
+			};
+		}
+
+		@Override
+		public Iterator<T> descendingIterator() {
+
+			return new Iterator<T>() {
+
+				private int position = Snapshot.this.to - 1;
+
+				@Override
+				public boolean hasNext() {
+
+					return this.position >= Snapshot.this.from;
+				}
+
+				@Override
+				public T next() {
+
+					if (this.position < Snapshot.this.from) {
+						throw new NoSuchElementException();
+					}
+					return elementAt(Snapshot.this.elements, this.position--);
+				}
+			};
+		}
+
+		@Override
+		public Comparator<? super T> comparator() {
+
+			return null;
+		}
+
+		@Override
+		public T first() {
+
+			if (this.from == this.to) {
+				throw new NoSuchElementException();
+			}
+			return elementAt(this.elements, this.from);
+		}
+
+		@Override
+		public T last() {
+
+			if (this.from == this.to) {
+				throw new NoSuchElementException();
+			}
+			return elementAt(this.elements, this.to - 1);
+		}
+
+		@Override
+		public T lower(T element) {
+
+			return at(lowerIndex(element));
+		}
+
+		@Override
+		public T floor(T element) {
+
+			return at(floorIndex(element));
+		}
+
+		@Override
+		public T ceiling(T element) {
+
+			return at(ceilingIndex(element));
+		}
+
+		@Override
+		public T higher(T element) {
+
+			return at(higherIndex(element));
+		}
+
+		@Override
+		public T pollFirst() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public T pollLast() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public NavigableSet<T> descendingSet() {
+
+			return Collections.unmodifiableNavigableSet(new TreeSet<>(this).descendingSet());
+		}
+
+		@Override
+		public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+
+			if (fromElement.compareTo(toElement) > 0) {
+				throw new IllegalArgumentException("fromElement > toElement");
+			}
+			return new Snapshot<>(this.elements, fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement),
+					(toInclusive ? floorIndex(toElement) : lowerIndex(toElement)) + 1);
+		}
+
+		@Override
+		public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+
+			return new Snapshot<>(this.elements, this.from, (inclusive ? floorIndex(toElement) : lowerIndex(toElement)) + 1);
+		}
+
+		@Override
+		public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+
+			return new Snapshot<>(this.elements, inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement), this.to);
+		}
+
+		@Override
+		public SortedSet<T> subSet(T fromElement, T toElement) {
+
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		@Override
+		public SortedSet<T> headSet(T toElement) {
+
+			return headSet(toElement, false);
+		}
+
+		@Override
+		public SortedSet<T> tailSet(T fromElement) {
+
+			return tailSet(fromElement, true);
+		}
+
+		/*
+		 * positions in [from - 1, to]; from - 1 and to mean there is no such element
+		 */
+
+		private int lowerIndex(T element) {
+
+			int position = search(this.elements, this.from, this.to, element);
+			return position >= 0 ? position - 1 : -(position + 1) - 1;
+		}
+
+		private int floorIndex(T element) {
+
+			int position = search(this.elements, this.from, this.to, element);
+			return position >= 0 ? position : -(position + 1) - 1;
+		}
+
+		private int ceilingIndex(T element) {
+
+			int position = search(this.elements, this.from, this.to, element);
+			return position >= 0 ? position : -(position + 1);
+		}
+
+		private int higherIndex(T element) {
+
+			int position = search(this.elements, this.from, this.to, element);
+			return position >= 0 ? position + 1 : -(position + 1);
+		}
+
+		private T at(int position) {
+
+			return position >= this.from && position < this.to ? elementAt(this.elements, position) : null;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.openbw.tsbw;
+
+import org.openbw.bwapi4j.type.UnitType;
+import org.openbw.bwapi4j.unit.Barracks;
+import org.openbw.bwapi4j.unit.Building;
+import org.openbw.bwapi4j.unit.CommandCenter;
+import org.openbw.bwapi4j.unit.Factory;
+import org.openbw.bwapi4j.unit.GasMiningFacility;
+import org.openbw.bwapi4j.unit.MobileUnit;
+import org.openbw.bwapi4j.unit.PlayerUnit;
+import org.openbw.bwapi4j.unit.Starport;
+import org.openbw.bwapi4j.unit.Unit;
+import org.openbw.tsbw.unit.MineralPatch;
+import org.openbw.tsbw.unit.SCV;
+import org.openbw.tsbw.unit.VespeneGeyser;
+
+/**
+ * The unit inventory group (or groups) a unit belongs to, looked up by unit type in a table indexed by UnitType ordinal.
+ * The table is precomputed for the resource types and all types listed in {@link Constants}. Other types (e.g. critters)
+ * are classified via instanceof the first time a unit of the type is seen and memoized.
+ * As the groups are typed by unit class, a table entry is only used if the unit is an instance of the class of the bucket.
+ * Otherwise (e.g. an egg that is no MobileUnit) the unit is classified via instanceof.
+ */
+/* default */ enum UnitBucket {
+
+	MINERAL_PATCH(MineralPatch.class, false),
+	VESPENE_GEYSER(VespeneGeyser.class, false),
+	COMMAND_CENTER(CommandCenter.class, true),
+	REFINERY(GasMiningFacility.class, true),
+	BARRACKS(Barracks.class, true),
+	FACTORY(Factory.class, true),
+	STARPORT(Starport.class, true),
+	BUILDING(Building.class, true),
+	WORKER(SCV.class, false),
+	ARMY(MobileUnit.class, false),
+	PLAYER_UNIT(PlayerUnit.class, false),
+	OTHER(Unit.class, false);
+
+	private static final UnitBucket[] BUCKETS_BY_TYPE = new UnitBucket[UnitType.values().length];
+
+	static {
+
+		BUCKETS_BY_TYPE[UnitType.Resource_Mineral_Field.ordinal()] = MINERAL_PATCH;
+		BUCKETS_BY_TYPE[UnitType.Resource_Mineral_Field_Type_2.ordinal()] = MINERAL_PATCH;
+		BUCKETS_BY_TYPE[UnitType.Resource_Mineral_Field_Type_3.ordinal()] = MINERAL_PATCH;
+		BUCKETS_BY_TYPE[UnitType.Resource_Vespene_Geyser.ordinal()] = VESPENE_GEYSER;
+		for (UnitType[] types : new UnitType[][] {Constants.terranTypes, Constants.protossTypes, Constants.zergTypes}) {
+			for (UnitType type : types) {
+				BUCKETS_BY_TYPE[type.ordinal()] = ofType(type);
+			}
+		}
+	}
+
+	private final Class<? extends Unit> unitClass;
+	private final boolean building;
+
+	private UnitBucket(Class<? extends Unit> unitClass, boolean building) {
+
+		this.unitClass = unitClass;
+		this.building = building;
+	}
+
+	/**
+	 * @return true if units of this bucket are buildings (and thus go to the constructions until completed)
+	 */
+	/* default */ boolean isBuilding() {
+
+		return this.building;
+	}
+
+	/* default */ static UnitBucket of(Unit unit) {
+
+		int ordinal = unit.getType().ordinal();
+		UnitBucket bucket = BUCKETS_BY_TYPE[ordinal];
+		if (bucket == null) {
+
+			bucket = classify(unit);
+			BUCKETS_BY_TYPE[ordinal] = bucket;
+		} else if (!bucket.unitClass.isInstance(unit)) {
+
+			bucket = classify(unit);
+		}
+		return bucket;
+	}
+
+	/**
+	 * @return bucket derived from the type alone
+	 */
+	private static UnitBucket ofType(UnitType type) {
+
+		if (type == UnitType.Terran_Command_Center) {
+			return COMMAND_CENTER;
+		} else if (type.isRefinery()) {
+			return REFINERY;
+		} else if (type == UnitType.Terran_Barracks) {
+			return BARRACKS;
+		} else if (type == UnitType.Terran_Factory) {
+			return FACTORY;
+		} else if (type == UnitType.Terran_Starport) {
+			return STARPORT;
+		} else if (type.isBuilding()) {
+			return BUILDING;
+		} else if (type == UnitType.Terran_SCV) {
+			return WORKER;
+		} else {
+			return ARMY;
+		}
+	}
+
+	private static UnitBucket classify(Unit unit) {
+
+		if (unit instanceof VespeneGeyser) {
+			return VESPENE_GEYSER;
+		} else if (unit instanceof MineralPatch) {
+			return MINERAL_PATCH;
+		} else if (unit instanceof CommandCenter) {
+			return COMMAND_CENTER;
+		} else if (unit instanceof GasMiningFacility) {
+			return REFINERY;
+		} else if (unit instanceof Barracks) {
+			return BARRACKS;
+		} else if (unit instanceof Factory) {
+			return FACTORY;
+		} else if (unit instanceof Starport) {
+			return STARPORT;
+		} else if (unit instanceof Building) {
+			return BUILDING;
+		} else if (unit instanceof SCV) {
+			return WORKER;
+		} else if (unit instanceof MobileUnit) {
+			return ARMY;
+		} else if (unit instanceof PlayerUnit) {
+			return PLAYER_UNIT;
+		} else {
+			return OTHER;
+		}
+	}
+}
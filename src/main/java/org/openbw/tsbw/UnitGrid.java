@@ -0,0 +1,247 @@
+package org.openbw.tsbw;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.openbw.bwapi4j.Position;
+import org.openbw.bwapi4j.unit.Unit;
+
+/**
+ * Uniform grid index over unit positions. Units are bucketed by the cell containing their center,
+ * so radius queries only look at the cells overlapping the query circle and cost time proportional to the number of nearby units.
+ * Unit ids are used as dense array indices (BWAPI assigns them sequentially), which keeps all bookkeeping in primitive arrays.
+ * Positions are not tracked automatically: call update() for units that may have moved (refresh() does so for all members).
+ * Not thread-safe: the grid is maintained and queried from the BWAPI callback thread.
+ */
+public class UnitGrid<T extends Unit> {
+
+	/**
+	 * Cell width and height in pixels (4 tiles).
+	 */
+	public static final int CELL_SIZE = 128;
+
+	/**
+	 * Units are bucketed by their center, but distances are measured to their edges.
+	 * Queries are widened by this margin (half of the largest unit dimension) to not miss large units.
+	 */
+	private static final int UNIT_MARGIN = 64;
+
+	private static final int NONE = -1;
+
+	private int columns;
+	private int rows;
+	private Object[][] cells;
+	private int[] cellSizes;
+
+	private int[] cellById;
+	private int[] slotById;
+	private int[] memberIndexById;
+	private Object[] members;
+	private int memberCount;
+
+	public UnitGrid() {
+
+		this.cellById = new int[256];
+		this.slotById = new int[256];
+		this.memberIndexById = new int[256];
+		Arrays.fill(this.cellById, NONE);
+		this.members = new Object[64];
+		initialize(1, 1);
+	}
+
+	/**
+	 * (Re-)initializes the grid for a map of the given size and removes all units.
+	 * @param mapWidth map width in tiles
+	 * @param mapHeight map height in tiles
+	 */
+	public void initialize(int mapWidth, int mapHeight) {
+
+		this.columns = Math.max(1, (mapWidth * 32 + CELL_SIZE - 1) / CELL_SIZE);
+		this.rows = Math.max(1, (mapHeight * 32 + CELL_SIZE - 1) / CELL_SIZE);
+		this.cells = new Object[this.columns * this.rows][];
+		this.cellSizes = new int[this.columns * this.rows];
+		clear();
+	}
+
+	public void clear() {
+
+		Arrays.fill(this.cellSizes, 0);
+		for (int i = 0; i < this.memberCount; i++) {
+			this.cellById[((Unit)this.members[i]).getId()] = NONE;
+		}
+		Arrays.fill(this.members, 0, this.memberCount, null);
+		this.memberCount = 0;
+	}
+
+	public int size() {
+
+		return this.memberCount;
+	}
+
+	public boolean contains(T unit) {
+
+		int id = unit.getId();
+		return id < this.cellById.length && this.cellById[id] != NONE;
+	}
+
+	/**
+	 * Adds the unit to the grid or moves it to the cell of its current position.
+	 */
+	public void update(T unit) {
+
+		int id = unit.getId();
+		ensureCapacity(id);
+		Position position = unit.getPosition();
+		int cell = cellOf(position.getX(), position.getY());
+		int currentCell = this.cellById[id];
+		if (currentCell == cell) {
+			return;
+		}
+		if (currentCell == NONE) {
+
+			addMember(unit);
+		} else {
+
+			removeFromCell(id, currentCell);
+		}
+		addToCell(unit, cell);
+	}
+
+	public void remove(T unit) {
+
+		int id = unit.getId();
+		if (id >= this.cellById.length || this.cellById[id] == NONE) {
+			return;
+		}
+		removeFromCell(id, this.cellById[id]);
+		this.cellById[id] = NONE;
+		removeMember(id);
+	}
+
+	/**
+	 * Moves all members whose position changed to their new cells.
+	 */
+	@SuppressWarnings("unchecked")
+	public void refresh() {
+
+		for (int i = 0; i < this.memberCount; i++) {
+			update((T)this.members[i]);
+		}
+	}
+
+	/**
+	 * Adds all units with a distance of less than radius to the center to the given result collection.
+	 * @return number of units added
+	 */
+	@SuppressWarnings("unchecked")
+	public int query(Position center, int radius, Collection<? super T> result) {
+
+		int reach = radius + UNIT_MARGIN;
+		int minColumn = clampColumn((center.getX() - reach) / CELL_SIZE);
+		int maxColumn = clampColumn((center.getX() + reach) / CELL_SIZE);
+		int minRow = clampRow((center.getY() - reach) / CELL_SIZE);
+		int maxRow = clampRow((center.getY() + reach) / CELL_SIZE);
+
+		int found = 0;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+
+				int cell = row * this.columns + column;
+				Object[] units = this.cells[cell];
+				for (int i = 0; i < this.cellSizes[cell]; i++) {
+
+					T unit = (T)units[i];
+					if (unit.getDistance(center) < radius) {
+						result.add(unit);
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private int cellOf(int x, int y) {
+
+		return clampRow(y / CELL_SIZE) * this.columns + clampColumn(x / CELL_SIZE);
+	}
+
+	private int clampColumn(int column) {
+
+		return column < 0 ? 0 : (column >= this.columns ? this.columns - 1 : column);
+	}
+
+	private int clampRow(int row) {
+
+		return row < 0 ? 0 : (row >= this.rows ? this.rows - 1 : row);
+	}
+
+	private void addToCell(T unit, int cell) {
+
+		Object[] units = this.cells[cell];
+		int size = this.cellSizes[cell];
+		if (units == null) {
+
+			units = new Object[8];
+			this.cells[cell] = units;
+		} else if (size == units.length) {
+
+			units = Arrays.copyOf(units, size * 2);
+			this.cells[cell] = units;
+		}
+		units[size] = unit;
+		this.cellSizes[cell] = size + 1;
+		this.cellById[unit.getId()] = cell;
+		this.slotById[unit.getId()] = size;
+	}
+
+	private void removeFromCell(int id, int cell) {
+
+		Object[] units = this.cells[cell];
+		int last = this.cellSizes[cell] - 1;
+		int slot = this.slotById[id];
+		if (slot != last) {
+
+			units[slot] = units[last];
+			this.slotById[((Unit)units[slot]).getId()] = slot;
+		}
+		units[last] = null;
+		this.cellSizes[cell] = last;
+	}
+
+	private void addMember(T unit) {
+
+		if (this.memberCount == this.members.length) {
+			this.members = Arrays.copyOf(this.members, this.memberCount * 2);
+		}
+		this.members[this.memberCount] = unit;
+		this.memberIndexById[unit.getId()] = this.memberCount;
+		this.memberCount++;
+	}
+
+	private void removeMember(int id) {
+
+		int index = this.memberIndexById[id];
+		int last = this.memberCount - 1;
+		if (index != last) {
+
+			this.members[index] = this.members[last];
+			this.memberIndexById[((Unit)this.members[index]).getId()] = index;
+		}
+		this.members[last] = null;
+		this.memberCount = last;
+	}
+
+	private void ensureCapacity(int id) {
+
+		if (id >= this.cellById.length) {
+
+			int capacity = Math.max(this.cellById.length * 2, id + 1);
+			int oldCapacity = this.cellById.length;
+			this.cellById = Arrays.copyOf(this.cellById, capacity);
+			Arrays.fill(this.cellById, oldCapacity, capacity, NONE);
+			this.slotById = Arrays.copyOf(this.slotById, capacity);
+			this.memberIndexById = Arrays.copyOf(this.memberIndexById, capacity);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.openbw.tsbw;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
@@ -7,6 +8,7 @@ import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.Bullet;
+import org.openbw.bwapi4j.type.UnitType;
 import org.openbw.bwapi4j.unit.Barracks;
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.CommandCenter;
@@ -16,6 +18,9 @@ import org.openbw.bwapi4j.unit.MobileUnit;
 import org.openbw.bwapi4j.unit.PlayerUnit;
 import org.openbw.bwapi4j.unit.Starport;
 import org.openbw.bwapi4j.unit.Unit;
+import org.openbw.tsbw.Group.Backend;
+import org.openbw.tsbw.analysis.SpendLedger;
+import org.openbw.tsbw.analysis.UnitArchive;
 import org.openbw.tsbw.unit.MineralPatch;
 import org.openbw.tsbw.unit.SCV;
 import org.openbw.tsbw.unit.VespeneGeyser;
@@ -24,6 +29,28 @@ public class UnitInventory {
 
 	private static final Logger logger = LogManager.getLogger();
 	
+	/**
+	 * Minerals worth of units every race starts with: they are observed like all other units, but were never spent.
+	 */
+	private static final int START_UNITS_MINERALS = 600;
+	
+	/**
+	 * How (and as what type) a unit was registered.
+	 */
+	private static class Registration {
+		
+		private final UnitType type;
+		private final UnitBucket bucket;
+		private final boolean completed;
+		
+		private Registration(UnitType type, UnitBucket bucket, boolean completed) {
+			
+			this.type = type;
+			this.bucket = bucket;
+			this.completed = completed;
+		}
+	}
+	
 	private Group<MineralPatch> mineralPatches;
 	private Group<VespeneGeyser> vespeneGeysers;
 	private Group<CommandCenter> commandCenters;
@@ -34,42 +61,80 @@ public class UnitInventory {
 	private Group<Building> buildings;
 	private Group<Building> constructions;
 	private Collection<PlayerUnit> allUnits;
+	private IntMap<PlayerUnit> allUnitsById;
+	private IntMap<Registration> registrations;
+	private int[] countByType;
+	private int[] constructionCountByType;
 	
+	private UnitArchive unitArchive;
+	// only kept once the deprecated getDestroyedUnits() has been called
 	private Group<PlayerUnit> destroyedUnits;
 	private Group<MobileUnit> scouts;
 	
 	private Group<SCV> workers;
 	private Group<MobileUnit> armyUnits;
+	private UnitGrid<MobileUnit> mobileUnitGrid;
 	
 	private Collection<Bullet> bullets;
 	private MapAnalyzer mapAnalyzer;
 	
-	private int observedMineralsSpent;
-	private int observedGasSpent;
+	private SpendLedger spendLedger;
+	private int frame;
 	
 	public UnitInventory() {
 		
-		this.mineralPatches = new Group<>();
-		this.vespeneGeysers = new Group<>();
-		this.commandCenters = new Group<>();
-		this.refineries = new Group<>();
-		this.barracks = new Group<>();
-		this.factories = new Group<>();
-		this.starports = new Group<>();
-		this.buildings = new Group<>();
-		this.constructions = new Group<>();
+		this(null);
+	}
+	
+	/**
+	 * @param eventBus bus delivering the events of batch listeners of all groups, or null to call batch listeners immediately
+	 */
+	public UnitInventory(GroupEventBus eventBus) {
+		
+		this(eventBus, true);
+	}
+	
+	/**
+	 * @param eventBus bus delivering the events of batch listeners of all groups, or null to call batch listeners immediately
+	 * @param workedByFibers false for inventories whose workers are not run by worker actors, e.g. the enemy's
+	 */
+	public UnitInventory(GroupEventBus eventBus, boolean workedByFibers) {
+		
+		// mineral patches and workers are changed by the worker fibers concurrently, all other groups only by the BWAPI thread
+		Backend concurrentBackend = workedByFibers ? Backend.SKIP_LIST : Backend.SORTED_ARRAY;
+		this.mineralPatches = new Group<>(concurrentBackend);
+		this.vespeneGeysers = new Group<>(Backend.SORTED_ARRAY);
+		this.commandCenters = new Group<>(Backend.SORTED_ARRAY);
+		this.refineries = new Group<>(Backend.SORTED_ARRAY);
+		this.barracks = new Group<>(Backend.SORTED_ARRAY);
+		this.factories = new Group<>(Backend.SORTED_ARRAY);
+		this.starports = new Group<>(Backend.SORTED_ARRAY);
+		this.buildings = new Group<>(Backend.SORTED_ARRAY);
+		this.constructions = new Group<>(Backend.SORTED_ARRAY);
 		this.allUnits = ConcurrentHashMap.newKeySet();
-		this.destroyedUnits = new Group<>();
-		this.scouts = new Group<>();
-		this.workers = new Group<>();
-		this.armyUnits = new Group<>();
+		this.allUnitsById = new IntMap<>(256);
+		this.registrations = new IntMap<>(256);
+		this.countByType = new int[UnitType.values().length];
+		this.constructionCountByType = new int[UnitType.values().length];
+		this.unitArchive = new UnitArchive();
+		this.destroyedUnits = null;
+		this.scouts = new Group<>(Backend.SORTED_ARRAY);
+		this.workers = new Group<>(concurrentBackend);
+		this.armyUnits = new Group<>(Backend.SORTED_ARRAY);
+		this.mobileUnitGrid = new UnitGrid<>();
+		this.spendLedger = new SpendLedger();
 		this.bullets = ConcurrentHashMap.newKeySet();
+		
+		for (Group<?> group : new Group<?>[] {this.mineralPatches, this.vespeneGeysers, this.commandCenters, this.refineries, this.barracks,
+				this.factories, this.starports, this.buildings, this.constructions, this.scouts, this.workers, this.armyUnits}) {
+			group.setEventBus(eventBus);
+		}
 	}
 
 	public void initialize(Collection<Bullet> bullets, MapAnalyzer mapAnalyzer) {
 		
-		this.observedGasSpent = 0;
-		this.observedMineralsSpent = -600;
+		this.spendLedger.reset();
+		this.frame = 0;
 		this.bullets = bullets;
 		this.mapAnalyzer = mapAnalyzer;
 		this.mineralPatches.clear();
@@ -82,137 +147,321 @@ public class UnitInventory {
 		this.buildings.clear();
 		this.constructions.clear();
 		this.allUnits.clear();
-		this.destroyedUnits.clear();
+		this.allUnitsById.clear();
+		this.registrations.clear();
+		Arrays.fill(this.countByType, 0);
+		Arrays.fill(this.constructionCountByType, 0);
+		this.unitArchive.reset();
+		if (this.destroyedUnits != null) {
+			this.destroyedUnits.clear();
+		}
 		this.scouts.clear();
 		this.workers.clear();
 		this.armyUnits.clear();
+		if (mapAnalyzer == null) {
+			this.mobileUnitGrid.clear();
+		} else {
+			this.mobileUnitGrid.initialize(mapAnalyzer.getBWMap().mapWidth(), mapAnalyzer.getBWMap().mapHeight());
+		}
+	}
+	
+	/**
+	 * Is called once per frame before the frame is processed. Moves units that changed their position to their new grid cells.
+	 * @param frame current frame
+	 */
+	public void onFrame(int frame) {
+		
+		this.frame = frame;
+		this.spendLedger.advanceTo(frame);
+		this.mobileUnitGrid.refresh();
+	}
+	
+	/**
+	 * Is called when a unit becomes visible again: it is re-inserted at its current position into the spatial index.
+	 */
+	public void onUnitShow(Unit unit) {
+		
+		if (unit instanceof MobileUnit && (this.armyUnits.contains(unit) || this.workers.contains(unit))) {
+			
+			this.mobileUnitGrid.update((MobileUnit)unit);
+		}
+	}
+	
+	/**
+	 * Is called when a unit becomes invisible: its position is unknown, so it is taken out of the spatial index.
+	 */
+	public void onUnitHide(Unit unit) {
+		
+		if (unit instanceof MobileUnit) {
+			
+			this.mobileUnitGrid.remove((MobileUnit)unit);
+		}
 	}
 	
 	public void register(Unit unit) {
 		
 		boolean addedPlayerUnit = false;
+		UnitBucket bucket = UnitBucket.of(unit);
 		
-		if (unit instanceof VespeneGeyser) {
+		switch (bucket) {
+		case VESPENE_GEYSER:
 			
 			this.vespeneGeysers.add((VespeneGeyser)unit);
-		} else if (unit instanceof MineralPatch) {
+			break;
+		case MINERAL_PATCH:
 			
 			MineralPatch patch = (MineralPatch)unit;
 			boolean success = this.mineralPatches.add(patch);
 			if (success) {
-				patch.initialize(this.mapAnalyzer, this.mineralPatches);
+				patch.initialize(this.mapAnalyzer);
 			}
-		} else {
-			
-			if (unit instanceof Building) {
+			break;
+		case COMMAND_CENTER:
+		case REFINERY:
+		case BARRACKS:
+		case FACTORY:
+		case STARPORT:
+		case BUILDING:
 			
-				Building building = (Building) unit;
-				if (building.isCompleted()) {
-					
-					if (building instanceof CommandCenter) {
-						
-						this.commandCenters.add((CommandCenter)building);
-					} else if (building instanceof GasMiningFacility) {
-											
-						this.refineries.add((GasMiningFacility)building);
-					} else if (building instanceof Barracks) {
-						
-						this.barracks.add((Barracks)building);
-					} else if (building instanceof Factory) {
-						
-						this.factories.add((Factory)building);
-					} else if (building instanceof Starport) {
-						
-						this.starports.add((Starport)building);
-					}
-					this.constructions.remove(building);
-					this.buildings.add(building);
-					addedPlayerUnit = this.allUnits.add(building);
-					
-				} else {
-					
-					this.constructions.add(building);
-				}
-			} else {
+			Building building = (Building) unit;
+			if (building.isCompleted()) {
 				
-				if (unit instanceof PlayerUnit) {
-					
-					if (unit instanceof SCV) {
-						
-						this.workers.add((SCV) unit);
-					} else if (unit instanceof MobileUnit) {
-						
-						this.armyUnits.add((MobileUnit)unit);
-					}
-					addedPlayerUnit = this.allUnits.add((PlayerUnit)unit);
-					
-				} else {
-					
-					// TODO e.g. critter
+				if (bucket != UnitBucket.BUILDING) {
+					getBuildingGroup(bucket).add(building);
+				}
+				// the resources of a completed construction have already been recorded when it was started
+				boolean spent = false;
+				if (this.constructions.remove(building)) {
+					unregistered(building.getId());
+					spent = true;
+				}
+				this.buildings.add(building);
+				addedPlayerUnit = this.allUnits.add(building);
+				this.allUnitsById.put(building.getId(), building);
+				if (addedPlayerUnit && !spent) {
+					recordSpending(building);
 				}
+				
+			} else if (this.constructions.add(building)) {
+				
+				registered(building, bucket, false);
+				recordSpending(building);
 			}
+			break;
+		case WORKER:
+			
+			this.workers.add((SCV) unit);
+			this.mobileUnitGrid.update((SCV) unit);
+			addedPlayerUnit = addPlayerUnit((PlayerUnit)unit);
+			break;
+		case ARMY:
+			
+			this.armyUnits.add((MobileUnit)unit);
+			this.mobileUnitGrid.update((MobileUnit)unit);
+			addedPlayerUnit = addPlayerUnit((PlayerUnit)unit);
+			break;
+		case PLAYER_UNIT:
+			
+			addedPlayerUnit = addPlayerUnit((PlayerUnit)unit);
+			break;
+		default:
+			// TODO e.g. critter
+			break;
 		}
 		
 		if (addedPlayerUnit) {
 			
-			this.observedMineralsSpent += ((PlayerUnit) unit).getMineralPrice();
-			this.observedGasSpent += ((PlayerUnit) unit).getGasPrice();
+			registered(unit, bucket, true);
+			if (!bucket.isBuilding()) {
+				recordSpending((PlayerUnit)unit);
+			}
 		}
 	}
 	
+	private void recordSpending(PlayerUnit unit) {
+		
+		this.spendLedger.record(this.frame, unit.getType(), unit.getMineralPrice(), unit.getGasPrice());
+	}
+	
+	private boolean addPlayerUnit(PlayerUnit unit) {
+		
+		this.allUnitsById.put(unit.getId(), unit);
+		return this.allUnits.add(unit);
+	}
+	
+	/**
+	 * Removes a destroyed unit from all groups and adds it to the unit archive.
+	 */
 	public void unregister(Unit unit) {
 		
-		logger.trace("registering {}.", unit);
-		if (unit instanceof VespeneGeyser) {
+		unregister(unit, true);
+	}
+	
+	/**
+	 * Re-registers a unit that changed its type (e.g. a morphed zerg unit). The unit is not archived as destroyed.
+	 */
+	public void reregister(Unit unit) {
+		
+		if (this.registrations.containsKey(unit.getId())) {
+			unregister(unit, false);
+		}
+		register(unit);
+	}
+	
+	private void unregister(Unit unit, boolean destroyed) {
+		
+		logger.trace("unregistering {}.", unit);
+		
+		// units are removed as they were registered: the type of a morphed unit may already have changed
+		Registration registration = this.registrations.get(unit.getId());
+		UnitBucket bucket = registration == null ? UnitBucket.of(unit) : registration.bucket;
+		boolean completed = registration == null ? !(unit instanceof Building) || ((Building)unit).isCompleted() : registration.completed;
+		
+		switch (bucket) {
+		case VESPENE_GEYSER:
 			
 			this.vespeneGeysers.destroy((VespeneGeyser)unit);
-		} else if (unit instanceof MineralPatch) {
+			return;
+		case MINERAL_PATCH:
 			
 			this.mineralPatches.destroy((MineralPatch)unit);
-		} else {
-			
-			if (unit instanceof Building) {
+			return;
+		case COMMAND_CENTER:
+		case REFINERY:
+		case BARRACKS:
+		case FACTORY:
+		case STARPORT:
+		case BUILDING:
 			
-				Building building = (Building) unit;
-				if (building.isCompleted()) {
-					
-					if (building instanceof CommandCenter) {
-						
-						this.commandCenters.destroy((CommandCenter)building);
-					} else if (building instanceof GasMiningFacility) {
-											
-						this.refineries.destroy((GasMiningFacility)building);
-					} else if (building instanceof Barracks) {
-						
-						this.barracks.destroy((Barracks)building);
-					} else if (building instanceof Factory) {
-						
-						this.factories.destroy((Factory)building);
-					} else if (building instanceof Starport) {
-						
-						this.starports.destroy((Starport)building);
-					}
-					this.buildings.destroy(building);
-					this.allUnits.remove(building);
-				} else {
-					
-					this.constructions.destroy(building);
+			if (completed) {
+				
+				if (bucket != UnitBucket.BUILDING) {
+					getBuildingGroup(bucket).destroy(unit);
 				}
+				this.buildings.destroy(unit);
+				this.allUnits.remove(unit);
+				this.allUnitsById.remove(unit.getId());
 			} else {
 				
-				if (unit instanceof SCV) {
-					
-					this.workers.destroy((SCV)unit);
-				} else if (unit instanceof MobileUnit) {
-					
-					this.armyUnits.destroy((MobileUnit)unit);
+				this.constructions.destroy(unit);
+			}
+			break;
+		case WORKER:
+			
+			this.workers.destroy(unit);
+			this.mobileUnitGrid.remove((SCV)unit);
+			this.allUnits.remove(unit);
+			this.allUnitsById.remove(unit.getId());
+			break;
+		case ARMY:
+			
+			this.armyUnits.destroy(unit);
+			this.mobileUnitGrid.remove((MobileUnit)unit);
+			this.allUnits.remove(unit);
+			this.allUnitsById.remove(unit.getId());
+			break;
+		case PLAYER_UNIT:
+			
+			this.allUnits.remove(unit);
+			this.allUnitsById.remove(unit.getId());
+			break;
+		default:
+			break;
+		}
+		unregistered(unit.getId());
+		if (destroyed && unit instanceof PlayerUnit) {
+			
+			if (this.destroyedUnits != null && this.unitArchive.size() == this.unitArchive.getCapacity()) {
+				
+				// the oldest record is about to leave the ring
+				PlayerUnit oldest = this.destroyedUnits.getValue(this.unitArchive.getId(0));
+				if (oldest != null) {
+					this.destroyedUnits.remove(oldest);
 				}
-				this.allUnits.remove((PlayerUnit)unit);
 			}
-			this.destroyedUnits.add((PlayerUnit)unit);
+			this.unitArchive.add(this.frame, (PlayerUnit)unit);
+			if (this.destroyedUnits != null) {
+				this.destroyedUnits.add((PlayerUnit)unit);
+			}
+		}
+	}
+	
+	/**
+	 * @return the group of completed buildings specific to the bucket (in addition to the group of all buildings)
+	 */
+	@SuppressWarnings("unchecked")
+	private Group<Building> getBuildingGroup(UnitBucket bucket) {
+		
+		Group<? extends Building> group;
+		switch (bucket) {
+		case COMMAND_CENTER:
+			group = this.commandCenters;
+			break;
+		case REFINERY:
+			group = this.refineries;
+			break;
+		case BARRACKS:
+			group = this.barracks;
+			break;
+		case FACTORY:
+			group = this.factories;
+			break;
+		case STARPORT:
+			group = this.starports;
+			break;
+		default:
+			throw new IllegalArgumentException("no specific group for " + bucket);
+		}
+		// safe: the bucket guarantees the unit class of the group
+		return (Group<Building>)group;
+	}
+	
+	private void registered(Unit unit, UnitBucket bucket, boolean completed) {
+		
+		Registration registration = new Registration(unit.getType(), bucket, completed);
+		Registration previous = this.registrations.put(unit.getId(), registration);
+		if (previous != null) {
+			count(previous, -1);
+		}
+		count(registration, 1);
+	}
+	
+	private void unregistered(int id) {
+		
+		Registration registration = this.registrations.remove(id);
+		if (registration != null) {
+			count(registration, -1);
+		}
+	}
+	
+	private void count(Registration registration, int delta) {
+		
+		if (registration.completed) {
+			this.countByType[registration.type.ordinal()] += delta;
+		} else {
+			this.constructionCountByType[registration.type.ordinal()] += delta;
 		}
 	}
 	
+	/**
+	 * Returns the number of units of the given type in this inventory in constant time. Buildings are counted once completed.
+	 * @param type unit type
+	 * @return number of units or completed buildings of that type
+	 */
+	public int getCount(UnitType type) {
+		
+		return this.countByType[type.ordinal()];
+	}
+	
+	/**
+	 * @param type building type
+	 * @return number of buildings of that type under construction
+	 */
+	public int getConstructionCount(UnitType type) {
+		
+		return this.constructionCountByType[type.ordinal()];
+	}
+	
 	public Group<MineralPatch> getMineralPatches() {
 		
 		return this.mineralPatches;
@@ -260,9 +509,37 @@ public class UnitInventory {
 		
 		return this.allUnits;
 	}
+	
+	/**
+	 * Looks up a registered player unit by its id in constant time. Must be called from the thread registering units.
+	 * @param id unit id
+	 * @return registered unit or null
+	 */
+	public PlayerUnit getUnit(int id) {
+		
+		return this.allUnitsById.get(id);
+	}
 
+	/**
+	 * @return compact records of the destroyed units of this inventory's player
+	 */
+	public UnitArchive getUnitArchive() {
+		
+		return this.unitArchive;
+	}
+
+	/**
+	 * Kept for existing strategies. The group is only filled from the first call on, so inventories nobody asks do not keep destroyed units alive:
+	 * it holds the units destroyed since then that are still recorded in the unit archive, i.e. at most {@link UnitArchive#getCapacity()}.
+	 * Must be called from the thread registering units.
+	 * @deprecated use {@link #getUnitArchive()}, which does not keep the unit objects alive
+	 */
+	@Deprecated
 	public Group<PlayerUnit> getDestroyedUnits() {
 		
+		if (this.destroyedUnits == null) {
+			this.destroyedUnits = new Group<>(Backend.SKIP_LIST);
+		}
 		return this.destroyedUnits;
 	}
 
@@ -280,6 +557,14 @@ public class UnitInventory {
 		
 		return this.armyUnits;
 	}
+	
+	/**
+	 * @return spatial index of all visible army units and workers
+	 */
+	public UnitGrid<MobileUnit> getMobileUnitGrid() {
+		
+		return this.mobileUnitGrid;
+	}
 
 	public Collection<Bullet> getBullets() {
 		
@@ -304,13 +589,24 @@ public class UnitInventory {
 		return this.workers.stream().filter(w -> w.isAvailable());
 	}
 	
+	/**
+	 * @return minerals spent on all units and constructions observed so far (not counting the units players start with)
+	 */
 	public int getObservedMineralsSpent() {
 		
-		return this.observedMineralsSpent + this.constructions.stream().mapToInt(b -> b.getMineralPrice()).sum();
+		return this.spendLedger.getTotalMinerals() - START_UNITS_MINERALS;
 	}
 	
 	public int getObservedGasSpent() {
 		
-		return this.observedGasSpent + this.constructions.stream().mapToInt(b -> b.getGasPrice()).sum();
+		return this.spendLedger.getTotalGas();
+	}
+	
+	/**
+	 * @return spending history of this player by unit type, e.g. to derive spend rates over recent time windows
+	 */
+	public SpendLedger getSpendLedger() {
+		
+		return this.spendLedger;
 	}
 }
\ No newline at end of file
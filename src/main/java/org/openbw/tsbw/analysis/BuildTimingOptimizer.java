@@ -0,0 +1,354 @@
+package org.openbw.tsbw.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Searches the SCV counts at which to place a list of buildings (the PPF2 waypoints) so that the income at a given time is maximal,
+ * with SCVs produced constantly up to a cap. The buildings are placed in the given order; each may be limited to a latest SCV count
+ * (e.g. a supply depot before the supply cap is reached) and a latest frame. A building may require an earlier one to be finished
+ * before it is placed (e.g. barracks need a supply depot), and a supply building has to be finished before the SCV count exceeds the supply
+ * available without it; plans violating either cannot be executed at the modelled frames and are rejected.
+ * The search is a branch and bound over the SCV count of each building. Placing one more building never gains more than the cost of
+ * the SCVs its delay pushes beyond the cap or the time, and always loses the mining of its builder, so the income of a partial plan
+ * plus the cost of the SCVs still to produce minus the least possible lost mining of the buildings still to place bounds all its completions.
+ * The first levels of the search tree are split into tasks of a ForkJoinPool.
+ */
+public class BuildTimingOptimizer {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	// the search tree is split into parallel tasks down to this depth
+	private static final int SPLIT_DEPTH = 2;
+
+	/**
+	 * A building to place.
+	 */
+	public static class Step {
+
+		private final String name;
+		private final int cost;
+		private final int lostMiningTime;
+		private final int latestScvs;
+		private final int deadline;
+		private final int buildTime;
+		private final int prerequisite;
+		private final int suppliedScvs;
+
+		/**
+		 * @param cost minerals
+		 * @param lostMiningTime frames the builder does not mine
+		 */
+		public Step(String name, int cost, int lostMiningTime) {
+
+			this(name, cost, lostMiningTime, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * @param latestScvs the building is placed at this SCV count at the latest
+		 * @param deadline the building is placed at this frame at the latest
+		 */
+		public Step(String name, int cost, int lostMiningTime, int latestScvs, int deadline) {
+
+			this(name, cost, 0, lostMiningTime, latestScvs, deadline);
+		}
+
+		/**
+		 * @param buildTime frames from placing the building until it is finished
+		 */
+		public Step(String name, int cost, int buildTime, int lostMiningTime, int latestScvs, int deadline) {
+
+			this(name, cost, buildTime, lostMiningTime, latestScvs, deadline, -1, Integer.MAX_VALUE);
+		}
+
+		private Step(String name, int cost, int buildTime, int lostMiningTime, int latestScvs, int deadline, int prerequisite, int suppliedScvs) {
+
+			this.name = name;
+			this.cost = cost;
+			this.buildTime = buildTime;
+			this.lostMiningTime = lostMiningTime;
+			this.latestScvs = latestScvs;
+			this.deadline = deadline;
+			this.prerequisite = prerequisite;
+			this.suppliedScvs = suppliedScvs;
+		}
+
+		/**
+		 * @param step index of an earlier step that has to be finished before this one is placed
+		 * @return a copy of this step with the prerequisite
+		 */
+		public Step requires(int step) {
+
+			return new Step(this.name, this.cost, this.buildTime, this.lostMiningTime, this.latestScvs, this.deadline, step, this.suppliedScvs);
+		}
+
+		/**
+		 * @param scvs SCV count the supply suffices for without this building: it has to be finished before the next SCV is started
+		 * @return a copy of this step with the supply constraint
+		 */
+		public Step supplies(int scvs) {
+
+			return new Step(this.name, this.cost, this.buildTime, this.lostMiningTime, this.latestScvs, this.deadline, this.prerequisite, scvs);
+		}
+
+		public String getName() {
+
+			return this.name;
+		}
+
+		@Override
+		public String toString() {
+
+			return this.name;
+		}
+	}
+
+	/**
+	 * The best placement found.
+	 */
+	public static class Plan {
+
+		private final int[] scvCounts;
+		private final int[] startFrames;
+		private final int income;
+
+		private Plan(int[] scvCounts, int[] startFrames, int income) {
+
+			this.scvCounts = scvCounts;
+			this.startFrames = startFrames;
+			this.income = income;
+		}
+
+		/**
+		 * @return the SCV count at which the step is placed
+		 */
+		public int getScvCount(int step) {
+
+			return this.scvCounts[step];
+		}
+
+		/**
+		 * @return the frame at which the step is placed according to the model
+		 */
+		public int getStartFrame(int step) {
+
+			return this.startFrames[step];
+		}
+
+		public int getIncome() {
+
+			return this.income;
+		}
+
+		@Override
+		public String toString() {
+
+			return "SCV counts " + Arrays.toString(this.scvCounts) + ", start frames " + Arrays.toString(this.startFrames) + ", income " + this.income;
+		}
+	}
+
+	private final IncomeModel incomeModel;
+	private final ForkJoinPool pool;
+
+	public BuildTimingOptimizer(IncomeModel incomeModel) {
+
+		this(incomeModel, ForkJoinPool.commonPool());
+	}
+
+	public BuildTimingOptimizer(IncomeModel incomeModel, ForkJoinPool pool) {
+
+		this.incomeModel = incomeModel;
+		this.pool = pool;
+	}
+
+	/**
+	 * @param steps buildings in the order they are placed
+	 * @param time frame at which the income is maximized; all buildings are placed before
+	 * @param maxScvs SCV production stops at this count
+	 * @return the best plan, or null if the buildings cannot be placed within the limits
+	 * @throws IllegalArgumentException if a step requires a step that is not placed before it
+	 */
+	public Plan optimize(List<Step> steps, int time, int maxScvs) {
+
+		for (int i = 0; i < steps.size(); i++) {
+
+			if (steps.get(i).prerequisite >= i) {
+				throw new IllegalArgumentException(steps.get(i) + " requires a step that is not placed before it");
+			}
+		}
+		Search search = new Search(new ArrayList<>(steps), time, Math.min(maxScvs, IncomeModel.MAX_SCVS));
+		long start = System.nanoTime();
+		if (steps.isEmpty()) {
+			search.offer(new int[0]);
+		} else {
+			this.pool.invoke(new SearchTask(search, new int[steps.size()], 0));
+		}
+		Plan plan = search.best;
+		logger.debug("optimized {} in {} ms ({} plans evaluated): {}", steps, (System.nanoTime() - start) / 1000000, search.evaluations.get(), plan);
+		return plan;
+	}
+
+	private class Search {
+
+		private final List<Step> steps;
+		private final int time;
+		private final int maxScvs;
+
+		// least mining lost by steps i.. to the end when placed at SCV count s or later: [i][s]
+		private final double[][] remainingLosses;
+
+		private final AtomicInteger bestIncome;
+		private final AtomicInteger evaluations;
+		private Plan best;
+
+		private Search(List<Step> steps, int time, int maxScvs) {
+
+			this.steps = steps;
+			this.time = time;
+			this.maxScvs = maxScvs;
+			this.remainingLosses = new double[steps.size() + 1][maxScvs + 1];
+			for (int i = steps.size() - 1; i >= 0; i--) {
+
+				double leastLoss = Double.POSITIVE_INFINITY;
+				for (int scvs = maxScvs; scvs > IncomeModel.START_SCVS; scvs--) {
+
+					// the loss as charged by the model
+					leastLoss = Math.min(leastLoss, incomeModel.getMiningRate(scvs) * steps.get(i).lostMiningTime / scvs);
+					this.remainingLosses[i][scvs] = this.remainingLosses[i + 1][scvs] + leastLoss;
+				}
+			}
+			this.bestIncome = new AtomicInteger(Integer.MIN_VALUE);
+			this.evaluations = new AtomicInteger();
+		}
+
+		/**
+		 * Evaluates the first steps placed at the given SCV counts.
+		 * The supply constraints are only checked once all steps are placed: later buildings delay the SCV production.
+		 * Prerequisites are checked on partial plans as well, since later buildings do not change when the earlier ones are placed.
+		 * @return the income of the partial plan or Integer.MIN_VALUE if one of its steps is not placed within its limits
+		 */
+		private int evaluate(int[] scvCounts, int placed, int[] startFrames) {
+
+			this.evaluations.incrementAndGet();
+			int[][] waypoints = new int[placed][];
+			for (int i = 0; i < placed; i++) {
+				waypoints[i] = new int[] {scvCounts[i], this.steps.get(i).cost, this.steps.get(i).lostMiningTime};
+			}
+			double[] frames = new double[placed];
+			double[] scvFrames = placed == this.steps.size() ? new double[this.maxScvs - IncomeModel.START_SCVS + 1] : null;
+			int income = incomeModel.evaluate(this.time, this.maxScvs, waypoints, frames, scvFrames);
+			for (int i = 0; i < placed; i++) {
+
+				Step step = this.steps.get(i);
+
+				// NaN: never placed
+				if (!(frames[i] <= Math.min(this.time, step.deadline))) {
+					return Integer.MIN_VALUE;
+				}
+				if (step.prerequisite >= 0 && frames[i] < frames[step.prerequisite] + this.steps.get(step.prerequisite).buildTime) {
+					return Integer.MIN_VALUE;
+				}
+
+				// the next SCV is started when the count is reached at the earliest
+				if (scvFrames != null && step.suppliedScvs < this.maxScvs
+						&& frames[i] + step.buildTime > scvFrames[Math.max(0, step.suppliedScvs - IncomeModel.START_SCVS)]) {
+					return Integer.MIN_VALUE;
+				}
+				if (startFrames != null) {
+					startFrames[i] = (int)frames[i];
+				}
+			}
+			return income;
+		}
+
+		private void offer(int[] scvCounts) {
+
+			int[] startFrames = new int[scvCounts.length];
+			int income = evaluate(scvCounts, scvCounts.length, startFrames);
+			if (income == Integer.MIN_VALUE) {
+				return;
+			}
+			synchronized (this) {
+
+				// ties go to the plan placing buildings earlier, so the result does not depend on the order tasks finish in
+				if (this.best == null || income > this.best.income || (income == this.best.income && compare(scvCounts, this.best.scvCounts) < 0)) {
+
+					this.best = new Plan(scvCounts.clone(), startFrames, income);
+					this.bestIncome.set(income);
+				}
+			}
+		}
+	}
+
+	private class SearchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Search search;
+		private final int[] scvCounts;
+		private final int depth;
+
+		private SearchTask(Search search, int[] scvCounts, int depth) {
+
+			this.search = search;
+			this.scvCounts = scvCounts;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+
+			search(this.scvCounts, this.depth);
+		}
+
+		private void search(int[] scvCounts, int depth) {
+
+			Step step = this.search.steps.get(depth);
+			int from = depth == 0 ? IncomeModel.START_SCVS + 1 : scvCounts[depth - 1];
+			int to = Math.min(this.search.maxScvs, step.latestScvs);
+			List<SearchTask> tasks = depth < SPLIT_DEPTH ? new ArrayList<>() : null;
+			for (int scvs = from; scvs <= to; scvs++) {
+
+				scvCounts[depth] = scvs;
+				int income = this.search.evaluate(scvCounts, depth + 1, null);
+				if (income == Integer.MIN_VALUE) {
+
+					// not necessarily the case at a higher SCV count: the wait for minerals is shorter with more SCVs mining
+					continue;
+				}
+				double bound = income + 1 + IncomeModel.SCV_COST * (this.search.maxScvs - scvs) - this.search.remainingLosses[depth + 1][scvs];
+				if (bound < this.search.bestIncome.get()) {
+					continue;
+				}
+				if (depth + 1 == this.search.steps.size()) {
+					this.search.offer(scvCounts);
+				} else if (tasks != null) {
+					tasks.add(new SearchTask(this.search, scvCounts.clone(), depth + 1));
+				} else {
+					search(scvCounts, depth + 1);
+				}
+			}
+			if (tasks != null) {
+				invokeAll(tasks);
+			}
+		}
+	}
+
+	private static int compare(int[] a, int[] b) {
+
+		for (int i = 0; i < a.length; i++) {
+
+			if (a[i] != b[i]) {
+				return Integer.compare(a[i], b[i]);
+			}
+		}
+		return 0;
+	}
+}
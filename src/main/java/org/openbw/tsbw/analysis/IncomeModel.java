@@ -0,0 +1,367 @@
+package org.openbw.tsbw.analysis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openbw.tsbw.Constants;
+import org.openbw.tsbw.unit.MineralPatch;
+
+/**
+ * Mineral income model of a set of mineral patches (the PPF2 model): SCVs are assigned greedily to the patch where they add the most,
+ * with a friction penalty for patches shared by several SCVs.
+ * The greedy assignment for n SCVs extends the one for n - 1 SCVs, so the mining rate curve for all SCV counts is computed in one pass
+ * when the model is built. Income queries assume constant SCV production; the production timeline (minerals and time before each
+ * new SCV) is computed once per start configuration and cached, so a query is a binary search on that table.
+ * Immutable apart from the timeline cache and thread-safe.
+ */
+public class IncomeModel {
+
+	/**
+	 * Largest number of SCVs the mining rate curve covers; larger counts are capped.
+	 */
+	public static final int MAX_SCVS = 200;
+
+	/* default */ static final int SCV_BUILD_TIME = 300;
+	/* default */ static final int SCV_COST = 50;
+	/* default */ static final int START_SCVS = 4;
+	private static final int INITIAL_MINING_DELAY = 120;
+
+	private static final int MAX_CACHED_TIMELINES = 16;
+
+	private static final int[][] NO_WAYPOINTS = new int[0][0];
+
+	/**
+	 * State before each new SCV when starting with the given minerals and SCVs and producing SCVs constantly,
+	 * stopping at the given waypoints to save for other spending.
+	 */
+	private static class Timeline {
+
+		private final int startScvs;
+
+		// minerals gathered and elapsed time before the n-th new SCV
+		private final double[] gathered;
+		private final double[] elapsed;
+
+		// mining lost at each waypoint
+		private final double[] losses;
+
+		// time each waypoint has been reached, NaN if not reached
+		private final double[] waypointFrames;
+
+		private Timeline(double[] miningRates, int initialMinerals, int startScvs, int endScvs, int[][] waypoints) {
+
+			int steps = Math.max(0, Math.min(endScvs, MAX_SCVS) - startScvs);
+			this.startScvs = startScvs;
+			this.gathered = new double[steps + 1];
+			this.elapsed = new double[steps + 1];
+			this.waypointFrames = new double[waypoints.length];
+			Arrays.fill(this.waypointFrames, Double.NaN);
+
+			double gatheredMinerals = initialMinerals;
+			double elapsedTime = 0.0;
+			double previousTime = INITIAL_MINING_DELAY;
+			this.gathered[0] = gatheredMinerals;
+			this.elapsed[0] = elapsedTime;
+			for (int step = 0; step < steps; step++) {
+
+				int currentScvs = startScvs + step;
+				double miningRate = miningRates[Math.max(0, currentScvs)];
+				double miningTime = Math.max(0, (int)((SCV_COST - gatheredMinerals) / miningRate / 8) * 8); // that's how long I need to gather 50 minerals
+				gatheredMinerals -= SCV_COST; // pay the SCV cost
+				gatheredMinerals += miningRate * miningTime;
+				double newScvTime = elapsedTime + miningTime;
+
+				elapsedTime = newScvTime + SCV_BUILD_TIME;
+				gatheredMinerals += miningRate * (elapsedTime - previousTime);
+				previousTime = elapsedTime + 40;
+				for (int i = 0; i < waypoints.length; i++) {
+					if (currentScvs == waypoints[i][0] - 1) {
+						miningTime = Math.max(0, (waypoints[i][1] - gatheredMinerals) / miningRate);
+						gatheredMinerals -= waypoints[i][1];
+						gatheredMinerals += miningRate * miningTime;
+						elapsedTime += miningTime;
+						this.waypointFrames[i] = elapsedTime;
+					}
+				}
+				this.gathered[step + 1] = gatheredMinerals;
+				this.elapsed[step + 1] = elapsedTime;
+			}
+
+			this.losses = new double[waypoints.length];
+			for (int i = 0; i < waypoints.length; i++) {
+				this.losses[i] = miningRates[clamp(waypoints[i][0])] * waypoints[i][2] / waypoints[i][0];
+			}
+		}
+
+		private int income(double[] miningRates, int time, int endScvs) {
+
+			// number of SCVs produced: until the cap is reached or the time is up
+			int steps = Math.min(Math.max(0, Math.min(endScvs, MAX_SCVS) - this.startScvs), this.elapsed.length - 1);
+			int low = 0;
+			int high = steps;
+			while (low < high) {
+
+				int middle = (low + high) >>> 1;
+				if (this.elapsed[middle] > time) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			int produced = low;
+			double gatheredMinerals = this.gathered[produced];
+			gatheredMinerals += miningRates[clamp(this.startScvs + produced)] * (time - this.elapsed[produced]);
+			for (double loss : this.losses) {
+				gatheredMinerals -= loss;
+			}
+			return (int)gatheredMinerals;
+		}
+	}
+
+	private static class TimelineKey {
+
+		private final int initialMinerals;
+		private final int startScvs;
+		private final int[][] waypoints;
+
+		private TimelineKey(int initialMinerals, int startScvs, int[][] waypoints) {
+
+			this.initialMinerals = initialMinerals;
+			this.startScvs = startScvs;
+			this.waypoints = waypoints;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			if (!(object instanceof TimelineKey)) {
+				return false;
+			}
+			TimelineKey other = (TimelineKey)object;
+			return this.initialMinerals == other.initialMinerals && this.startScvs == other.startScvs && Arrays.deepEquals(this.waypoints, other.waypoints);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * (31 * this.initialMinerals + this.startScvs) + Arrays.deepHashCode(this.waypoints);
+		}
+	}
+
+	private final double[] roundTripTimes;
+	private final double[] miningRates;
+	private final Timeline defaultTimeline;
+	private final Map<TimelineKey, Timeline> timelines;
+
+	/**
+	 * @param roundTripTimes round trip time of each patch in frames
+	 */
+	public IncomeModel(double[] roundTripTimes) {
+
+		if (roundTripTimes.length == 0) {
+			throw new IllegalArgumentException("no round trip times given");
+		}
+		this.roundTripTimes = roundTripTimes.clone();
+		Arrays.sort(this.roundTripTimes);
+		this.miningRates = computeMiningRates(this.roundTripTimes);
+		this.defaultTimeline = new Timeline(this.miningRates, Constants.INCOME_0, START_SCVS, MAX_SCVS, NO_WAYPOINTS);
+		this.timelines = new LinkedHashMap<TimelineKey, Timeline>(MAX_CACHED_TIMELINES, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<TimelineKey, Timeline> eldest) {
+
+				return size() > MAX_CACHED_TIMELINES;
+			}
+		};
+	}
+
+	/**
+	 * Creates the model of the given patches that have a command center to return to.
+	 * @return the model or null if none of the patches has a command center
+	 */
+	public static IncomeModel of(Collection<MineralPatch> patches) {
+
+		double[] roundTripTimes = patches.stream().mapToDouble(MineralPatch::getRoundTripTime)
+				.filter(roundTripTime -> roundTripTime < Double.MAX_VALUE).toArray();
+		return roundTripTimes.length == 0 ? null : new IncomeModel(roundTripTimes);
+	}
+
+	/**
+	 * @return the sorted round trip times the model was built from
+	 */
+	public double[] getRoundTripTimes() {
+
+		return this.roundTripTimes.clone();
+	}
+
+	public int getPatchCount() {
+
+		return this.roundTripTimes.length;
+	}
+
+	/**
+	 * @return minerals per frame mined by the given number of SCVs (capped at MAX_SCVS)
+	 */
+	public double getMiningRate(int scvs) {
+
+		return this.miningRates[clamp(scvs)];
+	}
+
+	public double getEstimatedMining(int time, int scvs) {
+
+		return time * getMiningRate(scvs);
+	}
+
+	/**
+	 * @return minerals (including the 50 start minerals) after the given time with constant SCV production up to the given number of SCVs
+	 */
+	public int getIncome(int time, int maxScvs) {
+
+		return getIncome(time, maxScvs, NO_WAYPOINTS);
+	}
+
+	/**
+	 * @param waypoints for each spending: {SCV count at which it happens, mineral cost, mining time lost}
+	 */
+	public int getIncome(int time, int maxScvs, int[][] waypoints) {
+
+		if (time < 15 && maxScvs == START_SCVS) {
+			return Constants.INCOME_0;
+		} else if (time < 15 && maxScvs > START_SCVS) {
+			return 0;
+		}
+		return getIncome(time, Constants.INCOME_0, START_SCVS, maxScvs, waypoints);
+	}
+
+	public int getIncome(int time, int initialMinerals, int startScvs, int endScvs) {
+
+		return getIncome(time, initialMinerals, startScvs, endScvs, NO_WAYPOINTS);
+	}
+
+	public int getIncome(int time, int initialMinerals, int startScvs, int endScvs, int[][] waypoints) {
+
+		return timeline(initialMinerals, startScvs, waypoints).income(this.miningRates, time, endScvs);
+	}
+
+	public int getMaxIncome(int time) {
+
+		return getMaxIncome(time, NO_WAYPOINTS);
+	}
+
+	/**
+	 * Calculates the maximum possible income at given time without assuming constant SCV production, i.e. with the best SCV cap.
+	 */
+	public int getMaxIncome(int time, int[][] waypoints) {
+
+		return getMaxIncomeScvs(time, waypoints)[1];
+	}
+
+	/**
+	 * @return the best SCV cap and the income at that cap
+	 */
+	/* default */ int[] getMaxIncomeScvs(int time, int[][] waypoints) {
+
+		double delay = time > 6 * SCV_BUILD_TIME ? 20 : 0;
+		int maxScvs = (int)(START_SCVS + (time - delay) / SCV_BUILD_TIME);
+
+		Timeline timeline = timeline(Constants.INCOME_0, START_SCVS, waypoints);
+		int income = 0;
+		int scvsAtMax = START_SCVS;
+		for (int i = START_SCVS; i < Math.min(maxScvs, MAX_SCVS + 1); i++) {
+
+			int currentIncome = time < 15 ? getIncome(time, i, waypoints) : timeline.income(this.miningRates, time, i);
+			if (currentIncome > income) {
+
+				income = currentIncome;
+				scvsAtMax = i;
+			}
+		}
+		return new int[] {scvsAtMax, income};
+	}
+
+	/**
+	 * Evaluates a plan without caching its timeline, for searches that try many waypoint placements once each.
+	 * @param waypointFrames receives the time each waypoint is reached (NaN if it is not reached before the SCV cap)
+	 * @param scvFrames receives at [n] the time the SCV count reaches START_SCVS + n, for n up to maxScvs - START_SCVS; may be null
+	 * @return the income as {@link #getIncome(int, int, int[][])} (for times of at least 15 frames)
+	 */
+	/* default */ int evaluate(int time, int maxScvs, int[][] waypoints, double[] waypointFrames, double[] scvFrames) {
+
+		Timeline timeline = new Timeline(this.miningRates, Constants.INCOME_0, START_SCVS, maxScvs, waypoints);
+		System.arraycopy(timeline.waypointFrames, 0, waypointFrames, 0, waypoints.length);
+		if (scvFrames != null) {
+			System.arraycopy(timeline.elapsed, 0, scvFrames, 0, Math.min(scvFrames.length, timeline.elapsed.length));
+		}
+		return timeline.income(this.miningRates, time, maxScvs);
+	}
+
+	private Timeline timeline(int initialMinerals, int startScvs, int[][] waypoints) {
+
+		if (initialMinerals == Constants.INCOME_0 && startScvs == START_SCVS && waypoints.length == 0) {
+			return this.defaultTimeline;
+		}
+		synchronized (this.timelines) {
+
+			TimelineKey key = new TimelineKey(initialMinerals, startScvs, copy(waypoints));
+			Timeline timeline = this.timelines.get(key);
+			if (timeline == null) {
+
+				timeline = new Timeline(this.miningRates, initialMinerals, startScvs, MAX_SCVS, key.waypoints);
+				this.timelines.put(key, timeline);
+			}
+			return timeline;
+		}
+	}
+
+	/**
+	 * Runs the greedy assignment once for MAX_SCVS SCVs and evaluates the mining rate after each step.
+	 */
+	private static double[] computeMiningRates(double[] patches) {
+
+		double[] miningRates = new double[MAX_SCVS + 1];
+		double[] assignedScvs = new double[patches.length];
+		for (int scv = 1; scv <= MAX_SCVS; scv++) {
+
+			// the rate includes a penalty of 8 frames for each additional SCV assigned to a patch due to "friction": random waiting in queue
+			double friction = Math.pow(scv, 1.215) - 8.5;
+			int patch = 0;
+			double maxFactor = 0.0;
+			for (int i = 0; i < patches.length; i++) {
+
+				double rate = Math.min((assignedScvs[i] + 1) * 8.0 / (patches[i] + assignedScvs[i] * friction), 8 / Constants.MINING_TIME);
+				double factor = rate / (assignedScvs[i] + 1);
+				if (factor > maxFactor) {
+
+					maxFactor = factor;
+					patch = i;
+				}
+			}
+			assignedScvs[patch] += 1;
+
+			double miningRate = 0;
+			for (int i = 0; i < patches.length; i++) {
+				miningRate += Math.min(assignedScvs[i] * 8.0 / (patches[i] + assignedScvs[i] * friction), 8 / Constants.MINING_TIME);
+			}
+			miningRates[scv] = miningRate;
+		}
+		return miningRates;
+	}
+
+	private static int clamp(int scvs) {
+
+		return Math.max(0, Math.min(MAX_SCVS, scvs));
+	}
+
+	private static int[][] copy(int[][] waypoints) {
+
+		int[][] copy = new int[waypoints.length][];
+		for (int i = 0; i < waypoints.length; i++) {
+			copy[i] = waypoints[i].clone();
+		}
+		return copy;
+	}
+}
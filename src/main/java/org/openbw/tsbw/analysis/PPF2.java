@@ -9,11 +9,6 @@ public final class PPF2 {
 
 	private static final Logger logger = LogManager.getLogger();
 	
-	private static final int SCV_BUILD_TIME = 300;
-	private static final int SCV_COST = 50;
-	private static final int START_SCVS = 4;
-	private static final int INITIAL_MINING_DELAY = 120;
-
 	// roundtrip times (measured) lost temple 9 o'clock main
 	//private static double[] PATCHES = new double[]{160, 178, 178, 182, 182, 182, 182, 205};
 	// roundtrip times (measured) lost temple 9 oclock natural
@@ -29,103 +24,52 @@ public final class PPF2 {
 //	int[] patches = new int[]{102, 121, 121, 121, 134, 134, 134, 138}; // distances main
 //	int[] patches = new int[]{102, 102, 109, 109, 122, 134, 134, 134}; // distances natural
 	
-	private static double calculateMiningRate(int scvs) {
+	private static volatile IncomeModel model = new IncomeModel(PATCHES);
+	
+	/**
+	 * Replaces the round trip times of the main base patches (Fighting Spirit by default), e.g. by times measured on the current map.
+	 */
+	public static void setRoundTripTimes(double[] roundTripTimes) {
 		
-		double[] assignedScvs = new double[]{0, 0, 0, 0, 0, 0, 0, 0, 0};
-		
-		for (int scv = 1; scv <= scvs; scv++) {
-			int patch = 0;
-			double maxFactor = 0.0;
-			for (int i = 0; i < PATCHES.length; i++) {
-				
-				// the rate includes a penalty of 8 frames for each additional SCV assigned to a patch due to "friction": random waiting in queue
-				double friction = assignedScvs[i]* (Math.pow(scv, 1.215) - 8.5);
-				double rate = Math.min((assignedScvs[i]+1) * 8.0/(PATCHES[i] + friction), 8/Constants.MINING_TIME);
-				double factor = rate / (assignedScvs[i]+1);
-				if (factor > maxFactor) {
-					maxFactor = factor;
-					patch = i;
-				}
-			}
-			assignedScvs[patch] += 1;
-		}
+		setIncomeModel(new IncomeModel(roundTripTimes));
+	}
+	
+	/**
+	 * Replaces the model the static calculations delegate to, e.g. by the model of the patches currently mined.
+	 */
+	public static void setIncomeModel(IncomeModel incomeModel) {
 		
-		double miningRate = 0;
-		for (int i = 0; i < assignedScvs.length; i++) {
-			double friction = assignedScvs[i]*(Math.pow(scvs, 1.215) - 8.5);
-			miningRate += Math.min(assignedScvs[i] * 8.0/(PATCHES[i] + friction), 8/Constants.MINING_TIME);
-		}
-		return miningRate;
+		model = incomeModel;
+	}
+	
+	public static IncomeModel getIncomeModel() {
+		
+		return model;
+	}
+	
+	private static double calculateMiningRate(int scvs) {
+		
+		return model.getMiningRate(scvs);
 	}
 
 	public static int calculateIncome(int time, int maxScvs) {
 		
-		return calculateIncome(time, maxScvs, new int[0][0]);
+		return model.getIncome(time, maxScvs);
 	}
 	
 	public static int calculateIncome(int time, int maxScvs, int[][] waypoints) {
 		
-		if (time < 15 && maxScvs == START_SCVS) {
-			return Constants.INCOME_0;
-		} else if (time < 15 && maxScvs > START_SCVS) {
-			return 0;
-		}
-		
-		int gatheredMinerals = calculateIncome(time, Constants.INCOME_0, START_SCVS, maxScvs, waypoints);
-		
-		return gatheredMinerals;
+		return model.getIncome(time, maxScvs, waypoints);
 	}
 	
 	public static int calculateIncome(int time, int initialMinerals, int startScvs, int endScvs) {
 		
-		return calculateIncome(time, initialMinerals, startScvs, endScvs, new int[0][0]);
+		return model.getIncome(time, initialMinerals, startScvs, endScvs);
 	}
 	
 	public static int calculateIncome(int time, int initialMinerals, int startScvs, int endScvs, int[][] waypoints) {
 		
-		double gatheredMinerals =  initialMinerals;
-		double elapsedTime = 0.0;
-		double previousTime = INITIAL_MINING_DELAY;
-		int currentScvs;
-		
-		for (currentScvs = startScvs; currentScvs < endScvs && elapsedTime <= time; currentScvs++) {
-		
-			//System.out.println("It is now time " + elapsedTime + " and I have gathered " + gatheredMinerals + " so far.");
-			
-			double miningRate = calculateMiningRate(currentScvs);
-			double miningTime;
-			
-			miningTime = Math.max(0, (int)((SCV_COST - gatheredMinerals) / miningRate / 8) * 8); // that's how long I need to gather 50 minerals
-			//if (miningTime > 0.0) {
-				//System.out.println("I don't have the required minerals just yet, gotta mine for an additional " + miningTime + " frames.");
-			//}
-			gatheredMinerals -= SCV_COST; // pay the SCV cost
-				
-			gatheredMinerals += miningRate * miningTime;
-			double newScvTime = elapsedTime + miningTime;
-			//System.out.println("I could start producing the SCV at time " + newScvTime);
-			
-			elapsedTime = newScvTime + SCV_BUILD_TIME;
-			gatheredMinerals += miningRate * (elapsedTime - previousTime);
-			previousTime = elapsedTime + 40;
-			for (int i = 0; i < waypoints.length; i++) {
-				if (currentScvs == waypoints[i][0] - 1) {
-					miningTime = Math.max(0, (waypoints[i][1] - gatheredMinerals) / miningRate);
-					gatheredMinerals -= waypoints[i][1];
-					gatheredMinerals += miningRate * miningTime;
-					elapsedTime += miningTime;
-				}
-			}
-		}
-		gatheredMinerals += calculateMiningRate(currentScvs) * (time - elapsedTime);
-		
-		//substract all lost mineral time
-		for (int i = 0; i < waypoints.length; i++) {
-			double miningRate = calculateMiningRate(waypoints[i][0]);
-			gatheredMinerals -=  miningRate * waypoints[i][2] / waypoints[i][0]; 
-		}
-		
-		return (int)gatheredMinerals;
+		return model.getIncome(time, initialMinerals, startScvs, endScvs, waypoints);
 	}
 	
 	public static int calculateMaxIncome(int time, boolean net) {
@@ -140,24 +84,13 @@ public final class PPF2 {
 	 */
 	public static int calculateMaxIncome(int time, int[][] waypoints, boolean net) {
 		
-		double delay = time > 6*SCV_BUILD_TIME ? 20 : 0;
-		int maxScvs = (int)(START_SCVS + (time - delay) / SCV_BUILD_TIME);
-		
-		int income = 0;
-		int scvsAtMax = 4;
-		for (int i = 4; i < maxScvs; i++) {
-			int currentIncome = calculateIncome(time, i, waypoints);
-			if (currentIncome > income) {
-				income = currentIncome;
-				scvsAtMax = i;
-			}
-		}
-		logger.debug("max at {} / {} SCVs", scvsAtMax, maxScvs);
-		return income;
+		int[] max = model.getMaxIncomeScvs(time, waypoints);
+		logger.debug("max at {} SCVs", max[0]);
+		return max[1];
 	}
 	
 	public static double calculateEstimatedMining(int time, int scvs) {
-		return time * calculateMiningRate(scvs);
+		return model.getEstimatedMining(time, scvs);
 	}
 	
 	private static void log(int time, int scvCap, int income1, int income2) {
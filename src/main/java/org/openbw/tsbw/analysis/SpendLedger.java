@@ -0,0 +1,197 @@
+package org.openbw.tsbw.analysis;
+
+import java.util.Arrays;
+
+import org.openbw.bwapi4j.type.UnitType;
+import org.openbw.tsbw.Constants;
+
+/**
+ * Records the resources a player has been observed to spend, per unit type and over time.
+ * Spending is bucketed into intervals of {@link #BUCKET_FRAMES} frames kept in a ring covering the last {@link #HISTORY_FRAMES} frames,
+ * so recording is O(1) and a window query costs one addition per bucket in the window. Windows are rounded to whole buckets.
+ * Totals are kept for the whole game. Not thread-safe: meant to be fed and queried from the BWAPI callback thread.
+ */
+public class SpendLedger {
+
+	/**
+	 * Length of one history bucket in frames (10 seconds of game time on fastest).
+	 */
+	public static final int BUCKET_FRAMES = 240;
+
+	private static final int BUCKETS = 64;
+
+	/**
+	 * Length of the history available for window queries in frames.
+	 */
+	public static final int HISTORY_FRAMES = BUCKET_FRAMES * BUCKETS;
+
+	private static final int TYPES = UnitType.values().length;
+
+	private final int[] totalMineralsByType;
+	private final int[] totalGasByType;
+	private int totalMinerals;
+	private int totalGas;
+
+	// [bucket * TYPES + type ordinal]
+	private final int[] mineralsByBucketAndType;
+	private final int[] gasByBucketAndType;
+	private final int[] mineralsByBucket;
+	private final int[] gasByBucket;
+
+	private int currentBucket;
+	private int currentFrame;
+
+	public SpendLedger() {
+
+		this.totalMineralsByType = new int[TYPES];
+		this.totalGasByType = new int[TYPES];
+		this.mineralsByBucketAndType = new int[BUCKETS * TYPES];
+		this.gasByBucketAndType = new int[BUCKETS * TYPES];
+		this.mineralsByBucket = new int[BUCKETS];
+		this.gasByBucket = new int[BUCKETS];
+		reset();
+	}
+
+	public void reset() {
+
+		Arrays.fill(this.totalMineralsByType, 0);
+		Arrays.fill(this.totalGasByType, 0);
+		Arrays.fill(this.mineralsByBucketAndType, 0);
+		Arrays.fill(this.gasByBucketAndType, 0);
+		Arrays.fill(this.mineralsByBucket, 0);
+		Arrays.fill(this.gasByBucket, 0);
+		this.totalMinerals = 0;
+		this.totalGas = 0;
+		this.currentBucket = 0;
+		this.currentFrame = 0;
+	}
+
+	/**
+	 * Records resources spent on a unit of the given type.
+	 * @param frame frame the spending was observed at; frames must not decrease between calls
+	 */
+	public void record(int frame, UnitType type, int minerals, int gas) {
+
+		advanceTo(frame);
+		int slot = this.currentBucket % BUCKETS;
+		int ordinal = type.ordinal();
+		this.totalMineralsByType[ordinal] += minerals;
+		this.totalGasByType[ordinal] += gas;
+		this.totalMinerals += minerals;
+		this.totalGas += gas;
+		this.mineralsByBucketAndType[slot * TYPES + ordinal] += minerals;
+		this.gasByBucketAndType[slot * TYPES + ordinal] += gas;
+		this.mineralsByBucket[slot] += minerals;
+		this.gasByBucket[slot] += gas;
+	}
+
+	/**
+	 * Moves the ring to the bucket of the given frame, clearing the buckets that are reused.
+	 * Should be called every frame (or at least before queries) so windows end at the current frame.
+	 */
+	public void advanceTo(int frame) {
+
+		if (frame <= this.currentFrame) {
+			return;
+		}
+		this.currentFrame = frame;
+		int bucket = frame / BUCKET_FRAMES;
+		if (bucket == this.currentBucket) {
+			return;
+		}
+		int stale = Math.min(bucket - this.currentBucket, BUCKETS);
+		for (int i = 1; i <= stale; i++) {
+
+			int slot = (this.currentBucket + i) % BUCKETS;
+			Arrays.fill(this.mineralsByBucketAndType, slot * TYPES, (slot + 1) * TYPES, 0);
+			Arrays.fill(this.gasByBucketAndType, slot * TYPES, (slot + 1) * TYPES, 0);
+			this.mineralsByBucket[slot] = 0;
+			this.gasByBucket[slot] = 0;
+		}
+		this.currentBucket = bucket;
+	}
+
+	public int getTotalMinerals() {
+
+		return this.totalMinerals;
+	}
+
+	public int getTotalGas() {
+
+		return this.totalGas;
+	}
+
+	public int getTotalMinerals(UnitType type) {
+
+		return this.totalMineralsByType[type.ordinal()];
+	}
+
+	public int getTotalGas(UnitType type) {
+
+		return this.totalGasByType[type.ordinal()];
+	}
+
+	/**
+	 * @param windowFrames window ending at the current frame (at most {@link #HISTORY_FRAMES})
+	 * @return minerals spent within the window
+	 */
+	public int getMinerals(int windowFrames) {
+
+		return sum(this.mineralsByBucket, 1, 0, windowFrames);
+	}
+
+	public int getGas(int windowFrames) {
+
+		return sum(this.gasByBucket, 1, 0, windowFrames);
+	}
+
+	public int getMinerals(UnitType type, int windowFrames) {
+
+		return sum(this.mineralsByBucketAndType, TYPES, type.ordinal(), windowFrames);
+	}
+
+	public int getGas(UnitType type, int windowFrames) {
+
+		return sum(this.gasByBucketAndType, TYPES, type.ordinal(), windowFrames);
+	}
+
+	/**
+	 * @param windowFrames window ending at the current frame (at most {@link #HISTORY_FRAMES})
+	 * @return average minerals spent per minute (at fastest game speed) within the window
+	 */
+	public double getMineralsPerMinute(int windowFrames) {
+
+		return getMinerals(windowFrames) * Constants.FRAMES_PER_MINUTE / roundedWindow(windowFrames);
+	}
+
+	public double getGasPerMinute(int windowFrames) {
+
+		return getGas(windowFrames) * Constants.FRAMES_PER_MINUTE / roundedWindow(windowFrames);
+	}
+
+	private int sum(int[] values, int stride, int offset, int windowFrames) {
+
+		int buckets = bucketsIn(windowFrames);
+		int sum = 0;
+		for (int i = 0; i < buckets; i++) {
+
+			int slot = Math.floorMod(this.currentBucket - i, BUCKETS);
+			sum += values[slot * stride + offset];
+		}
+		return sum;
+	}
+
+	private int bucketsIn(int windowFrames) {
+
+		int buckets = (windowFrames + BUCKET_FRAMES - 1) / BUCKET_FRAMES;
+		return Math.max(1, Math.min(Math.min(buckets, BUCKETS), this.currentBucket + 1));
+	}
+
+	/**
+	 * @return number of frames covered by the buckets of the window (the current bucket only covers the frames elapsed so far)
+	 */
+	private int roundedWindow(int windowFrames) {
+
+		return (bucketsIn(windowFrames) - 1) * BUCKET_FRAMES + this.currentFrame % BUCKET_FRAMES + 1;
+	}
+}
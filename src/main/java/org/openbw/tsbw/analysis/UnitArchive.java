@@ -0,0 +1,284 @@
+package org.openbw.tsbw.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.openbw.bwapi4j.type.UnitType;
+import org.openbw.bwapi4j.unit.PlayerUnit;
+
+/**
+ * Compact record of destroyed units: id, type, owner, last position and frame of death are kept in primitive arrays
+ * forming a ring buffer of fixed capacity, so no unit objects are kept alive and memory use is bounded.
+ * When the ring is full, the oldest records are dropped - or, if a spill file has been set, appended to that memory-mapped file first.
+ * The spill file starts with the number of records as a long, followed by the records as 6 big-endian ints each: id, type ordinal, owner id, x, y, frame.
+ * Loss totals per type are kept for the whole game. Not thread-safe: meant to be used from the BWAPI callback thread.
+ */
+public class UnitArchive {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final int HEADER_BYTES = Long.BYTES;
+	private static final int RECORD_BYTES = 6 * Integer.BYTES;
+	private static final int SPILL_CHUNK_BYTES = RECORD_BYTES * 16384;
+	private static final UnitType[] TYPES = UnitType.values();
+
+	private final int capacity;
+	private final int[] ids;
+	private final short[] types;
+	private final int[] owners;
+	private final int[] xs;
+	private final int[] ys;
+	private final int[] frames;
+	private int head;
+	private int size;
+
+	private final int[] lossesByType;
+	private int totalLosses;
+
+	private FileChannel spillChannel;
+	private MappedByteBuffer spillBuffer;
+	private long spillPosition;
+	private long spilledRecords;
+
+	public UnitArchive() {
+
+		this(DEFAULT_CAPACITY);
+	}
+
+	public UnitArchive(int capacity) {
+
+		this.capacity = capacity;
+		this.ids = new int[capacity];
+		this.types = new short[capacity];
+		this.owners = new int[capacity];
+		this.xs = new int[capacity];
+		this.ys = new int[capacity];
+		this.frames = new int[capacity];
+		this.lossesByType = new int[TYPES.length];
+		this.head = 0;
+		this.size = 0;
+		this.totalLosses = 0;
+	}
+
+	/**
+	 * Removes all records. A spill file still open is closed without adding the remaining records.
+	 */
+	public void reset() {
+
+		this.head = 0;
+		this.size = 0;
+		this.totalLosses = 0;
+		Arrays.fill(this.lossesByType, 0);
+		try {
+			closeSpill();
+		} catch (IOException e) {
+			logger.error("could not close spill file: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Records dropped from the ring will be appended to the given file from now on. An existing file is overwritten.
+	 */
+	public void setSpillFile(String fileName) throws IOException {
+
+		closeSpill();
+		Path path = Paths.get(fileName);
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		this.spillChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.spillPosition = HEADER_BYTES;
+		this.spilledRecords = 0;
+		this.spillBuffer = null;
+	}
+
+	/**
+	 * Writes all records still in the ring to the spill file (so the file contains the complete history) and closes it.
+	 * Does nothing if no spill file is set.
+	 */
+	public void close() throws IOException {
+
+		if (this.spillChannel == null) {
+			return;
+		}
+		for (int i = 0; i < this.size; i++) {
+			spill(index(i));
+		}
+		closeSpill();
+	}
+
+	public void add(int frame, PlayerUnit unit) {
+
+		int slot;
+		if (this.size == this.capacity) {
+
+			slot = this.head;
+			if (this.spillChannel != null) {
+				spill(slot);
+			}
+			this.head = (this.head + 1) % this.capacity;
+		} else {
+
+			slot = (this.head + this.size) % this.capacity;
+			this.size++;
+		}
+		int type = unit.getType().ordinal();
+		this.ids[slot] = unit.getId();
+		this.types[slot] = (short)type;
+		this.owners[slot] = unit.getPlayer() == null ? -1 : unit.getPlayer().getId();
+		this.xs[slot] = unit.getX();
+		this.ys[slot] = unit.getY();
+		this.frames[slot] = frame;
+		this.lossesByType[type]++;
+		this.totalLosses++;
+	}
+
+	public int getCapacity() {
+
+		return this.capacity;
+	}
+
+	/**
+	 * @return number of records in the ring (at most the capacity)
+	 */
+	public int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @return number of units lost during the whole game
+	 */
+	public int getTotalLosses() {
+
+		return this.totalLosses;
+	}
+
+	/**
+	 * @return number of units of the given type lost during the whole game
+	 */
+	public int getLosses(UnitType type) {
+
+		return this.lossesByType[type.ordinal()];
+	}
+
+	/**
+	 * Counts the recorded losses with a frame of death in [fromFrame, toFrame]. Only records still in the ring are considered.
+	 * @param type unit type or null for all types
+	 */
+	public int getLosses(UnitType type, int fromFrame, int toFrame) {
+
+		int count = 0;
+		// records are added in frame order: walk backwards from the newest until before the window
+		for (int i = this.size - 1; i >= 0; i--) {
+
+			int slot = index(i);
+			if (this.frames[slot] < fromFrame) {
+				break;
+			}
+			if (this.frames[slot] <= toFrame && (type == null || this.types[slot] == type.ordinal())) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the losses of a type within the given number of frames before (and including) the given frame.
+	 */
+	public int getRecentLosses(UnitType type, int frame, int windowFrames) {
+
+		return getLosses(type, frame - windowFrames, frame);
+	}
+
+	/*
+	 * accessors for the records in the ring, index 0 being the oldest.
+	 */
+
+	public int getId(int index) {
+
+		return this.ids[index(index)];
+	}
+
+	public UnitType getType(int index) {
+
+		return TYPES[this.types[index(index)]];
+	}
+
+	public int getOwner(int index) {
+
+		return this.owners[index(index)];
+	}
+
+	public int getX(int index) {
+
+		return this.xs[index(index)];
+	}
+
+	public int getY(int index) {
+
+		return this.ys[index(index)];
+	}
+
+	public int getFrame(int index) {
+
+		return this.frames[index(index)];
+	}
+
+	private int index(int index) {
+
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+		}
+		return (this.head + index) % this.capacity;
+	}
+
+	private void spill(int slot) {
+
+		try {
+			if (this.spillBuffer == null || this.spillBuffer.remaining() < RECORD_BYTES) {
+				this.spillBuffer = this.spillChannel.map(FileChannel.MapMode.READ_WRITE, this.spillPosition, SPILL_CHUNK_BYTES);
+			}
+			this.spillBuffer.putInt(this.ids[slot]);
+			this.spillBuffer.putInt(this.types[slot]);
+			this.spillBuffer.putInt(this.owners[slot]);
+			this.spillBuffer.putInt(this.xs[slot]);
+			this.spillBuffer.putInt(this.ys[slot]);
+			this.spillBuffer.putInt(this.frames[slot]);
+			this.spillPosition += RECORD_BYTES;
+			this.spilledRecords++;
+		} catch (IOException e) {
+			throw new IllegalStateException("could not spill destroyed unit to file", e);
+		}
+	}
+
+	private void closeSpill() throws IOException {
+
+		if (this.spillChannel != null) {
+
+			if (this.spillBuffer != null) {
+				this.spillBuffer.force();
+			}
+			this.spillBuffer = null;
+			// the file cannot be truncated while mapped (on Windows), so readers rely on the record count in the header
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putLong(0, this.spilledRecords);
+			this.spillChannel.write(header, 0);
+			this.spillChannel.close();
+			this.spillChannel = null;
+		}
+	}
+}
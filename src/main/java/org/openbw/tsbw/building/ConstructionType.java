@@ -103,6 +103,10 @@ public enum ConstructionType {
 		return this.unitType.gasPrice();
 	}
 	
+	public int getBuildTime() {
+		return this.unitType.buildTime();
+	}
+	
 	public int tileHeight() {
 		return this.unitType.tileHeight();
 	}
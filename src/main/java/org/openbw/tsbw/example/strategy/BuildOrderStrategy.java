@@ -2,27 +2,60 @@ package org.openbw.tsbw.example.strategy;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openbw.bwapi4j.BW;
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.Factory;
 import org.openbw.tsbw.GroupListener;
+import org.openbw.tsbw.MapAnalyzer;
+import org.openbw.tsbw.UnitInventory;
+import org.openbw.tsbw.analysis.BuildTimingOptimizer;
+import org.openbw.tsbw.analysis.PPF2;
+import org.openbw.tsbw.building.BuildingPlanner;
 import org.openbw.tsbw.building.ConstructionType;
 import org.openbw.tsbw.strategy.AbstractGameStrategy;
+import org.openbw.tsbw.strategy.ScoutingStrategy;
 	
 /**
  * This strategy contains a very basic concept to execute a pre-defined build order.
  * The build order is defined in the start method, and then executed step by step in the run method.
  * 
  * You could write code to read a build order from a file and generate the corresponding actions to be executed.
+ * 
+ * The SCV counts at which the buildings of the opening are placed are optimized for income by the BuildTimingOptimizer.
+ * The optimization runs in the background between initialize and start; if it is not done by then, a default opening is used.
  */
 public class BuildOrderStrategy extends AbstractGameStrategy {
 
 	private static final Logger logger = LogManager.getLogger();
 	
+	private static final int START_SCVS = 4;
+	
+	/**
+	 * The opening: buildings placed while producing SCVs up to OPENING_SCVS, optimized for the income at OPENING_TIME.
+	 */
+	private static final ConstructionType[] OPENING = {ConstructionType.Terran_Supply_Depot, ConstructionType.Terran_Barracks, ConstructionType.Terran_Refinery};
+	private static final int[] DEFAULT_OPENING_SCVS = {8, 10, 12};
+	private static final int OPENING_SCVS = 12;
+	private static final int OPENING_TIME = 3000;
+	
+	// the command center provides supply for 10 SCVs: the depot has to be started before and finished before the 11th SCV is started
+	private static final int COMMAND_CENTER_SUPPLY_SCVS = 10;
+	
+	// frames a builder needs to get to a construction site in the main and back
+	private static final int BUILDER_TRAVEL_TIME = 144;
+	
+	private static final long OPTIMIZER_TIMEOUT_MILLIS = 100;
+	
 	private List<BoAction> buildOrder;
 	private int boPointer;
+	private CompletableFuture<BuildTimingOptimizer.Plan> opening;
 	
 	/**
 	 * Listens to events affecting my buildings.
@@ -56,6 +89,56 @@ public class BuildOrderStrategy extends AbstractGameStrategy {
 	public BuildOrderStrategy() {
 	
 	}
+	
+	@Override
+	public void initialize(BW bw, MapAnalyzer mapAnalyzer, ScoutingStrategy scoutingStrategy, BuildingPlanner buildingPlanner, UnitInventory player1Inventory,
+			UnitInventory player2Inventory) {
+		
+		super.initialize(bw, mapAnalyzer, scoutingStrategy, buildingPlanner, player1Inventory, player2Inventory);
+		
+		List<BuildTimingOptimizer.Step> steps = new ArrayList<>();
+		int supplyDepot = -1;
+		for (ConstructionType type : OPENING) {
+			
+			// the builder walks to the site before it starts the building
+			BuildTimingOptimizer.Step step = new BuildTimingOptimizer.Step(type.name(), type.getMineralPrice(), type.getBuildTime() + BUILDER_TRAVEL_TIME / 2,
+					type.getBuildTime() + BUILDER_TRAVEL_TIME, Integer.MAX_VALUE, Integer.MAX_VALUE);
+			if (type == ConstructionType.Terran_Supply_Depot) {
+				
+				step = step.supplies(COMMAND_CENTER_SUPPLY_SCVS);
+				supplyDepot = steps.size();
+			} else if (type == ConstructionType.Terran_Barracks && supplyDepot >= 0) {
+				
+				step = step.requires(supplyDepot);
+			}
+			steps.add(step);
+		}
+		BuildTimingOptimizer optimizer = new BuildTimingOptimizer(PPF2.getIncomeModel());
+		this.opening = CompletableFuture.supplyAsync(() -> optimizer.optimize(steps, OPENING_TIME, OPENING_SCVS));
+	}
+	
+	private int[] getOpeningScvs() {
+		
+		BuildTimingOptimizer.Plan plan = null;
+		try {
+			plan = this.opening.get(OPTIMIZER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			logger.warn("could not optimize the opening: {}", e.toString());
+		}
+		if (plan == null) {
+			
+			this.opening.cancel(true);
+			return DEFAULT_OPENING_SCVS;
+		}
+		logger.info("optimized opening: {}", plan);
+		int[] scvCounts = new int[OPENING.length];
+		for (int i = 0; i < OPENING.length; i++) {
+			scvCounts[i] = plan.getScvCount(i);
+		}
+		return scvCounts;
+	}
 		
 	@Override
 	public void start(int startMinerals, int startGas) {
@@ -67,17 +150,17 @@ public class BuildOrderStrategy extends AbstractGameStrategy {
 		this.myInventory.getBuildings().addListener(buildingsListener);
 		
 		// add actions here. this just a random build order building one of each building units.
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new ConstructionAction(buildingPlanner, ConstructionType.Terran_Supply_Depot));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new ConstructionAction(buildingPlanner, ConstructionType.Terran_Barracks));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
-		this.buildOrder.add(new ConstructionAction(buildingPlanner, ConstructionType.Terran_Refinery));
+		int[] openingScvs = getOpeningScvs();
+		for (int scvs = START_SCVS + 1; scvs <= OPENING_SCVS; scvs++) {
+			
+			this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
+			for (int i = 0; i < OPENING.length; i++) {
+				
+				if (openingScvs[i] == scvs) {
+					this.buildOrder.add(new ConstructionAction(buildingPlanner, OPENING[i]));
+				}
+			}
+		}
 		this.buildOrder.add(new TrainMarineAction(myInventory));
 		this.buildOrder.add(new TrainWorkerAction(myInventory.getMain()));
 		this.buildOrder.add(new TrainMarineAction(myInventory));
@@ -1,5 +1,8 @@
 package org.openbw.tsbw.example.strategy;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.Position;
@@ -8,8 +11,10 @@ import org.openbw.bwapi4j.unit.Barracks;
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.CommandCenter;
 import org.openbw.bwapi4j.unit.MobileUnit;
+import org.openbw.tsbw.BatchGroupListener;
 import org.openbw.tsbw.GroupListener;
 import org.openbw.tsbw.building.ConstructionType;
+import org.openbw.tsbw.micro.MoveCommand;
 import org.openbw.tsbw.strategy.AbstractGameStrategy;
 import org.openbw.tsbw.unit.SCV;
 
@@ -57,16 +62,34 @@ public class DummyStrategy extends AbstractGameStrategy {
 	};
 	
 	/**
-	 * Listens to events affecting my army units.
+	 * Listens to events affecting my army units. Events are delivered once per frame:
+	 * if several units are trained in the same frame, the army is only ordered to move once.
 	 */
-	private GroupListener<MobileUnit> armyListener = new GroupListener<MobileUnit>() {
+	private BatchGroupListener<MobileUnit> armyListener = new BatchGroupListener<MobileUnit>() {
 
 		@Override
-		public void onAdd(MobileUnit unit) {
+		public void onAddAll(List<MobileUnit> units) {
 			
-			logger.info("unit {} was added.", unit);
+			logger.info("units {} were added.", units);
 
-			myInventory.getArmyUnits().stream().forEach(u -> u.move(new Position(2000, 2000)));
+			// the command buffer drops the order for units that are still carrying out the same move;
+			// without a buffer every unit is ordered again
+			Position target = new Position(2000, 2000);
+			for (MobileUnit unit : myInventory.getArmyUnits()) {
+				
+				MoveCommand command = new MoveCommand(unit, target);
+				if (commandBuffer == null) {
+					command.execute();
+				} else {
+					commandBuffer.submit(command);
+				}
+			}
+		}
+		
+		@Override
+		public void onAdd(MobileUnit unit) {
+			
+			onAddAll(Collections.singletonList(unit));
 		}
 
 		@Override
@@ -176,7 +199,7 @@ public class DummyStrategy extends AbstractGameStrategy {
 		// feel free to add or remove listeners as needed. Any Group can be listened to.
 		
 		this.myInventory.getBuildings().addListener(buildingsListener);
-		this.myInventory.getArmyUnits().addListener(armyListener);
+		this.myInventory.getArmyUnits().addBatchListener(armyListener);
 		this.myInventory.getWorkers().addListener(workerListener);
 		this.enemyInventory.getBuildings().addListener(enemyBuildingsListener);
 		this.enemyInventory.getArmyUnits().addListener(enemyArmyListener);
@@ -192,7 +215,7 @@ public class DummyStrategy extends AbstractGameStrategy {
 		}
 		// train workers until we have 24 workers.
 		// we keep count of available minerals while we decide on how to spend them.
-		if (this.myInventory.getWorkers().size() < 40 && availableMinerals >= 50) {
+		if (this.myInventory.getCount(UnitType.Terran_SCV) < 40 && availableMinerals >= 50) {
 			availableMinerals -= trainWorker(availableMinerals);
 		}
 		if (availableMinerals > 150 && (this.myInventory.getCommandCenters().size() + this.buildingPlanner.getCount(ConstructionType.Terran_Command_Center) == 2)
@@ -221,7 +244,7 @@ public class DummyStrategy extends AbstractGameStrategy {
 			availableMinerals -= ConstructionType.Terran_Supply_Depot.getMineralPrice();
 		}
 		
-		if (this.myInventory.getWorkers().size() == 13 && this.myInventory.getCommandCenters().size() + this.buildingPlanner.getCount(ConstructionType.Terran_Command_Center) == 1) {
+		if (this.myInventory.getCount(UnitType.Terran_SCV) == 13 && this.myInventory.getCommandCenters().size() + this.buildingPlanner.getCount(ConstructionType.Terran_Command_Center) == 1) {
 		
 			this.buildingPlanner.queue(ConstructionType.Terran_Command_Center);
 			availableMinerals -= ConstructionType.Terran_Command_Center.getMineralPrice();
@@ -0,0 +1,359 @@
+package org.openbw.tsbw.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Instruments the worker actors: the depth of the mailbox when a frame update is sent, the time an actor stays parked waiting for its command
+ * to be executed, and the delay from a build request being sent to the construct command being executed (in microseconds and frames).
+ * Every actor records into its own {@link Recorder}. Each histogram of a recorder is written by one thread only, either the BWAPI thread
+ * or the strand of the actor, so recording needs no synchronization; snapshots taken while the actors run are approximate.
+ * When an actor stops, its recorder is removed and folded into a single "retired" recorder, so the number of recorders is bounded by the
+ * number of live actors while the totals still include the dead ones.
+ * Disabled by default and can be switched on and off at any time; while disabled, an instrumentation point costs a single volatile read.
+ * The commands can additionally be emitted as JFR events. JFR is loaded by reflection since not every Java 8 runtime provides it;
+ * the build leaves out the JFR event sink if the JDK building the bot has no jdk.jfr.
+ */
+public class ActorMetrics {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final String JFR_EVENT_SINK = "org.openbw.tsbw.metrics.JfrEventSink";
+
+	/**
+	 * Emits an event per executed command, e.g. to JFR.
+	 */
+	public interface EventSink {
+
+		/**
+		 * @return the event, started now
+		 */
+		Object begin();
+
+		void commit(Object event, String actor, String command, boolean success);
+	}
+
+	/**
+	 * The metrics of one actor.
+	 */
+	public static class Recorder {
+
+		private final ActorMetrics metrics;
+		private final String name;
+
+		// written by the BWAPI thread
+		private final Histogram mailboxDepth;
+		private final Histogram buildLatencyMicros;
+		private final Histogram buildLatencyFrames;
+		private long frameUpdatesSent;
+		private long commands;
+		private long failedCommands;
+
+		// written by the strand of the actor
+		private final Histogram parkMicros;
+		private long messagesReceived;
+		private long frameUpdatesReceived;
+		private long parkStart;
+		private Object event;
+
+		private Recorder(ActorMetrics metrics, String name) {
+
+			this.metrics = metrics;
+			this.name = name;
+			this.mailboxDepth = new Histogram();
+			this.buildLatencyMicros = new Histogram();
+			this.buildLatencyFrames = new Histogram();
+			this.parkMicros = new Histogram();
+		}
+
+		public ActorMetrics getMetrics() {
+
+			return this.metrics;
+		}
+
+		public String getName() {
+
+			return this.name;
+		}
+
+		/**
+		 * Called by the BWAPI thread before a frame update is put into the mailbox.
+		 */
+		public void onFrameUpdateSent(int mailboxDepth) {
+
+			this.mailboxDepth.record(mailboxDepth);
+			this.frameUpdatesSent++;
+		}
+
+		/**
+		 * Called by the actor for every message it receives.
+		 */
+		public void onMessageReceived(boolean frameUpdate) {
+
+			this.messagesReceived++;
+			if (frameUpdate) {
+				this.frameUpdatesReceived++;
+			}
+		}
+
+		/**
+		 * Called by the actor before it parks until its command has been executed.
+		 */
+		public void beginPark() {
+
+			EventSink eventSink = this.metrics.eventSink;
+			this.event = eventSink == null ? null : eventSink.begin();
+			this.parkStart = System.nanoTime();
+		}
+
+		/**
+		 * Called by the actor after it has been unparked.
+		 */
+		public void endPark(Object command, boolean success) {
+
+			this.parkMicros.record((System.nanoTime() - this.parkStart) / 1000);
+			EventSink eventSink = this.metrics.eventSink;
+			if (eventSink != null && this.event != null) {
+				eventSink.commit(this.event, this.name, command.getClass().getSimpleName(), success);
+			}
+			this.event = null;
+		}
+
+		/**
+		 * Called by the BWAPI thread when a command of the actor has been executed.
+		 */
+		public void onCommandExecuted(boolean success) {
+
+			this.commands++;
+			if (!success) {
+				this.failedCommands++;
+			}
+		}
+
+		/**
+		 * Called by the BWAPI thread when the construct command for a build request has been executed.
+		 * @param requestNanos System.nanoTime when the build request was sent
+		 */
+		public void onBuildExecuted(long requestNanos, int requestFrame, int frame) {
+
+			this.buildLatencyMicros.record((System.nanoTime() - requestNanos) / 1000);
+			this.buildLatencyFrames.record(frame - requestFrame);
+		}
+
+		private void add(Recorder other) {
+
+			this.mailboxDepth.add(other.mailboxDepth);
+			this.buildLatencyMicros.add(other.buildLatencyMicros);
+			this.buildLatencyFrames.add(other.buildLatencyFrames);
+			this.parkMicros.add(other.parkMicros);
+			this.frameUpdatesSent += other.frameUpdatesSent;
+			this.commands += other.commands;
+			this.failedCommands += other.failedCommands;
+			this.messagesReceived += other.messagesReceived;
+			this.frameUpdatesReceived += other.frameUpdatesReceived;
+		}
+
+		private void reset() {
+
+			this.mailboxDepth.reset();
+			this.buildLatencyMicros.reset();
+			this.buildLatencyFrames.reset();
+			this.parkMicros.reset();
+			this.frameUpdatesSent = 0;
+			this.commands = 0;
+			this.failedCommands = 0;
+			this.messagesReceived = 0;
+			this.frameUpdatesReceived = 0;
+		}
+	}
+
+	private final Map<Object, Recorder> recorders;
+	// guarded by itself
+	private final Recorder retired;
+	private boolean anyRetired;
+
+	private volatile boolean enabled;
+	private volatile EventSink eventSink;
+
+	public ActorMetrics() {
+
+		this.recorders = new ConcurrentHashMap<>();
+		this.retired = new Recorder(this, "retired");
+		this.anyRetired = false;
+		this.enabled = false;
+	}
+
+	/**
+	 * Resets the metrics of all actors. Actors recording at the same time may leave a value or two.
+	 */
+	public void reset() {
+
+		for (Recorder recorder : this.recorders.values()) {
+			recorder.reset();
+		}
+		synchronized (this.retired) {
+
+			this.retired.reset();
+			this.anyRetired = false;
+		}
+	}
+
+	public boolean isEnabled() {
+
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Emits a JFR event for every command executed by an actor while the metrics are enabled and a recording is running.
+	 * @return false if this runtime does not provide JFR
+	 */
+	public boolean setJfrEnabled(boolean jfrEnabled) {
+
+		if (!jfrEnabled) {
+
+			this.eventSink = null;
+			return true;
+		}
+		try {
+
+			this.eventSink = (EventSink)Class.forName(JFR_EVENT_SINK).getDeclaredConstructor().newInstance();
+			return true;
+		} catch (ReflectiveOperationException | LinkageError e) {
+
+			logger.warn("JFR is not available: {}", e.toString());
+			return false;
+		}
+	}
+
+	public boolean isJfrEnabled() {
+
+		return this.eventSink != null;
+	}
+
+	/**
+	 * May be called from any thread; returns the same recorder for the same actor.
+	 */
+	public Recorder getRecorder(Object actor, String name) {
+
+		return this.recorders.computeIfAbsent(actor, a -> new Recorder(this, name));
+	}
+
+	/**
+	 * Called when an actor stops: its metrics are added to the retired recorder and no longer reported separately.
+	 * Values the actor records afterwards through a recorder it still holds are lost.
+	 */
+	public void removeRecorder(Object actor) {
+
+		Recorder recorder = this.recorders.remove(actor);
+		if (recorder != null) {
+
+			synchronized (this.retired) {
+
+				this.retired.add(recorder);
+				this.anyRetired = true;
+			}
+		}
+	}
+
+	public ActorMetricsSnapshot getSnapshot() {
+
+		List<ActorMetricsSnapshot.ActorStats> actors = new ArrayList<>(this.recorders.size());
+		Histogram mailboxDepth = new Histogram();
+		Histogram parkMicros = new Histogram();
+		Histogram buildLatencyMicros = new Histogram();
+		Histogram buildLatencyFrames = new Histogram();
+		long frameUpdatesSent = 0;
+		long frameUpdatesReceived = 0;
+		long messagesReceived = 0;
+		long commands = 0;
+		long failedCommands = 0;
+		List<Recorder> recorders = new ArrayList<>(this.recorders.values());
+		Recorder retired = new Recorder(this, this.retired.name);
+		synchronized (this.retired) {
+
+			if (this.anyRetired) {
+
+				retired.add(this.retired);
+				recorders.add(retired);
+			}
+		}
+		for (Recorder recorder : recorders) {
+
+			actors.add(toStats(recorder.name, recorder.frameUpdatesSent, recorder.frameUpdatesReceived, recorder.messagesReceived, recorder.commands,
+					recorder.failedCommands, recorder.mailboxDepth, recorder.parkMicros, recorder.buildLatencyMicros, recorder.buildLatencyFrames));
+			mailboxDepth.add(recorder.mailboxDepth);
+			parkMicros.add(recorder.parkMicros);
+			buildLatencyMicros.add(recorder.buildLatencyMicros);
+			buildLatencyFrames.add(recorder.buildLatencyFrames);
+			frameUpdatesSent += recorder.frameUpdatesSent;
+			frameUpdatesReceived += recorder.frameUpdatesReceived;
+			messagesReceived += recorder.messagesReceived;
+			commands += recorder.commands;
+			failedCommands += recorder.failedCommands;
+		}
+		actors.sort((a1, a2) -> a1.getName().compareTo(a2.getName()));
+		ActorMetricsSnapshot.ActorStats total = toStats("all", frameUpdatesSent, frameUpdatesReceived, messagesReceived, commands, failedCommands,
+				mailboxDepth, parkMicros, buildLatencyMicros, buildLatencyFrames);
+		return new ActorMetricsSnapshot(total, actors);
+	}
+
+	private static ActorMetricsSnapshot.ActorStats toStats(String name, long frameUpdatesSent, long frameUpdatesReceived, long messagesReceived,
+			long commands, long failedCommands, Histogram mailboxDepth, Histogram parkMicros, Histogram buildLatencyMicros, Histogram buildLatencyFrames) {
+
+		return new ActorMetricsSnapshot.ActorStats(name, frameUpdatesSent, frameUpdatesReceived, messagesReceived, commands, failedCommands,
+				new ActorMetricsSnapshot.Distribution(mailboxDepth), new ActorMetricsSnapshot.Distribution(parkMicros),
+				new ActorMetricsSnapshot.Distribution(buildLatencyMicros), new ActorMetricsSnapshot.Distribution(buildLatencyFrames));
+	}
+
+	/**
+	 * Writes one line per actor and one for all actors together. Durations are in milliseconds.
+	 */
+	public void writeSummary(String fileName) throws IOException {
+
+		ActorMetricsSnapshot snapshot = getSnapshot();
+		Path path = Paths.get(fileName);
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+
+			writer.println("actor;frame_updates_sent;frame_updates_received;messages_received;commands;failed_commands;mailbox_depth_mean;mailbox_depth_max;"
+					+ "park_p50_ms;park_p99_ms;park_max_ms;builds;build_latency_p50_ms;build_latency_max_ms;build_latency_p50_frames;build_latency_max_frames");
+			writeLine(writer, snapshot.getTotal());
+			for (ActorMetricsSnapshot.ActorStats actor : snapshot.getActors()) {
+				writeLine(writer, actor);
+			}
+		}
+	}
+
+	private static void writeLine(PrintWriter writer, ActorMetricsSnapshot.ActorStats actor) {
+
+		writer.println(actor.getName() + ";" + actor.getFrameUpdatesSent() + ";" + actor.getFrameUpdatesReceived() + ";" + actor.getMessagesReceived() + ";"
+				+ actor.getCommands() + ";" + actor.getFailedCommands() + ";" + String.format("%.2f", actor.getMailboxDepth().getMean()) + ";"
+				+ actor.getMailboxDepth().getMax() + ";" + toMillis(actor.getParkMicros().getP50()) + ";" + toMillis(actor.getParkMicros().getP99()) + ";"
+				+ toMillis(actor.getParkMicros().getMax()) + ";" + actor.getBuildLatencyMicros().getCount() + ";"
+				+ toMillis(actor.getBuildLatencyMicros().getP50()) + ";" + toMillis(actor.getBuildLatencyMicros().getMax()) + ";"
+				+ actor.getBuildLatencyFrames().getP50() + ";" + actor.getBuildLatencyFrames().getMax());
+	}
+
+	private static String toMillis(long micros) {
+
+		return String.format("%.2f", micros / 1000.0);
+	}
+}
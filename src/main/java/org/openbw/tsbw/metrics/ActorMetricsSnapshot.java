@@ -0,0 +1,192 @@
+package org.openbw.tsbw.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The worker actor metrics as collected by {@link ActorMetrics}, per actor and for all actors together. Immutable.
+ */
+public class ActorMetricsSnapshot {
+
+	/**
+	 * A summary of a {@link Histogram}.
+	 */
+	public static class Distribution {
+
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p99;
+		private final long max;
+
+		/* default */ Distribution(Histogram histogram) {
+
+			this.count = histogram.getCount();
+			this.mean = histogram.getMean();
+			this.p50 = histogram.getPercentile(50);
+			this.p99 = histogram.getPercentile(99);
+			this.max = histogram.getMax();
+		}
+
+		public long getCount() {
+
+			return this.count;
+		}
+
+		public double getMean() {
+
+			return this.mean;
+		}
+
+		public long getP50() {
+
+			return this.p50;
+		}
+
+		public long getP99() {
+
+			return this.p99;
+		}
+
+		public long getMax() {
+
+			return this.max;
+		}
+
+		@Override
+		public String toString() {
+
+			return String.format("p50 %d / p99 %d / max %d (%d values)", this.p50, this.p99, this.max, this.count);
+		}
+	}
+
+	public static class ActorStats {
+
+		private final String name;
+		private final long frameUpdatesSent;
+		private final long frameUpdatesReceived;
+		private final long messagesReceived;
+		private final long commands;
+		private final long failedCommands;
+		private final Distribution mailboxDepth;
+		private final Distribution parkMicros;
+		private final Distribution buildLatencyMicros;
+		private final Distribution buildLatencyFrames;
+
+		/* default */ ActorStats(String name, long frameUpdatesSent, long frameUpdatesReceived, long messagesReceived, long commands, long failedCommands,
+				Distribution mailboxDepth, Distribution parkMicros, Distribution buildLatencyMicros, Distribution buildLatencyFrames) {
+
+			this.name = name;
+			this.frameUpdatesSent = frameUpdatesSent;
+			this.frameUpdatesReceived = frameUpdatesReceived;
+			this.messagesReceived = messagesReceived;
+			this.commands = commands;
+			this.failedCommands = failedCommands;
+			this.mailboxDepth = mailboxDepth;
+			this.parkMicros = parkMicros;
+			this.buildLatencyMicros = buildLatencyMicros;
+			this.buildLatencyFrames = buildLatencyFrames;
+		}
+
+		public String getName() {
+
+			return this.name;
+		}
+
+		public long getFrameUpdatesSent() {
+
+			return this.frameUpdatesSent;
+		}
+
+		/**
+		 * @return frame updates received; fewer than sent if the mailbox conflates them
+		 */
+		public long getFrameUpdatesReceived() {
+
+			return this.frameUpdatesReceived;
+		}
+
+		/**
+		 * @return all messages received, including the frame updates
+		 */
+		public long getMessagesReceived() {
+
+			return this.messagesReceived;
+		}
+
+		public long getCommands() {
+
+			return this.commands;
+		}
+
+		public long getFailedCommands() {
+
+			return this.failedCommands;
+		}
+
+		/**
+		 * @return messages in the mailbox when a frame update was sent
+		 */
+		public Distribution getMailboxDepth() {
+
+			return this.mailboxDepth;
+		}
+
+		/**
+		 * @return time parked waiting for a command to be executed in microseconds
+		 */
+		public Distribution getParkMicros() {
+
+			return this.parkMicros;
+		}
+
+		/**
+		 * @return time from sending a build request until the construct command was executed in microseconds
+		 */
+		public Distribution getBuildLatencyMicros() {
+
+			return this.buildLatencyMicros;
+		}
+
+		/**
+		 * @return frames from sending a build request until the construct command was executed
+		 */
+		public Distribution getBuildLatencyFrames() {
+
+			return this.buildLatencyFrames;
+		}
+
+		@Override
+		public String toString() {
+
+			return this.name + ": " + this.frameUpdatesSent + " frame updates sent, " + this.frameUpdatesReceived + " received, " + this.commands + " commands ("
+					+ this.failedCommands + " failed), mailbox depth " + this.mailboxDepth + ", parked us " + this.parkMicros + ", build latency frames "
+					+ this.buildLatencyFrames;
+		}
+	}
+
+	private final ActorStats total;
+	private final List<ActorStats> actors;
+
+	/* default */ ActorMetricsSnapshot(ActorStats total, List<ActorStats> actors) {
+
+		this.total = total;
+		this.actors = Collections.unmodifiableList(actors);
+	}
+
+	/**
+	 * @return the metrics of all actors together
+	 */
+	public ActorStats getTotal() {
+
+		return this.total;
+	}
+
+	/**
+	 * @return the metrics per live actor, ordered by name, plus the stopped actors together as "retired" if there are any
+	 */
+	public List<ActorStats> getActors() {
+
+		return this.actors;
+	}
+}
@@ -0,0 +1,348 @@
+package org.openbw.tsbw.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbw.tsbw.Constants;
+import org.openbw.tsbw.analysis.PPF2;
+import org.openbw.tsbw.unit.MineralPatch;
+import org.openbw.tsbw.unit.SCV;
+
+import com.google.gson.Gson;
+
+/**
+ * Collects economy metrics from the state of the SCVs: minerals delivered per patch and per base, idle SCV frames,
+ * failed gather commands, SCVs waiting at a patch another SCV is mining, and the realized income compared to the income PPF2 predicts
+ * for the number of mining SCVs. Rates are per minute ({@link Constants#FRAMES_PER_MINUTE}), measured over a sliding window of about a minute.
+ * The metrics are available as {@link EconomySnapshot} and can be dumped periodically: one JSON snapshot per line and one CSV row per patch.
+ * The dump files are appended to by all games; every row names its game (the time this object was created or reset) and map.
+ * Not thread-safe: meant to be used from the BWAPI callback thread.
+ */
+public class EconomyMetrics {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * A dump interval of about a minute.
+	 */
+	public static final int DEFAULT_DUMP_INTERVAL = (int)Math.round(Constants.FRAMES_PER_MINUTE);
+
+	private static final int BUCKET_FRAMES = 240;
+	private static final int BUCKETS = (int)Math.round(Constants.FRAMES_PER_MINUTE / BUCKET_FRAMES);
+
+	// SCVs closer to their patch (in pixels) without cargo are mining or waiting to mine
+	private static final int CONTENTION_DISTANCE = 32;
+
+	private static final String JSON_FILE = "economy.jsonl";
+	private static final String CSV_FILE = "economy-patches.csv";
+	private static final String CSV_HEADER = "game;map;frame;patch;x;y;base_x;base_y;scvs;minerals_per_minute;minerals_gathered;waiting_scv_frames";
+	private static final DateTimeFormatter GAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+	private static class PatchStats {
+
+		private final MineralPatch patch;
+		private final int[] buckets;
+		private long mineralsGathered;
+		private long waitingScvFrames;
+		private int nearScvs;
+
+		private PatchStats(MineralPatch patch) {
+
+			this.patch = patch;
+			this.buckets = new int[BUCKETS];
+		}
+	}
+
+	private static class WorkerStats {
+
+		private boolean carrying;
+		private MineralPatch pickupPatch;
+		private int gatherCommandFailures;
+	}
+
+	private final Map<MineralPatch, PatchStats> patches;
+	private final Map<SCV, WorkerStats> workers;
+	private final int[] realizedBuckets;
+	private final double[] predictedBuckets;
+
+	private int startFrame;
+	private int frame;
+	private int bucket;
+	private long mineralsGathered;
+	private double predictedMineralsGathered;
+	private long idleWorkerFrames;
+	private long gatherCommandFailures;
+
+	private String game;
+	private String map;
+
+	private Path dumpDirectory;
+	private int dumpInterval;
+	private Gson gson;
+
+	public EconomyMetrics() {
+
+		this.patches = new IdentityHashMap<>();
+		this.workers = new IdentityHashMap<>();
+		this.realizedBuckets = new int[BUCKETS];
+		this.predictedBuckets = new double[BUCKETS];
+		this.map = "";
+		this.dumpInterval = DEFAULT_DUMP_INTERVAL;
+		reset();
+	}
+
+	/**
+	 * Starts a new game.
+	 */
+	public void reset() {
+
+		this.game = LocalDateTime.now().format(GAME_FORMAT);
+
+		this.patches.clear();
+		this.workers.clear();
+		Arrays.fill(this.realizedBuckets, 0);
+		Arrays.fill(this.predictedBuckets, 0);
+		this.startFrame = -1;
+		this.frame = 0;
+		this.bucket = 0;
+		this.mineralsGathered = 0;
+		this.predictedMineralsGathered = 0;
+		this.idleWorkerFrames = 0;
+		this.gatherCommandFailures = 0;
+	}
+
+	/**
+	 * @param map name of the map the game is played on, written to the dump files
+	 */
+	public void setMap(String map) {
+
+		this.map = map == null ? "" : map.replace(';', ',');
+	}
+
+	/**
+	 * Enables the periodic dump to the given directory.
+	 * @param interval frames between two dumps
+	 */
+	public void setDump(String directory, int interval) {
+
+		this.dumpDirectory = Paths.get(directory);
+		this.dumpInterval = interval;
+		this.gson = new Gson();
+	}
+
+	/**
+	 * Updates the metrics from the current state of the SCVs. Is called once per frame.
+	 */
+	public void onFrame(int frame, Iterable<SCV> scvs) {
+
+		if (this.startFrame < 0) {
+			this.startFrame = frame;
+		}
+		this.frame = frame;
+		int bucket = (frame / BUCKET_FRAMES) % BUCKETS;
+		if (bucket != this.bucket) {
+			startBucket(bucket);
+		}
+
+		int miningScvs = 0;
+		for (SCV scv : scvs) {
+
+			WorkerStats stats = this.workers.get(scv);
+			if (stats == null) {
+
+				stats = new WorkerStats();
+				this.workers.put(scv, stats);
+			}
+			if (scv.isIdle()) {
+				this.idleWorkerFrames++;
+			}
+			int failures = scv.getGatherCommandFailures();
+			this.gatherCommandFailures += failures - stats.gatherCommandFailures;
+			stats.gatherCommandFailures = failures;
+
+			MineralPatch patch = scv.getMineralPatch();
+			boolean carrying = scv.isCarryingMinerals();
+			if (carrying && !stats.carrying) {
+				stats.pickupPatch = patch;
+			} else if (!carrying && stats.carrying && stats.pickupPatch != null) {
+
+				deliver(stats.pickupPatch);
+				stats.pickupPatch = null;
+			}
+			stats.carrying = carrying;
+			if (patch != null) {
+
+				miningScvs++;
+				if (!carrying && scv.getDistance(patch) <= CONTENTION_DISTANCE) {
+					patchStats(patch).nearScvs++;
+				}
+			}
+		}
+		for (PatchStats stats : this.patches.values()) {
+
+			if (stats.nearScvs > 1) {
+				stats.waitingScvFrames += stats.nearScvs - 1;
+			}
+			stats.nearScvs = 0;
+		}
+		double predicted = PPF2.getIncomeModel().getMiningRate(miningScvs);
+		this.predictedMineralsGathered += predicted;
+		this.predictedBuckets[bucket] += predicted;
+
+		if (frame % BUCKET_FRAMES == 0) {
+
+			for (Iterator<SCV> iterator = this.workers.keySet().iterator(); iterator.hasNext();) {
+				if (!iterator.next().exists()) {
+					iterator.remove();
+				}
+			}
+		}
+		if (this.dumpDirectory != null && frame > this.startFrame && frame % this.dumpInterval == 0) {
+			dump();
+		}
+	}
+
+	public EconomySnapshot getSnapshot() {
+
+		double window = getWindowFrames();
+		List<EconomySnapshot.PatchMetrics> patchMetrics = new ArrayList<>(this.patches.size());
+		Map<Long, List<EconomySnapshot.PatchMetrics>> bases = new LinkedHashMap<>();
+		for (PatchStats stats : this.patches.values()) {
+
+			MineralPatch patch = stats.patch;
+			int baseX = Integer.MAX_VALUE;
+			int baseY = Integer.MAX_VALUE;
+			if (patch.getDxToClosestCC() != Integer.MAX_VALUE) {
+
+				baseX = patch.getX() - patch.getDxToClosestCC();
+				baseY = patch.getY() - patch.getDyToClosestCC();
+			}
+			EconomySnapshot.PatchMetrics metrics = new EconomySnapshot.PatchMetrics(patch.getId(), patch.getX(), patch.getY(), baseX, baseY,
+					patch.getScvCount(), sum(stats.buckets) * Constants.FRAMES_PER_MINUTE / window, stats.mineralsGathered, stats.waitingScvFrames);
+			patchMetrics.add(metrics);
+			bases.computeIfAbsent(((long)baseX << 32) | (baseY & 0xFFFFFFFFL), key -> new ArrayList<>()).add(metrics);
+		}
+		List<EconomySnapshot.BaseMetrics> baseMetrics = new ArrayList<>(bases.size());
+		for (List<EconomySnapshot.PatchMetrics> basePatches : bases.values()) {
+
+			int scvs = 0;
+			double mineralsPerMinute = 0;
+			long gathered = 0;
+			for (EconomySnapshot.PatchMetrics metrics : basePatches) {
+
+				scvs += metrics.getScvs();
+				mineralsPerMinute += metrics.getMineralsPerMinute();
+				gathered += metrics.getMineralsGathered();
+			}
+			baseMetrics.add(new EconomySnapshot.BaseMetrics(basePatches.get(0).getBaseX(), basePatches.get(0).getBaseY(), basePatches.size(), scvs,
+					mineralsPerMinute, gathered));
+		}
+		double predicted = 0;
+		for (double value : this.predictedBuckets) {
+			predicted += value;
+		}
+		return new EconomySnapshot(this.game, this.map, this.frame, sum(this.realizedBuckets) * Constants.FRAMES_PER_MINUTE / window,
+				predicted * Constants.FRAMES_PER_MINUTE / window, this.mineralsGathered, this.predictedMineralsGathered, this.idleWorkerFrames,
+				this.gatherCommandFailures, patchMetrics, baseMetrics);
+	}
+
+	/**
+	 * Appends the current snapshot to the dump files, if a dump directory has been set.
+	 */
+	public void dump() {
+
+		if (this.dumpDirectory == null) {
+			return;
+		}
+		EconomySnapshot snapshot = getSnapshot();
+		try {
+
+			Files.createDirectories(this.dumpDirectory);
+			Path csv = this.dumpDirectory.resolve(CSV_FILE);
+			boolean newFile = !Files.exists(csv);
+			try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+
+				if (newFile) {
+					writer.println(CSV_HEADER);
+				}
+				for (EconomySnapshot.PatchMetrics patch : snapshot.getPatches()) {
+
+					writer.println(snapshot.getGame() + ";" + snapshot.getMap() + ";" + snapshot.getFrame() + ";" + patch.getId() + ";" + patch.getX() + ";" + patch.getY() + ";" + patch.getBaseX() + ";"
+							+ patch.getBaseY() + ";" + patch.getScvs() + ";" + String.format("%.1f", patch.getMineralsPerMinute()) + ";"
+							+ patch.getMineralsGathered() + ";" + patch.getWaitingScvFrames());
+				}
+			}
+			try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(this.dumpDirectory.resolve(JSON_FILE), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+				writer.println(this.gson.toJson(snapshot));
+			}
+		} catch (IOException e) {
+			logger.error("could not write economy metrics: {}", e.getMessage());
+		}
+	}
+
+	private void deliver(MineralPatch patch) {
+
+		int minerals = (int)Constants.MINERALS_PER_ROUNDTRIP;
+		PatchStats stats = patchStats(patch);
+		stats.mineralsGathered += minerals;
+		stats.buckets[this.bucket] += minerals;
+		this.mineralsGathered += minerals;
+		this.realizedBuckets[this.bucket] += minerals;
+	}
+
+	private PatchStats patchStats(MineralPatch patch) {
+
+		PatchStats stats = this.patches.get(patch);
+		if (stats == null) {
+
+			stats = new PatchStats(patch);
+			this.patches.put(patch, stats);
+		}
+		return stats;
+	}
+
+	private void startBucket(int bucket) {
+
+		this.bucket = bucket;
+		this.realizedBuckets[bucket] = 0;
+		this.predictedBuckets[bucket] = 0;
+		for (PatchStats stats : this.patches.values()) {
+			stats.buckets[bucket] = 0;
+		}
+	}
+
+	/**
+	 * @return number of frames the buckets cover: up to a minute, less at the start of the game
+	 */
+	private double getWindowFrames() {
+
+		int window = (BUCKETS - 1) * BUCKET_FRAMES + this.frame % BUCKET_FRAMES + 1;
+		return Math.max(1, Math.min(window, this.frame - this.startFrame + 1));
+	}
+
+	private static int sum(int[] values) {
+
+		int sum = 0;
+		for (int value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+}
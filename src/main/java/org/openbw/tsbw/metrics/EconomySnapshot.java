@@ -0,0 +1,233 @@
+package org.openbw.tsbw.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Economy metrics at one frame as collected by {@link EconomyMetrics}. Immutable; the fields are serialized as they are by gson.
+ * Rates are minerals per minute, measured over the last minute.
+ */
+public class EconomySnapshot {
+
+	public static class PatchMetrics {
+
+		private final int id;
+		private final int x;
+		private final int y;
+		private final int baseX;
+		private final int baseY;
+		private final int scvs;
+		private final double mineralsPerMinute;
+		private final long mineralsGathered;
+		private final long waitingScvFrames;
+
+		/* default */ PatchMetrics(int id, int x, int y, int baseX, int baseY, int scvs, double mineralsPerMinute, long mineralsGathered, long waitingScvFrames) {
+
+			this.id = id;
+			this.x = x;
+			this.y = y;
+			this.baseX = baseX;
+			this.baseY = baseY;
+			this.scvs = scvs;
+			this.mineralsPerMinute = mineralsPerMinute;
+			this.mineralsGathered = mineralsGathered;
+			this.waitingScvFrames = waitingScvFrames;
+		}
+
+		public int getId() {
+
+			return this.id;
+		}
+
+		public int getX() {
+
+			return this.x;
+		}
+
+		public int getY() {
+
+			return this.y;
+		}
+
+		/**
+		 * @return x position of the command center the patch is mined to, or Integer.MAX_VALUE if there is none
+		 */
+		public int getBaseX() {
+
+			return this.baseX;
+		}
+
+		public int getBaseY() {
+
+			return this.baseY;
+		}
+
+		public int getScvs() {
+
+			return this.scvs;
+		}
+
+		public double getMineralsPerMinute() {
+
+			return this.mineralsPerMinute;
+		}
+
+		public long getMineralsGathered() {
+
+			return this.mineralsGathered;
+		}
+
+		/**
+		 * @return sum over all frames of the SCVs waiting at the patch while another SCV mines it
+		 */
+		public long getWaitingScvFrames() {
+
+			return this.waitingScvFrames;
+		}
+	}
+
+	public static class BaseMetrics {
+
+		private final int x;
+		private final int y;
+		private final int patches;
+		private final int scvs;
+		private final double mineralsPerMinute;
+		private final long mineralsGathered;
+
+		/* default */ BaseMetrics(int x, int y, int patches, int scvs, double mineralsPerMinute, long mineralsGathered) {
+
+			this.x = x;
+			this.y = y;
+			this.patches = patches;
+			this.scvs = scvs;
+			this.mineralsPerMinute = mineralsPerMinute;
+			this.mineralsGathered = mineralsGathered;
+		}
+
+		public int getX() {
+
+			return this.x;
+		}
+
+		public int getY() {
+
+			return this.y;
+		}
+
+		public int getPatches() {
+
+			return this.patches;
+		}
+
+		public int getScvs() {
+
+			return this.scvs;
+		}
+
+		public double getMineralsPerMinute() {
+
+			return this.mineralsPerMinute;
+		}
+
+		public long getMineralsGathered() {
+
+			return this.mineralsGathered;
+		}
+	}
+
+	private final String game;
+	private final String map;
+	private final int frame;
+	private final double mineralsPerMinute;
+	private final double predictedMineralsPerMinute;
+	private final long mineralsGathered;
+	private final double predictedMineralsGathered;
+	private final long idleWorkerFrames;
+	private final long gatherCommandFailures;
+	private final List<PatchMetrics> patches;
+	private final List<BaseMetrics> bases;
+
+	/* default */ EconomySnapshot(String game, String map, int frame, double mineralsPerMinute, double predictedMineralsPerMinute, long mineralsGathered,
+			double predictedMineralsGathered, long idleWorkerFrames, long gatherCommandFailures, List<PatchMetrics> patches, List<BaseMetrics> bases) {
+
+		this.game = game;
+		this.map = map;
+		this.frame = frame;
+		this.mineralsPerMinute = mineralsPerMinute;
+		this.predictedMineralsPerMinute = predictedMineralsPerMinute;
+		this.mineralsGathered = mineralsGathered;
+		this.predictedMineralsGathered = predictedMineralsGathered;
+		this.idleWorkerFrames = idleWorkerFrames;
+		this.gatherCommandFailures = gatherCommandFailures;
+		this.patches = Collections.unmodifiableList(patches);
+		this.bases = Collections.unmodifiableList(bases);
+	}
+
+	/**
+	 * @return start time of the game, which tells the snapshots of different games apart
+	 */
+	public String getGame() {
+
+		return this.game;
+	}
+
+	public String getMap() {
+
+		return this.map;
+	}
+
+	public int getFrame() {
+
+		return this.frame;
+	}
+
+	/**
+	 * @return realized mineral income
+	 */
+	public double getMineralsPerMinute() {
+
+		return this.mineralsPerMinute;
+	}
+
+	/**
+	 * @return income PPF2 predicts for the SCVs that were mining
+	 */
+	public double getPredictedMineralsPerMinute() {
+
+		return this.predictedMineralsPerMinute;
+	}
+
+	public long getMineralsGathered() {
+
+		return this.mineralsGathered;
+	}
+
+	public double getPredictedMineralsGathered() {
+
+		return this.predictedMineralsGathered;
+	}
+
+	/**
+	 * @return sum over all frames of the idle SCVs
+	 */
+	public long getIdleWorkerFrames() {
+
+		return this.idleWorkerFrames;
+	}
+
+	public long getGatherCommandFailures() {
+
+		return this.gatherCommandFailures;
+	}
+
+	public List<PatchMetrics> getPatches() {
+
+		return this.patches;
+	}
+
+	public List<BaseMetrics> getBases() {
+
+		return this.bases;
+	}
+}
@@ -0,0 +1,199 @@
+package org.openbw.tsbw.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.openbw.bwapi4j.MapDrawer;
+
+/**
+ * Times the individual stages of a bot frame using System.nanoTime and keeps a histogram per stage.
+ * Additionally counts the frames exceeding the usual tournament limits (55ms, 1s and 10s).
+ * All methods are meant to be called from the BWAPI callback thread.
+ */
+public class FrameProfiler {
+
+	public enum Stage {
+
+		INVENTORY("unit inventory"),
+		SUBSCRIBERS("subscribers"),
+		SCOUTING("scouting"),
+		RESOURCE_GATHERER("resource gatherer"),
+		ECONOMY_METRICS("economy metrics"),
+		BUILDING_PLANNER("building planner"),
+		GAME_STRATEGY("game strategy"),
+		GROUP_EVENTS("group events"),
+		COMMAND_BUFFER("command buffer"),
+		DRAW("draw"),
+		FRAME("total frame");
+
+		private final String label;
+
+		private Stage(String label) {
+
+			this.label = label;
+		}
+
+		public String getLabel() {
+
+			return this.label;
+		}
+	}
+
+	private static final long LIMIT_55MS = 55_000;
+	private static final long LIMIT_1S = 1_000_000;
+	private static final long LIMIT_10S = 10_000_000;
+
+	private final Histogram[] histograms;
+	private final long[] stageStart;
+
+	private boolean enabled;
+	private long frameStart;
+	private long lastFrameMicros;
+	private int framesOver55ms;
+	private int framesOver1s;
+	private int framesOver10s;
+
+	public FrameProfiler() {
+
+		this.histograms = new Histogram[Stage.values().length];
+		for (int i = 0; i < this.histograms.length; i++) {
+			this.histograms[i] = new Histogram();
+		}
+		this.stageStart = new long[Stage.values().length];
+		this.enabled = true;
+		reset();
+	}
+
+	public void reset() {
+
+		for (Histogram histogram : this.histograms) {
+			histogram.reset();
+		}
+		this.lastFrameMicros = 0;
+		this.framesOver55ms = 0;
+		this.framesOver1s = 0;
+		this.framesOver10s = 0;
+	}
+
+	public boolean isEnabled() {
+
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+
+		this.enabled = enabled;
+	}
+
+	public void startFrame() {
+
+		if (this.enabled) {
+			this.frameStart = System.nanoTime();
+		}
+	}
+
+	public void begin(Stage stage) {
+
+		if (this.enabled) {
+			this.stageStart[stage.ordinal()] = System.nanoTime();
+		}
+	}
+
+	public void end(Stage stage) {
+
+		if (this.enabled) {
+			this.histograms[stage.ordinal()].record((System.nanoTime() - this.stageStart[stage.ordinal()]) / 1000);
+		}
+	}
+
+	public void endFrame() {
+
+		if (!this.enabled) {
+			return;
+		}
+		long micros = (System.nanoTime() - this.frameStart) / 1000;
+		this.histograms[Stage.FRAME.ordinal()].record(micros);
+		this.lastFrameMicros = micros;
+		if (micros > LIMIT_55MS) {
+			this.framesOver55ms++;
+		}
+		if (micros > LIMIT_1S) {
+			this.framesOver1s++;
+		}
+		if (micros > LIMIT_10S) {
+			this.framesOver10s++;
+		}
+	}
+
+	/**
+	 * @return histogram of the given stage in microseconds
+	 */
+	public Histogram getHistogram(Stage stage) {
+
+		return this.histograms[stage.ordinal()];
+	}
+
+	public long getLastFrameMicros() {
+
+		return this.lastFrameMicros;
+	}
+
+	public int getFramesOver55ms() {
+
+		return this.framesOver55ms;
+	}
+
+	public int getFramesOver1s() {
+
+		return this.framesOver1s;
+	}
+
+	public int getFramesOver10s() {
+
+		return this.framesOver10s;
+	}
+
+	public void draw(MapDrawer mapDrawer, int x, int y) {
+
+		mapDrawer.drawTextScreen(x, y, "stage: p50 / p99 / max (ms)");
+		for (Stage stage : Stage.values()) {
+
+			y += 10;
+			Histogram histogram = this.histograms[stage.ordinal()];
+			mapDrawer.drawTextScreen(x, y, stage.getLabel() + ": " + toMillis(histogram.getPercentile(50)) + " / "
+					+ toMillis(histogram.getPercentile(99)) + " / " + toMillis(histogram.getMax()));
+		}
+		y += 10;
+		mapDrawer.drawTextScreen(x, y, "frames > 55ms: " + this.framesOver55ms + ", > 1s: " + this.framesOver1s + ", > 10s: " + this.framesOver10s);
+	}
+
+	public void writeSummary(String fileName) throws IOException {
+
+		Path path = Paths.get(fileName);
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+
+			writer.println("stage;count;mean_ms;p50_ms;p99_ms;max_ms");
+			for (Stage stage : Stage.values()) {
+
+				Histogram histogram = this.histograms[stage.ordinal()];
+				writer.println(stage.getLabel() + ";" + histogram.getCount() + ";" + toMillis((long)histogram.getMean()) + ";"
+						+ toMillis(histogram.getPercentile(50)) + ";" + toMillis(histogram.getPercentile(99)) + ";" + toMillis(histogram.getMax()));
+			}
+			writer.println("frames over 55ms;" + this.framesOver55ms);
+			writer.println("frames over 1s;" + this.framesOver1s);
+			writer.println("frames over 10s;" + this.framesOver10s);
+		}
+	}
+
+	private static String toMillis(long micros) {
+
+		return String.format("%.2f", micros / 1000.0);
+	}
+}
@@ -0,0 +1,138 @@
+package org.openbw.tsbw.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram for non-negative long values (e.g. durations in microseconds).
+ * Values are counted into log-linear buckets: every power of two is split into 32 sub-buckets,
+ * which keeps the relative error of reported percentiles below ~3% while recording is a few
+ * shifts and an array increment. Recording never allocates.
+ * Not thread-safe: a histogram is expected to be fed from a single thread.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	private static final int MAX_EXPONENT = 48;
+	private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+
+	public Histogram() {
+
+		this.counts = new long[BUCKETS];
+		reset();
+	}
+
+	public void reset() {
+
+		Arrays.fill(this.counts, 0);
+		this.count = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = 0;
+	}
+
+	public void record(long value) {
+
+		if (value < 0) {
+			value = 0;
+		}
+		this.counts[bucketOf(value)]++;
+		this.count++;
+		this.sum += value;
+		if (value < this.min) {
+			this.min = value;
+		}
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	public long getCount() {
+
+		return this.count;
+	}
+
+	public long getMax() {
+
+		return this.max;
+	}
+
+	public long getMin() {
+
+		return this.count == 0 ? 0 : this.min;
+	}
+
+	public double getMean() {
+
+		return this.count == 0 ? 0.0 : (double)this.sum / this.count;
+	}
+
+	/**
+	 * Returns the (upper bound of the bucket containing the) value at the given percentile.
+	 * @param percentile between 0 and 100
+	 * @return value at percentile, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+
+		if (this.count == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile / 100.0 * this.count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+
+			seen += this.counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * Adds all values recorded in the other histogram to this one.
+	 */
+	public void add(Histogram other) {
+
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.count += other.count;
+		this.sum += other.sum;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	private static int bucketOf(long value) {
+
+		if (value < LINEAR_LIMIT) {
+			return (int)value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int)((value >> shift) - SUB_BUCKETS);
+	}
+
+	private static long upperBoundOf(int bucket) {
+
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,51 @@
+package org.openbw.tsbw.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emits the commands of the worker actors as JFR events. Only loaded by {@link ActorMetrics#setJfrEnabled(boolean)}, so that the bot
+ * still runs on a Java 8 runtime without JFR. Needs jdk.jfr to compile (JDK 8u262 or later, or 11+): build.gradle excludes this class
+ * when building with an older JDK.
+ */
+/* default */ class JfrEventSink implements ActorMetrics.EventSink {
+
+	@Name("org.openbw.tsbw.WorkerCommand")
+	@Label("Worker Command")
+	@Category("TSBW")
+	/* default */ static class CommandEvent extends Event {
+
+		@Label("Actor")
+		/* default */ String actor;
+
+		@Label("Command")
+		/* default */ String command;
+
+		@Label("Success")
+		/* default */ boolean success;
+	}
+
+	@Override
+	public Object begin() {
+
+		CommandEvent event = new CommandEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commit(Object event, String actor, String command, boolean success) {
+
+		CommandEvent commandEvent = (CommandEvent)event;
+		commandEvent.end();
+		if (commandEvent.shouldCommit()) {
+
+			commandEvent.actor = actor;
+			commandEvent.command = command;
+			commandEvent.success = success;
+			commandEvent.commit();
+		}
+	}
+}
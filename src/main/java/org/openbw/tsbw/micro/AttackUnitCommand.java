@@ -24,6 +24,18 @@ public class AttackUnitCommand implements Command {
 	public int getDelay() {
 		return 7;
 	}
+
+	@Override
+	public Unit getUnit() {
+		
+		return this.unit;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.victim;
+	}
 	
 	@Override
 	public String toString() {
@@ -1,8 +1,26 @@
 package org.openbw.tsbw.micro;
 
+import org.openbw.bwapi4j.unit.Unit;
+
 public interface Command {
 
 	public boolean execute();
 	
 	public int getDelay();
+	
+	/**
+	 * @return the unit the command is an order to, or null if it does not order a unit
+	 */
+	public default Unit getUnit() {
+		
+		return null;
+	}
+	
+	/**
+	 * @return the target of the order (unit or position), if any. Two orders of the same type to the same unit with equal targets are identical.
+	 */
+	public default Object getTarget() {
+		
+		return null;
+	}
 }
@@ -0,0 +1,331 @@
+package org.openbw.tsbw.micro;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbw.bwapi4j.unit.MobileUnit;
+import org.openbw.bwapi4j.unit.Unit;
+import org.openbw.tsbw.Constants;
+
+/**
+ * Collects the commands issued by worker actors and strategies during a frame and executes them at a single point at the end of the frame.
+ * A command identical to the last successful order of its unit is not sent again while that order is still in flight (issued less than
+ * the remaining latency frames ago) or the unit is still carrying it out: it would only be repeated. Such commands count as successful.
+ * An identical order is sent again once the unit has become idle or turned to another target. Orders issued without the buffer are not seen.
+ * Keeps the recent orders of every unit and counts the orders sent, dropped, sent again and failed, e.g. to compute the APM.
+ * Units that no longer exist are swept every {@link #SWEEP_FRAMES} frames.
+ * Not thread-safe: meant to be used from the BWAPI callback thread.
+ */
+public class CommandBuffer {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * Orders kept per unit.
+	 */
+	public static final int HISTORY_SIZE = 16;
+
+	/**
+	 * Frames between two sweeps of the units that no longer exist.
+	 */
+	public static final int SWEEP_FRAMES = 240;
+
+	/**
+	 * Is notified when a submitted command has been executed or dropped.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param success the result of the command; true if it was dropped as a duplicate of an order in flight or carried out
+		 */
+		void onExecuted(boolean success);
+	}
+
+	/**
+	 * An order sent to a unit.
+	 */
+	public static class Order {
+
+		private final int frame;
+		private final Command command;
+		private final boolean success;
+
+		private Order(int frame, Command command, boolean success) {
+
+			this.frame = frame;
+			this.command = command;
+			this.success = success;
+		}
+
+		public int getFrame() {
+
+			return this.frame;
+		}
+
+		public Command getCommand() {
+
+			return this.command;
+		}
+
+		public boolean isSuccess() {
+
+			return this.success;
+		}
+
+		@Override
+		public String toString() {
+
+			return this.frame + ": " + this.command + (this.success ? "" : " (failed)");
+		}
+	}
+
+	private static class UnitRecord {
+
+		private final Order[] history;
+		private int next;
+		private int size;
+
+		private Order pending;
+		private int inFlightUntil;
+
+		private int sent;
+		private int dropped;
+		private int repeated;
+
+		private UnitRecord() {
+
+			this.history = new Order[HISTORY_SIZE];
+		}
+
+		private void add(Order order) {
+
+			this.history[this.next] = order;
+			this.next = (this.next + 1) % HISTORY_SIZE;
+			this.size = Math.min(this.size + 1, HISTORY_SIZE);
+		}
+	}
+
+	private static class Submission {
+
+		private final Command command;
+		private final Listener listener;
+
+		private Submission(Command command, Listener listener) {
+
+			this.command = command;
+			this.listener = listener;
+		}
+	}
+
+	private final List<Submission> submissions;
+	private final Map<Unit, UnitRecord> units;
+
+	private int startFrame;
+	private int frame;
+	private long sent;
+	private long dropped;
+	private long repeated;
+	private long failed;
+
+	public CommandBuffer() {
+
+		this.submissions = new ArrayList<>();
+		this.units = new IdentityHashMap<>();
+		reset();
+	}
+
+	public void reset() {
+
+		this.submissions.clear();
+		this.units.clear();
+		this.startFrame = -1;
+		this.frame = 0;
+		this.sent = 0;
+		this.dropped = 0;
+		this.repeated = 0;
+		this.failed = 0;
+	}
+
+	public void submit(Command command) {
+
+		submit(command, null);
+	}
+
+	/**
+	 * Queues the command for the end of the frame.
+	 * @param listener is notified of the result at the end of the frame; may be null
+	 */
+	public void submit(Command command, Listener listener) {
+
+		this.submissions.add(new Submission(command, listener));
+	}
+
+	/**
+	 * Executes the commands submitted during the frame in the order they were submitted.
+	 * @param remainingLatencyFrames frames until an order sent now shows in the game state
+	 */
+	public void flush(int frame, int remainingLatencyFrames) {
+
+		if (this.startFrame < 0) {
+			this.startFrame = frame;
+		}
+		this.frame = frame;
+		// listeners may submit new commands: those are executed with the next flush
+		int count = this.submissions.size();
+		for (int i = 0; i < count; i++) {
+
+			Submission submission = this.submissions.get(i);
+			boolean success = execute(submission.command, frame, remainingLatencyFrames);
+			if (submission.listener != null) {
+				submission.listener.onExecuted(success);
+			}
+		}
+		this.submissions.subList(0, count).clear();
+
+		if (frame % SWEEP_FRAMES == 0) {
+
+			for (Iterator<Unit> iterator = this.units.keySet().iterator(); iterator.hasNext();) {
+				if (!iterator.next().exists()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private boolean execute(Command command, int frame, int remainingLatencyFrames) {
+
+		Unit unit = command.getUnit();
+		if (unit == null) {
+
+			// not an order, e.g. handing a unit to the scouting strategy
+			return command.execute();
+		}
+		UnitRecord record = this.units.get(unit);
+		if (record == null) {
+
+			record = new UnitRecord();
+			this.units.put(unit, record);
+		}
+		if (isIdentical(command, record.pending)) {
+
+			if (frame <= record.inFlightUntil || isCarriedOut(unit, command)) {
+
+				logger.trace("frame {}: dropped {} for {}: still in flight or carried out.", frame, command, unit);
+				record.dropped++;
+				this.dropped++;
+				return true;
+			}
+			record.repeated++;
+			this.repeated++;
+		}
+		boolean success = command.execute();
+		record.sent++;
+		this.sent++;
+		Order order = new Order(frame, command, success);
+		record.add(order);
+		if (success) {
+
+			record.pending = order;
+			record.inFlightUntil = frame + remainingLatencyFrames;
+		} else {
+
+			record.pending = null;
+			this.failed++;
+		}
+		return success;
+	}
+
+	/**
+	 * @return true if the unit is still carrying out the order: it is not idle and does not head for another target of the same kind,
+	 * e.g. a worker that switched to another mineral patch. A worker returning its cargo still carries out its gather order.
+	 */
+	private static boolean isCarriedOut(Unit unit, Command command) {
+
+		if (!(unit instanceof MobileUnit) || ((MobileUnit)unit).isIdle()) {
+			return false;
+		}
+		Object target = command.getTarget();
+		Unit targetUnit = ((MobileUnit)unit).getTargetUnit();
+		return !(target instanceof Unit) || targetUnit == null || targetUnit.getClass() != target.getClass() || targetUnit.equals(target);
+	}
+
+	private static boolean isIdentical(Command command, Order order) {
+
+		return order != null && order.command.getClass() == command.getClass() && Objects.equals(order.command.getTarget(), command.getTarget());
+	}
+
+	/**
+	 * @return the recent orders sent to the unit, oldest first
+	 */
+	public List<Order> getHistory(Unit unit) {
+
+		UnitRecord record = this.units.get(unit);
+		List<Order> history = new ArrayList<>(record == null ? 0 : record.size);
+		if (record != null) {
+
+			for (int i = 0; i < record.size; i++) {
+				history.add(record.history[(record.next - record.size + i + HISTORY_SIZE) % HISTORY_SIZE]);
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * @return orders sent to the unit so far
+	 */
+	public int getSent(Unit unit) {
+
+		UnitRecord record = this.units.get(unit);
+		return record == null ? 0 : record.sent;
+	}
+
+	/**
+	 * @return orders to the unit that would have been wasted: dropped while the identical order was in flight or carried out
+	 */
+	public int getWasted(Unit unit) {
+
+		UnitRecord record = this.units.get(unit);
+		return record == null ? 0 : record.dropped;
+	}
+
+	public long getSent() {
+
+		return this.sent;
+	}
+
+	public long getDropped() {
+
+		return this.dropped;
+	}
+
+	public long getRepeated() {
+
+		return this.repeated;
+	}
+
+	public long getFailed() {
+
+		return this.failed;
+	}
+
+	/**
+	 * @return orders sent per game minute since the first flush
+	 */
+	public double getApm() {
+
+		int frames = this.frame - this.startFrame + 1;
+		return this.startFrame < 0 ? 0 : this.sent * Constants.FRAMES_PER_MINUTE / frames;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("%d orders sent (%.0f APM), %d dropped, %d repeated, %d failed", this.sent, getApm(), this.dropped, this.repeated, this.failed);
+	}
+}
@@ -1,6 +1,7 @@
 package org.openbw.tsbw.micro;
 
 import org.openbw.bwapi4j.TilePosition;
+import org.openbw.bwapi4j.unit.Unit;
 import org.openbw.tsbw.building.ConstructionType;
 import org.openbw.tsbw.unit.SCV;
 
@@ -34,4 +35,16 @@ public class ConstructCommand implements Command {
 		return 3;
 	}
 
+	@Override
+	public Unit getUnit() {
+		
+		return this.scv;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.constructionSite;
+	}
+
 }
@@ -3,6 +3,7 @@ package org.openbw.tsbw.micro;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.unit.SCV;
+import org.openbw.bwapi4j.unit.Unit;
 import org.openbw.tsbw.unit.Refinery;
 
 public class GatherGasCommand implements Command {
@@ -30,6 +31,18 @@ public class GatherGasCommand implements Command {
 		
 		return 10;
 	}
+
+	@Override
+	public Unit getUnit() {
+		
+		return this.worker;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.targetRefinery;
+	}
 	
 	@Override
 	public String toString() {
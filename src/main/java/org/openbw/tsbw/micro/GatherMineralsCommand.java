@@ -4,6 +4,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.tsbw.unit.MineralPatch;
 import org.openbw.bwapi4j.unit.SCV;
+import org.openbw.bwapi4j.unit.Unit;
 
 public class GatherMineralsCommand implements Command {
 
@@ -30,6 +31,18 @@ public class GatherMineralsCommand implements Command {
 		
 		return 3;
 	}
+
+	@Override
+	public Unit getUnit() {
+		
+		return this.worker;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.targetPatch;
+	}
 	
 	@Override
 	public String toString() {
@@ -1,6 +1,7 @@
 package org.openbw.tsbw.micro;
 
 import org.openbw.bwapi4j.unit.SCV;
+import org.openbw.bwapi4j.unit.Unit;
 
 
 public class HaltConstructionCommand implements Command {
@@ -23,6 +24,12 @@ public class HaltConstructionCommand implements Command {
 		
 		return 2;
 	}
+
+	@Override
+	public Unit getUnit() {
+		
+		return this.unit;
+	}
 	
 	@Override
 	public String toString() {
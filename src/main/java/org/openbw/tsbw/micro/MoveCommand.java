@@ -2,6 +2,7 @@ package org.openbw.tsbw.micro;
 
 import org.openbw.bwapi4j.Position;
 import org.openbw.bwapi4j.unit.MobileUnit;
+import org.openbw.bwapi4j.unit.Unit;
 
 
 public class MoveCommand implements Command {
@@ -32,6 +33,18 @@ public class MoveCommand implements Command {
 		
 		return 2;
 	}
+
+	@Override
+	public Unit getUnit() {
+		
+		return this.unit;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.position;
+	}
 	
 	@Override
 	public String toString() {
@@ -1,6 +1,7 @@
 package org.openbw.tsbw.micro;
 
 import org.openbw.bwapi4j.unit.Mechanical;
+import org.openbw.bwapi4j.unit.Unit;
 import org.openbw.tsbw.unit.SCV;
 
 public class RepairCommand implements Command {
@@ -31,4 +32,16 @@ public class RepairCommand implements Command {
 		return 3;
 	}
 
+	@Override
+	public Unit getUnit() {
+		
+		return this.scv;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.toRepair;
+	}
+
 }
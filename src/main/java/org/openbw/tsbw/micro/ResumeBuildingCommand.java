@@ -2,6 +2,7 @@ package org.openbw.tsbw.micro;
 
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.SCV;
+import org.openbw.bwapi4j.unit.Unit;
 
 public class ResumeBuildingCommand implements Command {
 
@@ -31,4 +32,16 @@ public class ResumeBuildingCommand implements Command {
 		return 3;
 	}
 
+	@Override
+	public Unit getUnit() {
+		
+		return this.scv;
+	}
+
+	@Override
+	public Object getTarget() {
+		
+		return this.construction;
+	}
+
 }
@@ -0,0 +1,262 @@
+package org.openbw.tsbw.micro.math;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of rows to columns (rows <= columns) with the shortest augmenting path variant of the Hungarian algorithm
+ * (as used by Jonker-Volgenant), in O(rows^2 * columns) time on a flat row-major double[] cost matrix.
+ * Unlike {@link AssignmentProblem}, no graph or boxed priority queue is built: the work arrays are kept and only grown between calls.
+ * A solve can be warm started with the previous assignment: previous matches that are still optimal for their row under the
+ * column potentials of the previous solve are kept, and only the remaining rows are augmented.
+ * Not thread-safe.
+ */
+public class AssignmentSolver {
+
+	private static final double EPSILON = 1E-9;
+
+	private int rows;
+	private int columns;
+
+	// 1-based as in the textbook formulation: index 0 is the virtual start column / row
+	private double[] rowPotentials;
+	private double[] columnPotentials;
+	private int[] rowOfColumn;
+	private int[] way;
+	private double[] minReducedCost;
+	private boolean[] used;
+	private boolean[] rowMatched;
+
+	private int[] columnOfRow;
+	private int potentialColumns;
+	private int augmentations;
+
+	public AssignmentSolver() {
+
+		this.rowPotentials = new double[1];
+		this.columnPotentials = new double[1];
+		this.rowOfColumn = new int[1];
+		this.way = new int[1];
+		this.minReducedCost = new double[1];
+		this.used = new boolean[1];
+		this.rowMatched = new boolean[1];
+		this.columnOfRow = new int[0];
+		this.potentialColumns = -1;
+	}
+
+	/**
+	 * Solves the problem from scratch.
+	 * @param costs row-major matrix: costs[row * columns + column]
+	 * @return minimal total cost
+	 */
+	public double solve(double[] costs, int rows, int columns) {
+
+		return solve(costs, rows, columns, null);
+	}
+
+	/**
+	 * @param costs row-major matrix: costs[row * columns + column]
+	 * @param warmStart previous column of each row (or -1), may be null
+	 * @return minimal total cost
+	 */
+	public double solve(double[] costs, int rows, int columns, int[] warmStart) {
+
+		if (rows > columns) {
+			throw new IllegalArgumentException("more rows (" + rows + ") than columns (" + columns + ")");
+		}
+		if (costs.length < rows * columns) {
+			throw new IllegalArgumentException("cost matrix has " + costs.length + " entries, expected " + rows * columns);
+		}
+		boolean reusePotentials = warmStart != null && this.potentialColumns == columns;
+		ensureCapacity(rows, columns);
+		this.rows = rows;
+		this.columns = columns;
+		this.augmentations = 0;
+
+		initializePotentials(costs, reusePotentials);
+		Arrays.fill(this.rowOfColumn, 0, columns + 1, 0);
+		if (warmStart != null) {
+			keepTightMatches(costs, warmStart);
+		}
+		Arrays.fill(this.rowMatched, 0, rows + 1, false);
+		for (int column = 1; column <= columns; column++) {
+			this.rowMatched[this.rowOfColumn[column]] = true;
+		}
+		for (int row = 1; row <= rows; row++) {
+
+			if (!this.rowMatched[row]) {
+				augment(costs, row);
+			}
+		}
+
+		double total = 0;
+		Arrays.fill(this.columnOfRow, 0, rows, -1);
+		for (int column = 1; column <= columns; column++) {
+
+			int row = this.rowOfColumn[column];
+			if (row != 0) {
+
+				this.columnOfRow[row - 1] = column - 1;
+				total += costs[(row - 1) * columns + column - 1];
+			}
+		}
+		this.potentialColumns = columns;
+		return total;
+	}
+
+	/**
+	 * @return column assigned to the row by the last solve
+	 */
+	public int getColumn(int row) {
+
+		if (row < 0 || row >= this.rows) {
+			throw new IndexOutOfBoundsException("row " + row + ", rows " + this.rows);
+		}
+		return this.columnOfRow[row];
+	}
+
+	/**
+	 * Copies the assignment of the last solve (column of each row) to the given array, e.g. to use it as the next warm start.
+	 */
+	public int[] getAssignment(int[] target) {
+
+		if (target == null || target.length < this.rows) {
+			target = new int[this.rows];
+		}
+		System.arraycopy(this.columnOfRow, 0, target, 0, this.rows);
+		return target;
+	}
+
+	/**
+	 * @return number of rows that had to be augmented in the last solve (rows minus the matches kept from the warm start)
+	 */
+	public int getAugmentations() {
+
+		return this.augmentations;
+	}
+
+	private void initializePotentials(double[] costs, boolean reusePotentials) {
+
+		if (!reusePotentials) {
+
+			// column reduction
+			for (int column = 1; column <= this.columns; column++) {
+
+				double min = Double.POSITIVE_INFINITY;
+				for (int row = 0; row < this.rows; row++) {
+					min = Math.min(min, costs[row * this.columns + column - 1]);
+				}
+				this.columnPotentials[column] = min;
+			}
+		}
+		this.columnPotentials[0] = 0;
+		// row potentials as large as feasible for the column potentials: each row has at least one tight column
+		this.rowPotentials[0] = 0;
+		for (int row = 1; row <= this.rows; row++) {
+
+			double min = Double.POSITIVE_INFINITY;
+			int offset = (row - 1) * this.columns;
+			for (int column = 1; column <= this.columns; column++) {
+				min = Math.min(min, costs[offset + column - 1] - this.columnPotentials[column]);
+			}
+			this.rowPotentials[row] = min;
+		}
+	}
+
+	private void keepTightMatches(double[] costs, int[] warmStart) {
+
+		int limit = Math.min(this.rows, warmStart.length);
+		for (int row = 1; row <= limit; row++) {
+
+			int column = warmStart[row - 1] + 1;
+			if (column >= 1 && column <= this.columns && this.rowOfColumn[column] == 0) {
+
+				double reducedCost = costs[(row - 1) * this.columns + column - 1] - this.rowPotentials[row] - this.columnPotentials[column];
+				if (reducedCost <= EPSILON) {
+					this.rowOfColumn[column] = row;
+				}
+			}
+		}
+	}
+
+	private void augment(double[] costs, int row) {
+
+		this.augmentations++;
+		int[] rowOfColumn = this.rowOfColumn;
+		double[] minReducedCost = this.minReducedCost;
+		boolean[] used = this.used;
+		double[] u = this.rowPotentials;
+		double[] v = this.columnPotentials;
+
+		rowOfColumn[0] = row;
+		int column0 = 0;
+		Arrays.fill(minReducedCost, 0, this.columns + 1, Double.POSITIVE_INFINITY);
+		Arrays.fill(used, 0, this.columns + 1, false);
+		do {
+
+			used[column0] = true;
+			int row0 = rowOfColumn[column0];
+			int offset = (row0 - 1) * this.columns - 1;
+			double delta = Double.POSITIVE_INFINITY;
+			int column1 = 0;
+			for (int column = 1; column <= this.columns; column++) {
+
+				if (!used[column]) {
+
+					double current = costs[offset + column] - u[row0] - v[column];
+					if (current < minReducedCost[column]) {
+
+						minReducedCost[column] = current;
+						this.way[column] = column0;
+					}
+					if (minReducedCost[column] < delta) {
+
+						delta = minReducedCost[column];
+						column1 = column;
+					}
+				}
+			}
+			for (int column = 0; column <= this.columns; column++) {
+
+				if (used[column]) {
+
+					u[rowOfColumn[column]] += delta;
+					v[column] -= delta;
+				} else {
+
+					minReducedCost[column] -= delta;
+				}
+			}
+			column0 = column1;
+		} while (rowOfColumn[column0] != 0);
+
+		do {
+
+			int column1 = this.way[column0];
+			rowOfColumn[column0] = rowOfColumn[column1];
+			column0 = column1;
+		} while (column0 != 0);
+	}
+
+	private void ensureCapacity(int rows, int columns) {
+
+		if (this.rowPotentials.length < rows + 1) {
+			this.rowPotentials = new double[rows + 1];
+		}
+		if (this.columnOfRow.length < rows) {
+			this.columnOfRow = new int[rows];
+		}
+		if (this.columnPotentials.length < columns + 1) {
+
+			this.columnPotentials = Arrays.copyOf(this.columnPotentials, columns + 1);
+			this.rowOfColumn = new int[columns + 1];
+			this.way = new int[columns + 1];
+			this.minReducedCost = new double[columns + 1];
+		}
+		if (this.rowMatched.length < rows + 1) {
+			this.rowMatched = new boolean[rows + 1];
+		}
+		if (this.used.length < columns + 1) {
+			this.used = new boolean[columns + 1];
+		}
+	}
+}
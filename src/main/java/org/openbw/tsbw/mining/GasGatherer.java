@@ -0,0 +1,193 @@
+package org.openbw.tsbw.mining;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbw.bwapi4j.type.UnitType;
+import org.openbw.bwapi4j.unit.CommandCenter;
+import org.openbw.bwapi4j.unit.GasMiningFacility;
+import org.openbw.tsbw.Group;
+import org.openbw.tsbw.GroupListener;
+import org.openbw.tsbw.unit.Refinery;
+import org.openbw.tsbw.unit.SCV;
+
+/**
+ * Keeps every completed refinery at the number of SCVs that saturates it: only one SCV can be inside a refinery at a time,
+ * so more SCVs than fit into one round trip only wait. The optimal count follows from the distance to the closest command center.
+ * Missing SCVs are taken from the mineral line (closest first), surplus SCVs are sent back to minerals.
+ * Re-balancing happens when refineries complete or are lost; while a refinery is missing SCVs it is retried periodically.
+ * The gas throughput of each refinery is measured from the change of its remaining gas.
+ */
+public class GasGatherer {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * Frames an SCV spends inside a refinery per trip.
+	 */
+	public static final int GAS_HARVEST_FRAMES = 37;
+
+	/**
+	 * Most SCVs ever assigned to a refinery, even if it is far from a command center.
+	 */
+	public static final int MAX_SCVS_PER_REFINERY = 4;
+
+	/**
+	 * Assumed if there is no command center to return to.
+	 */
+	private static final int DEFAULT_SCVS_PER_REFINERY = 3;
+
+	/**
+	 * Frames between two throughput samples and between two checks of an unsaturated refinery.
+	 */
+	private static final int SAMPLE_INTERVAL = 24;
+
+	private GroupListener<GasMiningFacility> refineryListener = new GroupListener<GasMiningFacility>() {
+
+		@Override
+		public void onAdd(GasMiningFacility refinery) {
+
+			scheduleRebalance();
+		}
+
+		@Override
+		public void onRemove(GasMiningFacility refinery) {
+
+			// do nothing
+		}
+
+		@Override
+		public void onDestroy(GasMiningFacility refinery) {
+
+			scheduleRebalance();
+		}
+	};
+
+	private Group<SCV> scvs;
+	private Group<GasMiningFacility> refineries;
+	private Group<CommandCenter> commandCenters;
+
+	private boolean rebalancePending;
+
+	public void initialize(Group<SCV> scvs, Group<GasMiningFacility> refineries, Group<CommandCenter> commandCenters) {
+
+		this.scvs = scvs;
+		this.refineries = refineries;
+		this.commandCenters = commandCenters;
+		this.refineries.addListener(refineryListener);
+		for (GasMiningFacility facility : refineries) {
+
+			if (facility instanceof Refinery) {
+				((Refinery)facility).resetScvCount();
+			}
+		}
+		this.rebalancePending = true;
+	}
+
+	public void scheduleRebalance() {
+
+		this.rebalancePending = true;
+	}
+
+	/**
+	 * Samples the gas throughput and continues a pending re-balancing. Is called once per frame.
+	 */
+	public void onFrame(int frame) {
+
+		if (this.refineries == null || frame % SAMPLE_INTERVAL != 0) {
+			return;
+		}
+		for (GasMiningFacility facility : this.refineries) {
+
+			if (facility instanceof Refinery && facility.isCompleted()) {
+				((Refinery)facility).sampleMiningRate(frame);
+			}
+		}
+		if (this.rebalancePending) {
+			this.rebalancePending = !rebalance(frame);
+		}
+	}
+
+	/**
+	 * @return optimal number of SCVs for the refinery: as many as it takes to always have one SCV inside
+	 */
+	public int getOptimalScvCount(Refinery refinery) {
+
+		CommandCenter closest = null;
+		int distance = Integer.MAX_VALUE;
+		for (CommandCenter commandCenter : this.commandCenters) {
+
+			int current = refinery.getDistance(commandCenter);
+			if (current < distance) {
+
+				distance = current;
+				closest = commandCenter;
+			}
+		}
+		if (closest == null) {
+			return DEFAULT_SCVS_PER_REFINERY;
+		}
+		double roundTripTime = 2 * distance / UnitType.Terran_SCV.topSpeed() + GAS_HARVEST_FRAMES;
+		return Math.max(1, Math.min(MAX_SCVS_PER_REFINERY, (int)Math.ceil(roundTripTime / GAS_HARVEST_FRAMES)));
+	}
+
+	/**
+	 * @return true if every completed refinery has its optimal number of SCVs
+	 */
+	private boolean rebalance(int frame) {
+
+		boolean saturated = true;
+		for (GasMiningFacility facility : this.refineries) {
+
+			if (!(facility instanceof Refinery) || !facility.isCompleted() || !facility.exists()) {
+				continue;
+			}
+			Refinery refinery = (Refinery)facility;
+			int optimal = getOptimalScvCount(refinery);
+			while (refinery.getScvCount() > optimal && releaseOne(refinery));
+			while (refinery.getScvCount() < optimal) {
+
+				SCV closest = closestMiningScv(refinery);
+				if (closest == null) {
+
+					saturated = false;
+					break;
+				}
+				closest.gather(refinery);
+			}
+			logger.trace("frame {}: {} has {} of {} SCVs.", frame, refinery, refinery.getScvCount(), optimal);
+		}
+		return saturated;
+	}
+
+	private boolean releaseOne(Refinery refinery) {
+
+		for (SCV scv : this.scvs) {
+
+			if (scv.getRefinery() == refinery) {
+
+				scv.gatherMinerals();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private SCV closestMiningScv(Refinery refinery) {
+
+		SCV closest = null;
+		int distance = Integer.MAX_VALUE;
+		for (SCV scv : this.scvs) {
+
+			if (scv.exists() && scv.isGathering() && scv.getRefinery() == null && scv.getMineralPatch() != null) {
+
+				int current = scv.getDistance(refinery);
+				if (current < distance) {
+
+					distance = current;
+					closest = scv;
+				}
+			}
+		}
+		return closest;
+	}
+}
@@ -1,22 +1,50 @@
 package org.openbw.tsbw.mining;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.unit.CommandCenter;
 import org.openbw.tsbw.Group;
 import org.openbw.tsbw.GroupListener;
-import org.openbw.tsbw.micro.math.AssignmentProblem;
+import org.openbw.tsbw.analysis.IncomeModel;
+import org.openbw.tsbw.analysis.PPF2;
+import org.openbw.tsbw.micro.math.AssignmentSolver;
 import org.openbw.tsbw.unit.MineralPatch;
+import org.openbw.tsbw.unit.MineralPatchQueue;
 import org.openbw.tsbw.unit.SCV;
 
+/**
+ * Assigns mining SCVs to mineral patches. When command centers or patches are added or lost, the existing assignment is repaired
+ * incrementally instead of reassigning every worker: the mining SCVs are checked a few at a time within a time budget per frame,
+ * and only those whose patch is gone or whose best alternative patch yields clearly more are moved.
+ * The SCVs moved in one frame are matched to their new patches by travel distance.
+ * Every re-balancing starts by rebuilding the SCV counts of the patches from the SCVs, so a count that leaked does not skew it for the rest of the game.
+ * Round trip times measured in earlier games on the map replace the modelled ones where available.
+ * The income model of the patches being mined is rebuilt when the set of bases changes and published to PPF2.
+ */
 public class ResourceGatherer {
 
 	private static final Logger logger = LogManager.getLogger();
 	
+	/**
+	 * Default time budget for re-balancing per frame in nanoseconds.
+	 */
+	public static final long DEFAULT_FRAME_BUDGET = 1_000_000;
+	
+	/**
+	 * Maximum number of SCVs moved per frame.
+	 */
+	private static final int MAX_MOVES_PER_FRAME = 8;
+	
+	/**
+	 * A worker is only moved if the best other patch yields this much more (relative) than what it contributes at its current patch.
+	 * Prevents workers from oscillating between patches of similar value.
+	 */
+	private static final double HYSTERESIS = 0.1;
+	
 	private GroupListener<CommandCenter> commandCenterListener = new GroupListener<CommandCenter>() {
 
 		@Override
@@ -25,8 +53,10 @@ public class ResourceGatherer {
 			for (MineralPatch patch : mineralPatches) {
 				
 				patch.updateDistance(commandCenter);
+				applyMeasuredRoundTripTime(patch);
 			}
-			reinitialize();
+			scheduleRebalance();
+			incomeModelChanged = true;
 		}
 
 		@Override
@@ -41,18 +71,103 @@ public class ResourceGatherer {
 			for (MineralPatch patch : mineralPatches) {
 				
 				patch.updateDistance(commandCenters);
+				applyMeasuredRoundTripTime(patch);
 			}
-			reinitialize();
+			scheduleRebalance();
+			incomeModelChanged = true;
 		}
 		
 	};
 	
+	private GroupListener<MineralPatch> mineralPatchListener = new GroupListener<MineralPatch>() {
+
+		@Override
+		public void onAdd(MineralPatch patch) {
+			
+			patch.updateDistance(commandCenters);
+			applyMeasuredRoundTripTime(patch);
+			mineralPatchQueue.add(patch);
+		}
+
+		@Override
+		public void onRemove(MineralPatch patch) {
+			
+			mineralPatchQueue.remove(patch);
+		}
+
+		@Override
+		public void onDestroy(MineralPatch patch) {
+			
+			mineralPatchQueue.remove(patch);
+			scheduleRebalance();
+			incomeModelChanged = true;
+		}
+	};
+	
+	private final MineralPatchQueue mineralPatchQueue;
+	private final AssignmentSolver assignmentSolver;
+	private final TripTimeRecorder tripTimeRecorder;
 	private Group<MineralPatch> mineralPatches;
 	private Group<CommandCenter> commandCenters;
 	private Group<SCV> scvs;
 	
+	private long frameBudget;
+	private IncomeModel incomeModel;
+	private boolean incomeModelChanged;
+	
+	// SCVs still to be checked by the current re-balancing
+	private SCV[] pending;
+	private int pendingCount;
+	private int pendingPosition;
+	
+	// work arrays for the SCVs moved in one frame
+	private final SCV[] moving;
+	private final MineralPatch[] previousPatches;
+	private final MineralPatch[] targetPatches;
+	private final double[] distances;
+	private final int[] warmStart;
+	
 	public ResourceGatherer() {
 		
+		this.mineralPatchQueue = new MineralPatchQueue();
+		this.assignmentSolver = new AssignmentSolver();
+		this.tripTimeRecorder = new TripTimeRecorder();
+		this.frameBudget = DEFAULT_FRAME_BUDGET;
+		this.pending = new SCV[0];
+		this.moving = new SCV[MAX_MOVES_PER_FRAME];
+		this.previousPatches = new MineralPatch[MAX_MOVES_PER_FRAME];
+		this.targetPatches = new MineralPatch[MAX_MOVES_PER_FRAME];
+		this.distances = new double[MAX_MOVES_PER_FRAME * MAX_MOVES_PER_FRAME];
+		this.warmStart = new int[MAX_MOVES_PER_FRAME];
+	}
+	
+	/**
+	 * @return the mineral patches of the player ordered by the income the next SCV adds
+	 */
+	public MineralPatchQueue getMineralPatchQueue() {
+		
+		return this.mineralPatchQueue;
+	}
+	
+	/**
+	 * @return income model of the patches with a command center, or null before initialization
+	 */
+	public IncomeModel getIncomeModel() {
+		
+		return this.incomeModel;
+	}
+	
+	public TripTimeRecorder getTripTimeRecorder() {
+		
+		return this.tripTimeRecorder;
+	}
+	
+	/**
+	 * @param frameBudget time in nanoseconds re-balancing may take per frame
+	 */
+	public void setFrameBudget(long frameBudget) {
+		
+		this.frameBudget = frameBudget;
 	}
 	
 	public void initialize(Group<SCV> scvs, Group<CommandCenter> commandCenters, Group<MineralPatch> mineralPatches) {
@@ -61,64 +176,179 @@ public class ResourceGatherer {
 		this.commandCenters = commandCenters;
 		this.mineralPatches = mineralPatches;
 		this.commandCenters.addListener(commandCenterListener);
+		this.mineralPatches.addListener(mineralPatchListener);
+		this.mineralPatchQueue.clear();
+		Arrays.fill(this.pending, null);
+		this.pendingCount = 0;
+		this.pendingPosition = 0;
+		int measured = 0;
 		for (MineralPatch patch : mineralPatches) {
 			
 			patch.updateDistance(commandCenters);
+			if (applyMeasuredRoundTripTime(patch)) {
+				measured++;
+			}
+			this.mineralPatchQueue.add(patch);
+		}
+		if (measured > 0) {
+			logger.info("using {} measured round trip times.", measured);
 		}
+		// the patches close to the start location: the only ones with a command center at this point
+		updateIncomeModel();
 		
-		Iterator<MineralPatch> iterator = mineralPatches.iterator();
 		for (SCV scv : scvs) {
 			
-			scv.gather(iterator.next());
+			scv.gatherMinerals();
 		}
 	}
 	
-	private void reinitialize() {
+	/**
+	 * Continues a pending re-balancing within the frame budget. Is called once per frame.
+	 */
+	public void onFrame(int frame) {
 		
-		if (!this.commandCenters.isEmpty() && !this.mineralPatches.isEmpty()) {
+		if (this.scvs != null) {
+			this.tripTimeRecorder.onFrame(frame, this.scvs);
+		}
+		if (this.incomeModelChanged) {
+			updateIncomeModel();
+		}
+		if (this.pendingPosition >= this.pendingCount || this.mineralPatchQueue.isEmpty()) {
+			return;
+		}
+		long deadline = System.nanoTime() + this.frameBudget;
+		int moves = 0;
+		while (this.pendingPosition < this.pendingCount && moves < MAX_MOVES_PER_FRAME && System.nanoTime() < deadline) {
 			
-			List<SCV> miningScvs = this.scvs.stream().filter(w -> w.isGathering()).collect(Collectors.toList());
+			SCV worker = this.pending[this.pendingPosition];
+			this.pending[this.pendingPosition++] = null;
+			if (worker.exists() && worker.isGathering() && shouldMove(worker)) {
+				
+				// released right away, so the next workers of the same patch are judged by its new count
+				this.previousPatches[moves] = worker.getMineralPatch();
+				worker.releaseMineralPatch();
+				this.moving[moves++] = worker;
+			}
+		}
+		if (moves > 0) {
 			
-			int numberOfScvs = miningScvs.size();
-			MineralPatch[] selectedPatches = new MineralPatch[numberOfScvs];
-			double[][] distances = new double[numberOfScvs][numberOfScvs];
+			logger.trace("frame {}: moving {} workers ({} of {} checked).", frame, moves, this.pendingPosition, this.pendingCount);
+			move(moves);
+		}
+	}
+	
+	/**
+	 * Schedules checking all mining SCVs. A re-balancing already in progress starts over.
+	 */
+	public void scheduleRebalance() {
+		
+		if (this.scvs == null) {
+			return;
+		}
+		if (this.pending.length < this.scvs.size()) {
+			this.pending = new SCV[this.scvs.size() * 2];
+		} else {
+			Arrays.fill(this.pending, null);
+		}
+		int count = 0;
+		for (SCV scv : this.scvs) {
 			
-			for (MineralPatch patch : this.mineralPatches) {
-				
-				patch.resetScvCount();
+			if (count == this.pending.length) {
+				break;
 			}
+			this.pending[count++] = scv;
+		}
+		this.pendingCount = count;
+		this.pendingPosition = 0;
+		recountScvs();
+	}
+	
+	/**
+	 * Sets the SCV count of every patch to the number of live SCVs counted at it. The patches are read from the SCVs before the queue is locked
+	 * (the SCVs take their own lock first), so an SCV changing its patch in between is off by one until the next re-balancing.
+	 */
+	private void recountScvs() {
+		
+		Map<MineralPatch, Integer> counts = new IdentityHashMap<>();
+		for (SCV scv : this.scvs) {
 			
-			logger.trace("solving WEKA for {} scvs and {} patches.", miningScvs.size(), this.mineralPatches.size());
+			MineralPatch patch = scv.exists() ? scv.getMineralPatch() : null;
+			if (patch != null) {
+				counts.merge(patch, 1, Integer::sum);
+			}
+		}
+		this.mineralPatchQueue.setScvCounts(counts);
+	}
+	
+	private void updateIncomeModel() {
+		
+		this.incomeModelChanged = false;
+		IncomeModel incomeModel = IncomeModel.of(this.mineralPatches);
+		if (incomeModel != null) {
 			
-			// recalculate all distances and re-sort
-			for (int i = 0; i < numberOfScvs; i++) {
-				
-				MineralPatch targetPatch = this.mineralPatches.first();
-				logger.trace("best patch {} has roundtrip time {} and mining factor of {}", targetPatch.getId(), targetPatch.getRoundTripTime(), targetPatch.getMiningFactor());
-				
-				this.mineralPatches.remove(targetPatch);
-				targetPatch.addScv();
-				this.mineralPatches.add(targetPatch);
-				selectedPatches[i] = targetPatch;
+			this.incomeModel = incomeModel;
+			PPF2.setIncomeModel(incomeModel);
+			logger.debug("income model updated: {} patches.", incomeModel.getPatchCount());
+		}
+	}
+	
+	/**
+	 * @return true if the modelled round trip time of the patch has been replaced by a measured one
+	 */
+	private boolean applyMeasuredRoundTripTime(MineralPatch patch) {
+		
+		double roundTripTime = this.tripTimeRecorder.getRoundTripTime(patch);
+		if (Double.isNaN(roundTripTime)) {
+			return false;
+		}
+		patch.setRoundTripTime(roundTripTime);
+		return true;
+	}
+	
+	private boolean shouldMove(SCV worker) {
+		
+		MineralPatch current = worker.getMineralPatch();
+		if (current == null || !this.mineralPatchQueue.contains(current)) {
+			return true;
+		}
+		MineralPatch best = this.mineralPatchQueue.peek();
+		if (best == null || best == current) {
+			return false;
+		}
+		// what the worker adds at its current patch vs. what it would add at the best other patch
+		double contribution = current.getMiningFactor(current.getScvCount() - 1);
+		return best.getMiningFactor() > contribution * (1 + HYSTERESIS);
+	}
+	
+	/**
+	 * Selects the best patch for each released worker and matches workers to these patches minimizing the total distance.
+	 */
+	private void move(int moves) {
+		
+		for (int i = 0; i < moves; i++) {
+			this.targetPatches[i] = this.mineralPatchQueue.assignBest();
+		}
+		for (int i = 0; i < moves; i++) {
+			
+			this.warmStart[i] = -1;
+			for (int j = 0; j < moves; j++) {
 				
-				int j = 0;
-				for (SCV worker : miningScvs) {
-					
-					distances[j][i] = worker.getDistance(selectedPatches[i]);
-					j++;
+				this.distances[i * moves + j] = this.moving[i].getDistance(this.targetPatches[j]);
+				if (this.warmStart[i] < 0 && this.targetPatches[j].equals(this.previousPatches[i])) {
+					this.warmStart[i] = j;
 				}
 			}
+		}
+		this.assignmentSolver.solve(this.distances, moves, moves, this.warmStart);
+		for (int i = 0; i < moves; i++) {
 			
-			// solve assignment problem and re-assign workers to patches
-			AssignmentProblem assignmentProblem = new AssignmentProblem(distances);
-			int i = 0;
-			for (SCV worker : miningScvs) {
-				
-				int j = assignmentProblem.sol(i);
-				selectedPatches[j].removeScv();
-				worker.gather(selectedPatches[j]);
-				i++;
-			}
+			MineralPatch target = this.targetPatches[this.assignmentSolver.getColumn(i)];
+			// the patch has been counted for the worker by assignBest(): the worker counts itself when sent there
+			target.removeScv();
+			this.moving[i].gather(target);
+			this.moving[i] = null;
+			this.previousPatches[i] = null;
 		}
+		Arrays.fill(this.targetPatches, 0, moves, null);
 	}
 }
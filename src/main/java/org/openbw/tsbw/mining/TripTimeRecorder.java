@@ -0,0 +1,223 @@
+package org.openbw.tsbw.mining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbw.bwapi4j.TilePosition;
+import org.openbw.tsbw.Constants;
+import org.openbw.tsbw.unit.MineralPatch;
+import org.openbw.tsbw.unit.SCV;
+
+/**
+ * Measures mineral round trip times from the state of the mining SCVs: the time between two consecutive frames an SCV
+ * starts carrying minerals from the same patch is one round trip. The measurements are averaged per patch and closest command center
+ * (exponentially weighted) and can be stored per map, so later games on the same map start with measured instead of modelled times.
+ * Not thread-safe: meant to be used from the BWAPI callback thread.
+ */
+public class TripTimeRecorder {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final String READ_FILE = "bwapi-data/read/triptimes-%s.bin";
+	private static final String WRITE_FILE = "bwapi-data/write/triptimes-%s.bin";
+
+	private static final int MAGIC = 0x54525054;
+	private static final int VERSION = 1;
+
+	/**
+	 * Weight of a new measurement in the average.
+	 */
+	private static final double ALPHA = 0.1;
+
+	/**
+	 * Number of measurements before the average of a patch is used.
+	 */
+	public static final int MIN_SAMPLES = 5;
+
+	// trips taking longer were interrupted (e.g. by defending or a blocked path) and are ignored
+	private static final int MAX_TRIP_FRAMES = 600;
+
+	private static class Estimate {
+
+		private double roundTripTime;
+		private int samples;
+	}
+
+	private static class Trip {
+
+		private MineralPatch patch;
+		private boolean carrying;
+		private int pickupFrame;
+	}
+
+	private final Map<Long, Estimate> estimates;
+	private final Map<SCV, Trip> trips;
+
+	public TripTimeRecorder() {
+
+		this.estimates = new HashMap<>();
+		this.trips = new IdentityHashMap<>();
+	}
+
+	/**
+	 * Updates the trips of all mining SCVs. Is called once per frame.
+	 */
+	public void onFrame(int frame, Iterable<SCV> scvs) {
+
+		for (SCV scv : scvs) {
+
+			MineralPatch patch = scv.getMineralPatch();
+			Trip trip = this.trips.get(scv);
+			if (patch == null || !scv.isGathering()) {
+
+				if (trip != null) {
+					trip.patch = null;
+				}
+				continue;
+			}
+			if (trip == null) {
+
+				trip = new Trip();
+				this.trips.put(scv, trip);
+			}
+			boolean carrying = scv.isCarryingMinerals();
+			if (trip.patch != patch) {
+
+				// a new assignment: measure from the next pickup on
+				trip.patch = patch;
+				trip.carrying = carrying;
+				trip.pickupFrame = -1;
+			} else if (carrying && !trip.carrying) {
+
+				if (trip.pickupFrame >= 0) {
+					record(patch, frame - trip.pickupFrame);
+				}
+				trip.pickupFrame = frame;
+			}
+			trip.carrying = carrying;
+		}
+		if (frame % 240 == 0) {
+
+			for (Iterator<SCV> iterator = this.trips.keySet().iterator(); iterator.hasNext();) {
+				if (!iterator.next().exists()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a measured round trip of the given patch (to its current closest command center).
+	 */
+	public void record(MineralPatch patch, int roundTripFrames) {
+
+		if (roundTripFrames < Constants.MINING_TIME || roundTripFrames > MAX_TRIP_FRAMES || patch.getDxToClosestCC() == Integer.MAX_VALUE) {
+			return;
+		}
+		Long key = key(patch);
+		Estimate estimate = this.estimates.get(key);
+		if (estimate == null) {
+
+			estimate = new Estimate();
+			estimate.roundTripTime = roundTripFrames;
+			this.estimates.put(key, estimate);
+		} else {
+
+			estimate.roundTripTime += ALPHA * (roundTripFrames - estimate.roundTripTime);
+		}
+		estimate.samples++;
+	}
+
+	/**
+	 * @return measured round trip time of the patch to its current closest command center or NaN if not measured often enough
+	 */
+	public double getRoundTripTime(MineralPatch patch) {
+
+		if (patch.getDxToClosestCC() == Integer.MAX_VALUE) {
+			return Double.NaN;
+		}
+		Estimate estimate = this.estimates.get(key(patch));
+		return estimate == null || estimate.samples < MIN_SAMPLES ? Double.NaN : estimate.roundTripTime;
+	}
+
+	/**
+	 * Loads the measurements of earlier games on the given map, if there are any.
+	 * @return true if measurements were found
+	 */
+	public boolean load(String mapHash) throws IOException {
+
+		this.estimates.clear();
+		this.trips.clear();
+		Path path = Paths.get(String.format(READ_FILE, mapHash));
+		if (!Files.exists(path)) {
+			path = Paths.get(String.format(WRITE_FILE, mapHash));
+		}
+		if (!Files.exists(path)) {
+			return false;
+		}
+		try (InputStream in = Files.newInputStream(path)) {
+
+			DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+			if (input.readInt() != MAGIC || input.readShort() != VERSION) {
+
+				logger.warn("ignoring trip times in {}: unknown format.", path);
+				return false;
+			}
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+
+				Estimate estimate = new Estimate();
+				long key = input.readLong();
+				estimate.roundTripTime = input.readFloat();
+				estimate.samples = input.readInt();
+				this.estimates.put(key, estimate);
+			}
+		}
+		logger.info("loaded {} mineral trip times from {}.", this.estimates.size(), path);
+		return true;
+	}
+
+	public void save(String mapHash) throws IOException {
+
+		Path path = Paths.get(String.format(WRITE_FILE, mapHash));
+		Files.createDirectories(path.getParent());
+		try (OutputStream out = Files.newOutputStream(path)) {
+
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeInt(this.estimates.size());
+			for (Map.Entry<Long, Estimate> entry : this.estimates.entrySet()) {
+
+				output.writeLong(entry.getKey());
+				output.writeFloat((float)entry.getValue().roundTripTime);
+				output.writeInt(entry.getValue().samples);
+			}
+			output.flush();
+		}
+	}
+
+	/**
+	 * @return key of the patch position and the offset of its closest command center, packed as four 16 bit values
+	 */
+	private static long key(MineralPatch patch) {
+
+		TilePosition tile = patch.getInitialTilePosition();
+		return ((long)(tile.getX() & 0xFFFF) << 48) | ((long)(tile.getY() & 0xFFFF) << 32)
+				| ((long)(patch.getDxToClosestCC() & 0xFFFF) << 16) | (patch.getDyToClosestCC() & 0xFFFF);
+	}
+}
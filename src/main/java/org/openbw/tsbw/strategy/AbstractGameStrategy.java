@@ -8,6 +8,7 @@ import org.openbw.bwapi4j.Player;
 import org.openbw.tsbw.MapAnalyzer;
 import org.openbw.tsbw.UnitInventory;
 import org.openbw.tsbw.building.BuildingPlanner;
+import org.openbw.tsbw.micro.CommandBuffer;
 
 public abstract class AbstractGameStrategy {
 
@@ -21,6 +22,7 @@ public abstract class AbstractGameStrategy {
 	protected InteractionHandler interactionHandler;
 	protected UnitInventory myInventory;
 	protected UnitInventory enemyInventory;
+	protected CommandBuffer commandBuffer;
 	
 	/**
 	 * Is called before a new game is about to start.
@@ -40,6 +42,15 @@ public abstract class AbstractGameStrategy {
 		this.enemyInventory = player2Inventory;
 	}
 	
+	/**
+	 * Sets the buffer to submit unit commands to. They are executed at the end of the frame, orders already in flight are not repeated.
+	 * Without a buffer (null, the default) strategies send their commands directly.
+	 */
+	public void setCommandBuffer(CommandBuffer commandBuffer) {
+		
+		this.commandBuffer = commandBuffer;
+	}
+	
 	/**
 	 * Is called after a new game started (i.e., all initial units have been discovered and completed.
 	 * @param startMinerals minerals at the start of the game
@@ -7,6 +7,7 @@ import org.openbw.bwapi4j.BW;
 import org.openbw.tsbw.MapAnalyzer;
 import org.openbw.tsbw.UnitInventory;
 import org.openbw.tsbw.building.BuildingPlanner;
+import org.openbw.tsbw.micro.CommandBuffer;
 
 public class StrategyFactory {
 
@@ -18,10 +19,23 @@ private Map<String, AbstractGameStrategy> strategies;
 	private BuildingPlanner buildingPlanner;
 	private UnitInventory player1Inventory;
 	private UnitInventory player2Inventory;
+	private CommandBuffer commandBuffer;
 	
+	/**
+	 * Creates a factory whose strategies have no command buffer and send their commands directly.
+	 */
 	public StrategyFactory(BW bw, MapAnalyzer mapAnalyzer, ScoutingStrategy scoutingStrategy, BuildingPlanner buildingPlanner, UnitInventory player1Inventory,
 			UnitInventory player2Inventory) {
 		
+		this(bw, mapAnalyzer, scoutingStrategy, buildingPlanner, player1Inventory, player2Inventory, null);
+	}
+	
+	/**
+	 * @param commandBuffer buffer the strategies submit their unit commands to, or null to send them directly
+	 */
+	public StrategyFactory(BW bw, MapAnalyzer mapAnalyzer, ScoutingStrategy scoutingStrategy, BuildingPlanner buildingPlanner, UnitInventory player1Inventory,
+			UnitInventory player2Inventory, CommandBuffer commandBuffer) {
+		
 		this.strategies = new HashMap<>();
 		
 		this.bw = bw;
@@ -30,6 +44,7 @@ private Map<String, AbstractGameStrategy> strategies;
 		this.buildingPlanner = buildingPlanner;
 		this.player1Inventory = player1Inventory;
 		this.player2Inventory = player2Inventory;
+		this.commandBuffer = commandBuffer;
 	}
 	
 	public void register(String name, AbstractGameStrategy strategy) {
@@ -42,6 +57,7 @@ private Map<String, AbstractGameStrategy> strategies;
 		AbstractGameStrategy strategy = this.strategies.get(name);
 		if (strategy != null) {
 			
+			strategy.setCommandBuffer(commandBuffer);
 			strategy.initialize(bw, mapAnalyzer, scoutingStrategy, buildingPlanner, player1Inventory, player2Inventory);
 		}
 		return strategy;
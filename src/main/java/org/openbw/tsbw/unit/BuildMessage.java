@@ -8,6 +8,10 @@ class BuildMessage extends Message {
 	private TilePosition constructionSite;
 	private ConstructionType type;
 	
+	// when the message was sent, if the actor metrics are enabled
+	private long sentNanos;
+	private int sentFrame;
+	
 	public BuildMessage(TilePosition constructionSite, ConstructionType type) {
 		
 		super("");
@@ -24,4 +28,23 @@ class BuildMessage extends Message {
 		
 		return this.type;
 	}
+	
+	/* default */ void setSent(long sentNanos, int sentFrame) {
+		
+		this.sentNanos = sentNanos;
+		this.sentFrame = sentFrame;
+	}
+	
+	/**
+	 * @return System.nanoTime when the message was sent, or 0 if it was not recorded
+	 */
+	/* default */ long getSentNanos() {
+		
+		return this.sentNanos;
+	}
+	
+	/* default */ int getSentFrame() {
+		
+		return this.sentFrame;
+	}
 }
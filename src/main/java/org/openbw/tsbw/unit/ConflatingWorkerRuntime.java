@@ -0,0 +1,138 @@
+package org.openbw.tsbw.unit;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * Wraps the mailboxes of another runtime so that a worker never has more than one frame update waiting: a frame update sent while the previous one
+ * has not been received yet replaces it, and the replaced one is released. Command messages keep their order; the frame update keeps the position
+ * of the first one not received. A worker that was parked or busy for a while thus continues with the current frame instead of working through
+ * the stale ones. This only limits what is queued: the frame update a worker is working on stays valid because the worker retains it.
+ * The frame updates are kept in a slot next to the mailbox. Sending into an empty slot also puts a marker into the mailbox;
+ * whoever receives the marker takes the latest frame update from the slot. Selective receives test their filter against the marker,
+ * which is an empty frame update.
+ */
+public class ConflatingWorkerRuntime implements WorkerRuntime {
+
+	// stands in for the frame update in the slot; not pooled, so releasing it does nothing
+	private static final FrameUpdate MARKER = new FrameUpdate();
+
+	private static class ConflatingContext implements Context {
+
+		private final Context mailbox;
+		private final AtomicReference<FrameUpdate> latest;
+
+		// only written by the sender
+		private volatile int droppedFrames;
+
+		private ConflatingContext(Context mailbox) {
+
+			this.mailbox = mailbox;
+			this.latest = new AtomicReference<>();
+		}
+
+		@Override
+		public void start(WorkerActor worker) {
+
+			this.mailbox.start(worker);
+		}
+
+		@Override
+		public void send(Message message) {
+
+			if (message instanceof FrameUpdate) {
+
+				FrameUpdate replaced = this.latest.getAndSet((FrameUpdate) message);
+				if (replaced != null) {
+
+					replaced.release();
+					this.droppedFrames++;
+					return;
+				}
+				this.mailbox.send(MARKER);
+				return;
+			}
+			this.mailbox.send(message);
+		}
+
+		@Override
+		public Message receive() throws InterruptedException, SuspendExecution {
+
+			while (true) {
+
+				Message message = resolve(this.mailbox.receive());
+				if (message != null) {
+					return message;
+				}
+			}
+		}
+
+		@Override
+		public Message receive(Predicate<Message> filter) throws InterruptedException, SuspendExecution {
+
+			while (true) {
+
+				Message message = resolve(this.mailbox.receive(filter));
+				if (message != null) {
+					return message;
+				}
+			}
+		}
+
+		/**
+		 * @return the latest frame update for the marker, or null if it has already been taken
+		 */
+		private Message resolve(Message message) {
+
+			return message == MARKER ? this.latest.getAndSet(null) : message;
+		}
+
+		@Override
+		public void park() throws SuspendExecution {
+
+			this.mailbox.park();
+		}
+
+		@Override
+		public void unpark() {
+
+			this.mailbox.unpark();
+		}
+
+		@Override
+		public int getQueueLength() {
+
+			return this.mailbox.getQueueLength();
+		}
+
+		@Override
+		public int getDroppedFrames() {
+
+			return this.droppedFrames;
+		}
+	}
+
+	private final WorkerRuntime runtime;
+
+	/**
+	 * @param runtime provides the mailboxes and strands
+	 */
+	public ConflatingWorkerRuntime(WorkerRuntime runtime) {
+
+		this.runtime = runtime;
+	}
+
+	@Override
+	public Context newContext() {
+
+		return new ConflatingContext(this.runtime.newContext());
+	}
+
+	@Override
+	public String getName() {
+
+		return this.runtime.getName() + ", conflating";
+	}
+}
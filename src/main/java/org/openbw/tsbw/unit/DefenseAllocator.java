@@ -0,0 +1,194 @@
+package org.openbw.tsbw.unit;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbw.bwapi4j.type.WeaponType;
+import org.openbw.bwapi4j.unit.MobileUnit;
+
+/**
+ * Assigns the defending SCVs to the attacking enemies once per frame, instead of every defending SCV scanning all enemies and their defenders.
+ * An enemy needs more defenders as long as the combined hit points of its defenders times the damage rate of the fusion cutter are below
+ * its hit points times the damage rate of its ground weapon. New defenders go to the weakest enemy that needs more defenders, or to the weakest enemy
+ * if none does. Defenders keep their enemy while it attacks.
+ * SCVs enlist when they start defending and are dismissed when they stop; both may happen on any strand. An SCV is told once its enlistment
+ * has been processed, so that it can tell "no enemy for me" from "not assigned yet".
+ * The assignments are pushed to the actors. The defenders of every enemy are counted on the WorkerBoard, which is where the strength of a defense is read from.
+ */
+public class DefenseAllocator {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final double FUSION_CUTTER_DAMAGE_RATE = (double)WeaponType.Fusion_Cutter.damageAmount() / WeaponType.Fusion_Cutter.damageCooldown();
+
+	private static class Defender {
+
+		private final SCV scv;
+		private MobileUnit target;
+		private int hitPoints;
+
+		private Defender(SCV scv) {
+
+			this.scv = scv;
+		}
+	}
+
+	private static class Target {
+
+		private final MobileUnit enemy;
+		private final double threat;
+
+		private Target(MobileUnit enemy, double threat) {
+
+			this.enemy = enemy;
+			this.threat = threat;
+		}
+	}
+
+	private final WorkerBoard board;
+	private final ConcurrentLinkedQueue<SCV> enlisted;
+	private final ConcurrentLinkedQueue<SCV> dismissed;
+	private final Map<SCV, Defender> defenders;
+	private final List<Defender> unassigned;
+	private final List<SCV> processed;
+	private final List<Target> targets;
+	private final Map<MobileUnit, Target> targetsByEnemy;
+
+	public DefenseAllocator(WorkerBoard board) {
+
+		this.board = board;
+		this.enlisted = new ConcurrentLinkedQueue<>();
+		this.dismissed = new ConcurrentLinkedQueue<>();
+		this.defenders = new IdentityHashMap<>();
+		this.unassigned = new ArrayList<>();
+		this.processed = new ArrayList<>();
+		this.targets = new ArrayList<>();
+		this.targetsByEnemy = new IdentityHashMap<>();
+	}
+
+	/* default */ void enlist(SCV scv) {
+
+		this.enlisted.add(scv);
+	}
+
+	/* default */ void dismiss(SCV scv) {
+
+		this.dismissed.add(scv);
+	}
+
+	/**
+	 * Assigns the defenders to the attacking enemies. Is called once per frame before the frame update is delivered to the workers.
+	 */
+	public void onFrame(List<MobileUnit> attackingEnemies) {
+
+		for (SCV scv = this.dismissed.poll(); scv != null; scv = this.dismissed.poll()) {
+
+			Defender defender = this.defenders.remove(scv);
+			if (defender != null) {
+				assign(defender, null);
+			}
+		}
+		for (SCV scv = this.enlisted.poll(); scv != null; scv = this.enlisted.poll()) {
+
+			if (!this.defenders.containsKey(scv)) {
+				this.defenders.put(scv, new Defender(scv));
+			}
+			this.processed.add(scv);
+		}
+		if (!this.defenders.isEmpty()) {
+			allocate(attackingEnemies);
+		}
+		// after the assignments, so that an SCV told its enlistment has been processed sees its enemy
+		for (int i = 0; i < this.processed.size(); i++) {
+			this.processed.get(i).onEnlisted();
+		}
+		this.processed.clear();
+	}
+
+	private void allocate(List<MobileUnit> attackingEnemies) {
+
+		this.targets.clear();
+		this.targetsByEnemy.clear();
+		for (int i = 0; i < attackingEnemies.size(); i++) {
+
+			MobileUnit enemy = attackingEnemies.get(i);
+			WeaponType weapon = enemy.getGroundWeapon();
+			if (weapon != null && weapon != WeaponType.None && weapon.damageCooldown() > 0) {
+
+				Target target = new Target(enemy, (double)enemy.getHitPoints() * weapon.damageAmount() / weapon.damageCooldown());
+				this.targets.add(target);
+				this.targetsByEnemy.put(enemy, target);
+			}
+		}
+		this.targets.sort((t1, t2) -> Integer.compare(t1.enemy.getHitPoints(), t2.enemy.getHitPoints()));
+
+		// defenders keep their enemy while it attacks
+		this.unassigned.clear();
+		for (Iterator<Defender> iterator = this.defenders.values().iterator(); iterator.hasNext();) {
+
+			Defender defender = iterator.next();
+			if (!defender.scv.exists()) {
+
+				iterator.remove();
+				assign(defender, null);
+				continue;
+			}
+			int hitPoints = defender.scv.getHitPoints();
+			Target target = defender.target == null ? null : this.targetsByEnemy.get(defender.target);
+			if (target != null && defender.target.exists()) {
+
+				if (hitPoints != defender.hitPoints) {
+
+					this.board.changeDefenderHitPoints(defender.target, hitPoints - defender.hitPoints);
+					defender.hitPoints = hitPoints;
+				}
+			} else {
+				this.unassigned.add(defender);
+			}
+		}
+
+		// the strength of a target only grows while defenders are added, so the first target that needs more defenders only moves forward
+		int next = 0;
+		for (Defender defender : this.unassigned) {
+
+			while (next < this.targets.size() && getStrength(this.targets.get(next)) >= this.targets.get(next).threat) {
+				next++;
+			}
+			Target target = next < this.targets.size() ? this.targets.get(next) : this.targets.isEmpty() ? null : this.targets.get(0);
+			assign(defender, target == null ? null : target.enemy);
+		}
+		if (!this.unassigned.isEmpty()) {
+			logger.trace("assigned {} of {} defenders to {} enemies.", this.unassigned.size(), this.defenders.size(), this.targets.size());
+		}
+	}
+
+	/**
+	 * @return the damage rate of the defenders of the target as counted on the board
+	 */
+	private double getStrength(Target target) {
+
+		return this.board.getDefenderHitPoints(target.enemy) * FUSION_CUTTER_DAMAGE_RATE;
+	}
+
+	private void assign(Defender defender, MobileUnit target) {
+
+		if (defender.target == target) {
+			return;
+		}
+		if (defender.target != null) {
+			this.board.removeDefender(defender.target, defender.hitPoints);
+		}
+		defender.target = target;
+		defender.hitPoints = defender.scv.getHitPoints();
+		if (target != null) {
+			this.board.addDefender(target, defender.hitPoints);
+		}
+		defender.scv.setDefenseTarget(target);
+	}
+}
@@ -2,80 +2,213 @@ package org.openbw.tsbw.unit;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.openbw.bwapi4j.Position;
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.Bunker;
+import org.openbw.bwapi4j.unit.CommandCenter;
 import org.openbw.bwapi4j.unit.MobileUnit;
+import org.openbw.tsbw.Group;
 import org.openbw.tsbw.UnitInventory;
 
+/**
+ * Per-frame snapshot of the game state that is handed to all frame subscribers.
+ * A FrameUpdate taken from a {@link FrameUpdatePool} is reference counted and refilled via update() once the last reference is released.
+ * All lists returned are read-only views on arrays owned by this object: whoever keeps them beyond the call it got the snapshot in
+ * must {@link #retain()} the snapshot and {@link #release()} it when done. The worker actors retain every frame update sent to them.
+ */
 public class FrameUpdate extends Message {
 
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final AtomicInteger references;
+	private final FrameUpdatePool pool;
+
 	private int frame;
 	private int minerals;
 	private int gas;
 	private int remainingLatencyFrames;
-	private List<MobileUnit> enemyUnits;
-	private List<MobileUnit> attackingEnemies;
-	private List<Building> buildingsToRepair;
-	
-	public FrameUpdate(int frame, int minerals, int gas, int remainingLatencyFrames, UnitInventory myInventory, UnitInventory enemyInventory) {
-		
+	private UnitBuffer<MobileUnit> enemyUnits;
+	private UnitBuffer<MobileUnit> attackingEnemies;
+	private UnitBuffer<Building> buildingsToRepair;
+	private List<MobileUnit> nearbyEnemies;
+
+	// created once so that walking the groups each frame does not allocate
+	private final Consumer<MobileUnit> enemyCollector;
+	private final Consumer<Building> repairCollector;
+
+	private CommandCenter defendedMain;
+	private int defendedPatchCount;
+	private Position defensePosition;
+
+	public FrameUpdate() {
+
+		this(null);
+	}
+
+	/* default */ FrameUpdate(FrameUpdatePool pool) {
+
 		super("");
+		this.references = new AtomicInteger(1);
+		this.pool = pool;
+		this.enemyUnits = new UnitBuffer<>(INITIAL_CAPACITY);
+		this.attackingEnemies = new UnitBuffer<>(INITIAL_CAPACITY);
+		this.buildingsToRepair = new UnitBuffer<>(INITIAL_CAPACITY);
+		this.nearbyEnemies = new ArrayList<>(INITIAL_CAPACITY);
+		this.enemyCollector = this.enemyUnits::add;
+		this.repairCollector = this::addIfDamagedBunker;
+		this.defendedMain = null;
+		this.defendedPatchCount = -1;
+		this.defensePosition = null;
+	}
+
+	public FrameUpdate(int frame, int minerals, int gas, int remainingLatencyFrames, UnitInventory myInventory, UnitInventory enemyInventory) {
+
+		this();
+		update(frame, minerals, gas, remainingLatencyFrames, myInventory, enemyInventory);
+	}
+
+	/**
+	 * Keeps the snapshot from being refilled until {@link #release()} is called.
+	 */
+	public void retain() {
+
+		if (this.pool != null) {
+			this.references.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Gives up a reference. The last one returns the snapshot to its pool. May be called from any thread.
+	 * Snapshots not taken from a pool are not counted.
+	 */
+	public void release() {
+
+		if (this.pool == null) {
+			return;
+		}
+		int references = this.references.decrementAndGet();
+		if (references == 0) {
+			this.pool.recycle(this);
+		} else if (references < 0) {
+			throw new IllegalStateException("frame update " + this.frame + " released more often than retained");
+		}
+	}
+
+	/* default */ void reset() {
+
+		this.references.set(1);
+	}
+
+	/**
+	 * Refills this snapshot in place for the given frame. Must not be called while the snapshot is retained.
+	 */
+	public void update(int frame, int minerals, int gas, int remainingLatencyFrames, UnitInventory myInventory, UnitInventory enemyInventory) {
+
 		this.frame = frame;
 		this.minerals = minerals;
 		this.gas = gas;
 		this.remainingLatencyFrames = remainingLatencyFrames;
-		this.enemyUnits = new ArrayList<MobileUnit>();
-		this.enemyUnits.addAll(enemyInventory.getArmyUnits());
-		this.enemyUnits.addAll(enemyInventory.getWorkers());
-		
-		MineralPatch nearestPatch = myInventory.getMineralPatches().stream().min((u1, u2) -> Double.compare(
-        		u1.getDistance(myInventory.getMain().getPosition()), 
-        		u2.getDistance(myInventory.getMain().getPosition()))).get();
-		Position defensePosition = nearestPatch.getMiddle(myInventory.getMain());
-		
-		this.attackingEnemies = this.enemyUnits.stream().filter(
-				e -> e.getDistance(defensePosition) < 192 &&
-				e.isAttacking()).collect(Collectors.toList());
-		
-		this.buildingsToRepair = myInventory.getBuildings().stream().filter(b -> b instanceof Bunker && b.getHitPoints() < b.maxHitPoints())
-					.map(b -> (Building)b).collect(Collectors.toList());
-	}
-	
+
+		// forEach walks the snapshot arrays of the groups by index, which does not allocate as iterators would
+		this.enemyUnits.clear();
+		enemyInventory.getArmyUnits().forEach(this.enemyCollector);
+		enemyInventory.getWorkers().forEach(this.enemyCollector);
+
+		this.attackingEnemies.clear();
+		Position defensePosition = getDefensePosition(myInventory);
+		if (defensePosition != null) {
+
+			this.nearbyEnemies.clear();
+			enemyInventory.getMobileUnitGrid().query(defensePosition, 192, this.nearbyEnemies);
+			for (int i = 0; i < this.nearbyEnemies.size(); i++) {
+
+				MobileUnit enemy = this.nearbyEnemies.get(i);
+				if (enemy.isAttacking()) {
+					this.attackingEnemies.add(enemy);
+				}
+			}
+		}
+
+		this.buildingsToRepair.clear();
+		myInventory.getBuildings().forEach(this.repairCollector);
+	}
+
+	private void addIfDamagedBunker(Building building) {
+
+		if (building instanceof Bunker && building.getHitPoints() < building.maxHitPoints()) {
+			this.buildingsToRepair.add(building);
+		}
+	}
+
+	/**
+	 * The defense position is the middle between the main and its nearest mineral patch.
+	 * It only changes if the main or the set of mineral patches changes, so it is cached.
+	 */
+	private Position getDefensePosition(UnitInventory myInventory) {
+
+		CommandCenter main = myInventory.getMain();
+		Group<MineralPatch> mineralPatches = myInventory.getMineralPatches();
+		if (main == null || mineralPatches.isEmpty()) {
+
+			this.defendedMain = null;
+			this.defensePosition = null;
+			return null;
+		}
+		if (main != this.defendedMain || mineralPatches.size() != this.defendedPatchCount) {
+
+			Position mainPosition = main.getPosition();
+			MineralPatch nearestPatch = null;
+			double minDistance = Double.MAX_VALUE;
+			for (MineralPatch patch : mineralPatches) {
+
+				double distance = patch.getDistance(mainPosition);
+				if (distance < minDistance) {
+					minDistance = distance;
+					nearestPatch = patch;
+				}
+			}
+			this.defendedMain = main;
+			this.defendedPatchCount = mineralPatches.size();
+			this.defensePosition = nearestPatch.getMiddle(main);
+		}
+		return this.defensePosition;
+	}
+
 	public int getFrame() {
-		
+
 		return this.frame;
 	}
-	
+
 	public int getMinerals() {
-		
+
 		return this.minerals;
 	}
-	
+
 	public int getGas() {
-		
+
 		return this.gas;
 	}
-	
+
 	public int getRemainingLatencyFrames() {
-		
+
 		return this.remainingLatencyFrames;
 	}
-	
+
 	public List<Building> getBuildingsToRepair() {
-	
-		return this.buildingsToRepair;
+
+		return this.buildingsToRepair.view();
 	}
-	
+
 	public List<MobileUnit> getAttackingUnits() {
-		
-		return this.attackingEnemies;
+
+		return this.attackingEnemies.view();
 	}
-	
+
 	public List<MobileUnit> getEnemyUnits() {
-		
-		return this.enemyUnits;
+
+		return this.enemyUnits.view();
 	}
 }
@@ -0,0 +1,67 @@
+package org.openbw.tsbw.unit;
+
+import java.util.Arrays;
+
+/**
+ * Hands out FrameUpdate snapshots for refilling and takes them back once the last reference has been released, which may happen on any strand.
+ * A snapshot is never refilled while a worker actor still holds it. The pool keeps every snapshot it has created, so it grows to the most
+ * snapshots ever held at the same time (workers waiting on the heartbeat and queued frame updates included) and from then on refilling allocates nothing.
+ */
+public class FrameUpdatePool {
+
+	public static final int DEFAULT_CAPACITY = 8;
+
+	private FrameUpdate[] free;
+	private int size;
+	private int created;
+
+	public FrameUpdatePool() {
+
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity initial capacity; the pool grows beyond it if more snapshots are held at the same time
+	 */
+	public FrameUpdatePool(int capacity) {
+
+		this.free = new FrameUpdate[Math.max(capacity, 1)];
+		this.size = 0;
+		this.created = 0;
+	}
+
+	/**
+	 * @return a snapshot with one reference held by the caller
+	 */
+	public synchronized FrameUpdate acquire() {
+
+		if (this.size == 0) {
+
+			this.created++;
+			if (this.created > this.free.length) {
+				this.free = Arrays.copyOf(this.free, this.free.length * 2);
+			}
+			return new FrameUpdate(this);
+		}
+		this.size--;
+		FrameUpdate frameUpdate = this.free[this.size];
+		this.free[this.size] = null;
+		frameUpdate.reset();
+		return frameUpdate;
+	}
+
+	/**
+	 * @return number of snapshots created so far, i.e. the most held at the same time
+	 */
+	public synchronized int getCreated() {
+
+		return this.created;
+	}
+
+	/* default */ synchronized void recycle(FrameUpdate frameUpdate) {
+
+		// never overflows: there are no more snapshots than created, and the array grows with them
+		this.free[this.size] = frameUpdate;
+		this.size++;
+	}
+}
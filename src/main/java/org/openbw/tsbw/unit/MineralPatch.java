@@ -5,7 +5,6 @@ import org.openbw.bwapi4j.MapDrawer;
 import org.openbw.bwapi4j.type.Color;
 import org.openbw.bwapi4j.type.UnitType;
 import org.openbw.bwapi4j.unit.CommandCenter;
-import org.openbw.bwapi4j.unit.Unit;
 import org.openbw.tsbw.Constants;
 import org.openbw.tsbw.Group;
 import org.openbw.tsbw.MapAnalyzer;
@@ -15,27 +14,37 @@ import bwta.Region;
 
 public class MineralPatch extends org.openbw.bwapi4j.unit.MineralPatch {
 
+	/**
+	 * Mining factors are precomputed for 0 to MINING_FACTOR_TABLE_SIZE - 1 assigned SCVs (a patch is saturated long before).
+	 */
+	/* default */ static final int MINING_FACTOR_TABLE_SIZE = 9;
+	
 	private MapAnalyzer mapAnalyzer;
 	private Region myRegion;
-	private Group<MineralPatch> mineralPatches;
+	private volatile MineralPatchQueue queue;
+	private int queueIndex;
 	
 	private int assignedScvs;
 	private int dyToClosestCC;
 	private int dxToClosestCC;
 	private double roundTripTimeToClosestCC;
 	
+	// replaced (not changed) when the round trip time changes, as it is read by the worker fibers
+	private volatile double[] miningFactors;
+	
 	MineralPatch(int id) {
 		
 		super(id);
 		this.dyToClosestCC = Integer.MAX_VALUE;
 		this.dxToClosestCC = Integer.MAX_VALUE;
 		this.roundTripTimeToClosestCC = Double.MAX_VALUE;
+		this.miningFactors = computeMiningFactors(this.roundTripTimeToClosestCC);
+		this.queueIndex = -1;
 	}
 
-	public void initialize(MapAnalyzer mapAnalyzer, Group<MineralPatch> mineralPatches) {
+	public void initialize(MapAnalyzer mapAnalyzer) {
 		
 		this.mapAnalyzer = mapAnalyzer;
-		this.mineralPatches = mineralPatches;
 		this.myRegion = this.mapAnalyzer.getRegion(this.getInitialPosition());
 		this.assignedScvs = 0;
 	}
@@ -45,8 +54,53 @@ public class MineralPatch extends org.openbw.bwapi4j.unit.MineralPatch {
 		return roundTripTimeToClosestCC;
 	}
 	
+	/**
+	 * @return x offset of this patch to its closest command center or Integer.MAX_VALUE if there is none
+	 */
+	public int getDxToClosestCC() {
+		
+		return this.dxToClosestCC;
+	}
+	
+	/**
+	 * @return y offset of this patch to its closest command center or Integer.MAX_VALUE if there is none
+	 */
+	public int getDyToClosestCC() {
+		
+		return this.dyToClosestCC;
+	}
+	
+	/**
+	 * @return the additional mineral income per frame if one more SCV is assigned to this patch
+	 */
 	public double getMiningFactor() {
 		
+		return getMiningFactor(this.assignedScvs);
+	}
+	
+	/**
+	 * @return the additional mineral income per frame if one more SCV is assigned to this patch while it has the given number of SCVs
+	 */
+	public double getMiningFactor(int scvs) {
+		
+		double[] factors = this.miningFactors;
+		if (scvs >= 0 && scvs < factors.length) {
+			return factors[scvs];
+		}
+		return computeMiningFactor(this.roundTripTimeToClosestCC, scvs);
+	}
+	
+	/* default */ static double[] computeMiningFactors(double roundTripTimeToClosestCC) {
+		
+		double[] factors = new double[MINING_FACTOR_TABLE_SIZE];
+		for (int scvs = 0; scvs < factors.length; scvs++) {
+			factors[scvs] = computeMiningFactor(roundTripTimeToClosestCC, scvs);
+		}
+		return factors;
+	}
+	
+	/* default */ static double computeMiningFactor(double roundTripTimeToClosestCC, int assignedScvs) {
+		
 		// friction = empirically determined 'magic function' representing wandering/collision effects
 		double friction = assignedScvs * (Math.pow(assignedScvs, 1.215) - 8.5);
 		double oldRate = Math.min((assignedScvs) * Constants.MINERALS_PER_ROUNDTRIP/(roundTripTimeToClosestCC + friction), Constants.MINERALS_PER_ROUNDTRIP/Constants.MINING_TIME);
@@ -62,13 +116,23 @@ public class MineralPatch extends org.openbw.bwapi4j.unit.MineralPatch {
 		this.dxToClosestCC = Integer.MAX_VALUE;
 		this.roundTripTimeToClosestCC = Double.MAX_VALUE;
 		for (CommandCenter cc : commandCenters) {
-			updateDistance(cc);
+			updateClosest(cc);
 		}
-		
+		roundTripTimeChanged();
 	}
 	
 	public void updateDistance(CommandCenter commandCenter) {
 		
+		if (updateClosest(commandCenter)) {
+			roundTripTimeChanged();
+		}
+	}
+	
+	/**
+	 * @return true if the command center is closer than the previous closest one
+	 */
+	private boolean updateClosest(CommandCenter commandCenter) {
+		
 		Region ccRegion = this.mapAnalyzer.getRegion(commandCenter.getPosition());
 		
 		double roundTripTime;
@@ -94,12 +158,27 @@ public class MineralPatch extends org.openbw.bwapi4j.unit.MineralPatch {
 		
 		if (groundDistance > 0 && roundTripTime < this.roundTripTimeToClosestCC) {
 			
-			this.mineralPatches.remove(this);
 			this.roundTripTimeToClosestCC = roundTripTime;
 			this.dxToClosestCC = dx;
 			this.dyToClosestCC = dy;
-			this.mineralPatches.add(this);
+			return true;
 		}
+		return false;
+	}
+	
+	/**
+	 * Sets the round trip time to the closest command center directly (e.g. a measured one), keeping the closest command center.
+	 */
+	public void setRoundTripTime(double roundTripTime) {
+		
+		this.roundTripTimeToClosestCC = roundTripTime;
+		roundTripTimeChanged();
+	}
+	
+	private void roundTripTimeChanged() {
+		
+		this.miningFactors = computeMiningFactors(this.roundTripTimeToClosestCC);
+		updateQueue();
 	}
 
 	public void drawInfo(MapDrawer mapDrawer) {
@@ -120,46 +199,68 @@ public class MineralPatch extends org.openbw.bwapi4j.unit.MineralPatch {
 		mapDrawer.drawTextMap(x - 40, y +  5, "dx: " + this.dxToClosestCC + "; dy: " + this.dyToClosestCC);
 	}
 	
-	@Override
-	public int compareTo(Unit otherUnit) {
-		
-		if (otherUnit instanceof MineralPatch) {
-			
-			double comparison = ((MineralPatch)otherUnit).getMiningFactor() - this.getMiningFactor();
-			if (comparison == 0) {
-				
-				return super.compareTo((MineralPatch)otherUnit);
-			} else {
-				
-				return (int)Math.signum(comparison);
-			}
-		}
-		return super.compareTo(otherUnit);
-	}
-
 	public void resetScvCount() {
 		
-		this.mineralPatches.remove(this);
-		this.assignedScvs = 0;
-		this.mineralPatches.add(this);
+		MineralPatchQueue queue = this.queue;
+		if (queue == null) {
+			this.assignedScvs = 0;
+		} else {
+			queue.resetScvCount(this);
+		}
 	}
 	
 	public void removeScv() {
 		
-		this.mineralPatches.remove(this);
-		this.assignedScvs--;
-		this.mineralPatches.add(this);
+		changeScvCount(-1);
 	}
 
 	public void addScv() {
 		
-		this.mineralPatches.remove(this);
-		this.assignedScvs++;
-		this.mineralPatches.add(this);
+		changeScvCount(1);
 	}
 	
 	public int getScvCount() {
 		
 		return this.assignedScvs;
 	}
+	
+	private void changeScvCount(int delta) {
+		
+		// counts of patches in a queue are changed by the queue, so the patch is re-positioned under the same lock
+		MineralPatchQueue queue = this.queue;
+		if (queue == null) {
+			this.assignedScvs += delta;
+		} else {
+			queue.changeScvCount(this, delta);
+		}
+	}
+	
+	private void updateQueue() {
+		
+		MineralPatchQueue queue = this.queue;
+		if (queue != null) {
+			queue.update(this);
+		}
+	}
+	
+	/* default */ void setScvCount(int assignedScvs) {
+		
+		this.assignedScvs = assignedScvs;
+	}
+	
+	/* default */ MineralPatchQueue getQueue() {
+		
+		return this.queue;
+	}
+	
+	/* default */ int getQueueIndex() {
+		
+		return this.queueIndex;
+	}
+	
+	/* default */ void setQueue(MineralPatchQueue queue, int queueIndex) {
+		
+		this.queue = queue;
+		this.queueIndex = queueIndex;
+	}
 }
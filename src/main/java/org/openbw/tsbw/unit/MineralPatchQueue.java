@@ -0,0 +1,217 @@
+package org.openbw.tsbw.unit;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Mineral patches ordered by mining factor, i.e. by the income the next SCV assigned to a patch adds (ties broken by unit id).
+ * This is an indexed binary max-heap: every patch in the queue knows its heap position, so changing the SCV count or round trip time
+ * of a patch moves it up or down in O(log n) (increase/decrease key) and the best patch is available in O(1).
+ * While a patch is in the queue, its SCV count is only changed under the lock of the queue, so the worker fibers and
+ * the BWAPI thread can assign SCVs concurrently.
+ */
+public class MineralPatchQueue {
+
+	private MineralPatch[] heap;
+
+	// mining factor of the patch at the same heap position when it was last positioned
+	private double[] factors;
+	private int size;
+
+	public MineralPatchQueue() {
+
+		this.heap = new MineralPatch[32];
+		this.factors = new double[32];
+		this.size = 0;
+	}
+
+	public synchronized boolean add(MineralPatch patch) {
+
+		if (patch.getQueue() == this) {
+			return false;
+		}
+		if (this.size == this.heap.length) {
+
+			this.heap = Arrays.copyOf(this.heap, this.size * 2);
+			this.factors = Arrays.copyOf(this.factors, this.size * 2);
+		}
+		patch.setQueue(this, this.size);
+		this.heap[this.size] = patch;
+		this.factors[this.size] = patch.getMiningFactor();
+		this.size++;
+		swim(this.size - 1);
+		return true;
+	}
+
+	public synchronized boolean remove(MineralPatch patch) {
+
+		if (patch.getQueue() != this) {
+			return false;
+		}
+		int position = patch.getQueueIndex();
+		this.size--;
+		if (position != this.size) {
+
+			move(this.size, position);
+			this.heap[this.size] = null;
+			reposition(position);
+		} else {
+
+			this.heap[this.size] = null;
+		}
+		patch.setQueue(null, -1);
+		return true;
+	}
+
+	/**
+	 * @return the patch where one more SCV adds the most income, or null if the queue is empty
+	 */
+	public synchronized MineralPatch peek() {
+
+		return this.size == 0 ? null : this.heap[0];
+	}
+
+	/**
+	 * Selects the best patch and assigns one more SCV to it in one step.
+	 * @return the selected patch, or null if the queue is empty
+	 */
+	public synchronized MineralPatch assignBest() {
+
+		if (this.size == 0) {
+			return null;
+		}
+		MineralPatch best = this.heap[0];
+		changeScvCount(best, 1);
+		return best;
+	}
+
+	public synchronized boolean contains(MineralPatch patch) {
+
+		return patch.getQueue() == this;
+	}
+
+	public synchronized int size() {
+
+		return this.size;
+	}
+
+	public synchronized boolean isEmpty() {
+
+		return this.size == 0;
+	}
+
+	public synchronized void clear() {
+
+		for (int i = 0; i < this.size; i++) {
+
+			this.heap[i].setQueue(null, -1);
+			this.heap[i] = null;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Replaces the SCV counts of all patches in this queue and restores the heap order in O(n).
+	 * @param counts SCVs counted at each patch; patches without an entry get 0
+	 */
+	public synchronized void setScvCounts(Map<MineralPatch, Integer> counts) {
+
+		for (int i = 0; i < this.size; i++) {
+
+			Integer count = counts.get(this.heap[i]);
+			this.heap[i].setScvCount(count == null ? 0 : count);
+			this.factors[i] = this.heap[i].getMiningFactor();
+		}
+		for (int i = this.size / 2 - 1; i >= 0; i--) {
+			sink(i);
+		}
+	}
+
+	/* default */ synchronized void changeScvCount(MineralPatch patch, int delta) {
+
+		patch.setScvCount(patch.getScvCount() + delta);
+		update(patch);
+	}
+
+	/* default */ synchronized void resetScvCount(MineralPatch patch) {
+
+		patch.setScvCount(0);
+		update(patch);
+	}
+
+	/**
+	 * Moves the patch to its new position after its mining factor has changed.
+	 */
+	/* default */ synchronized void update(MineralPatch patch) {
+
+		if (patch.getQueue() == this) {
+
+			int position = patch.getQueueIndex();
+			this.factors[position] = patch.getMiningFactor();
+			reposition(position);
+		}
+	}
+
+	private void reposition(int position) {
+
+		if (position > 0 && isBetter(position, (position - 1) / 2)) {
+			swim(position);
+		} else {
+			sink(position);
+		}
+	}
+
+	private void swim(int position) {
+
+		while (position > 0) {
+
+			int parent = (position - 1) / 2;
+			if (!isBetter(position, parent)) {
+				break;
+			}
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	private void sink(int position) {
+
+		while (2 * position + 1 < this.size) {
+
+			int child = 2 * position + 1;
+			if (child + 1 < this.size && isBetter(child + 1, child)) {
+				child++;
+			}
+			if (!isBetter(child, position)) {
+				break;
+			}
+			swap(position, child);
+			position = child;
+		}
+	}
+
+	private boolean isBetter(int i, int j) {
+
+		if (this.factors[i] != this.factors[j]) {
+			return this.factors[i] > this.factors[j];
+		}
+		return this.heap[i].getId() < this.heap[j].getId();
+	}
+
+	private void swap(int i, int j) {
+
+		MineralPatch patch = this.heap[i];
+		double factor = this.factors[i];
+		move(j, i);
+		this.heap[j] = patch;
+		this.factors[j] = factor;
+		patch.setQueue(this, j);
+	}
+
+	private void move(int from, int to) {
+
+		this.heap[to] = this.heap[from];
+		this.factors[to] = this.factors[from];
+		this.heap[to].setQueue(this, to);
+	}
+}
@@ -0,0 +1,78 @@
+package org.openbw.tsbw.unit;
+
+import java.util.function.Predicate;
+
+import co.paralleluniverse.actors.BasicActor;
+import co.paralleluniverse.actors.MessageProcessor;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+
+/**
+ * Runs every worker as a Quasar actor on its own fiber. Needs the Quasar java agent (or ahead of time instrumentation).
+ */
+public class QuasarWorkerRuntime implements WorkerRuntime {
+
+	private static class Actor extends BasicActor<Message, Void> implements Context {
+
+		private static final long serialVersionUID = 1L;
+
+		private WorkerActor worker;
+
+		@Override
+		public void start(WorkerActor worker) {
+
+			this.worker = worker;
+			spawn();
+		}
+
+		@Override
+		public void send(Message message) {
+
+			sendOrInterrupt(message);
+		}
+
+		@Override
+		public Message receive() throws InterruptedException, SuspendExecution {
+
+			return super.receive();
+		}
+
+		@Override
+		public Message receive(Predicate<Message> filter) throws InterruptedException, SuspendExecution {
+
+			MessageProcessor<Message, Message> processor = message -> filter.test(message) ? message : null;
+			return super.receive(processor);
+		}
+
+		@Override
+		public void park() throws SuspendExecution {
+
+			Strand.park();
+		}
+
+		@Override
+		public void unpark() {
+
+			Strand.unpark(getStrand());
+		}
+
+		@Override
+		protected Void doRun() throws InterruptedException, SuspendExecution {
+
+			this.worker.doRun();
+			return null;
+		}
+	}
+
+	@Override
+	public Context newContext() {
+
+		return new Actor();
+	}
+
+	@Override
+	public String getName() {
+
+		return "quasar";
+	}
+}
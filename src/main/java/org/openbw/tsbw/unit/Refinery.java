@@ -4,30 +4,78 @@ public class Refinery extends org.openbw.bwapi4j.unit.Refinery {
 
 	public static double MINING_RATE_PER_SCV = 0.072;
 	
+	/**
+	 * Weight of a new throughput sample in the measured mining rate.
+	 */
+	private static final double ALPHA = 0.2;
+	
 	private int assignedScvs;
 	
+	private int lastSampleFrame;
+	private int lastSampleResources;
+	private volatile double measuredMiningRate;
+	
 	protected Refinery(int id, int timeSpotted) {
 		
 		super(id, timeSpotted);
 		this.assignedScvs = 0;
+		this.lastSampleFrame = -1;
+		this.measuredMiningRate = Double.NaN;
 	}
 
+	/**
+	 * @return gas mined per frame: measured if available, estimated from the number of assigned SCVs otherwise
+	 */
 	public double getMiningRate() {
 	
+		double measured = this.measuredMiningRate;
+		return Double.isNaN(measured) ? getEstimatedMiningRate() : measured;
+	}
+	
+	public double getEstimatedMiningRate() {
+		
 		return this.assignedScvs * MINING_RATE_PER_SCV;
 	}
 	
-	public void resetScvCount() {
+	/**
+	 * @return gas mined per frame according to the resources taken from the refinery recently, or NaN if not measured yet
+	 */
+	public double getMeasuredMiningRate() {
+		
+		return this.measuredMiningRate;
+	}
+	
+	/**
+	 * Adds a throughput sample from the change of the remaining gas since the last sample.
+	 */
+	public void sampleMiningRate(int frame) {
+		
+		int resources = getResources();
+		if (this.lastSampleFrame >= 0 && frame > this.lastSampleFrame) {
+			
+			double rate = Math.max(0, this.lastSampleResources - resources) / (double)(frame - this.lastSampleFrame);
+			this.measuredMiningRate = Double.isNaN(this.measuredMiningRate) ? rate : this.measuredMiningRate + ALPHA * (rate - this.measuredMiningRate);
+		}
+		this.lastSampleFrame = frame;
+		this.lastSampleResources = resources;
+	}
+	
+	public synchronized int getScvCount() {
+		
+		return this.assignedScvs;
+	}
+	
+	public synchronized void resetScvCount() {
 		
 		this.assignedScvs = 0;
 	}
 	
-	public void removeScv() {
+	public synchronized void removeScv() {
 		
 		this.assignedScvs--;
 	}
 
-	public void addScv() {
+	public synchronized void addScv() {
 		
 		this.assignedScvs++;
 	}
@@ -3,6 +3,7 @@ package org.openbw.tsbw.unit;
 import org.openbw.bwapi4j.TilePosition;
 import org.openbw.bwapi4j.unit.Building;
 import org.openbw.bwapi4j.unit.GasMiningFacility;
+import org.openbw.bwapi4j.unit.MobileUnit;
 import org.openbw.tsbw.Group;
 import org.openbw.tsbw.Subscriber;
 import org.openbw.tsbw.building.ConstructionType;
@@ -11,8 +12,12 @@ public class SCV extends org.openbw.bwapi4j.unit.SCV implements Subscriber<Frame
 
 	private WorkerActor workerActor;
 	
-	private Group<MineralPatch> mineralPatches;
+	private MineralPatchQueue mineralPatchQueue;
+	private MineralPatch mineralPatch;
+	private Refinery refinery;
 	private Group<GasMiningFacility> refineries;
+	// set when the SCV has been destroyed; it is not counted at patches or refineries any more
+	private boolean destroyed;
 	
 	protected SCV(int id, WorkerActor workerActor) {
 		
@@ -29,24 +34,51 @@ public class SCV extends org.openbw.bwapi4j.unit.SCV implements Subscriber<Frame
 	
 	public void gatherMinerals() {
 		
-		gather(this.mineralPatches.first());
+		MineralPatch mineralPatch;
+		synchronized (this) {
+			
+			if (this.destroyed) {
+				return;
+			}
+			releaseRefinery();
+			releaseMineralPatch();
+			mineralPatch = this.mineralPatchQueue.assignBest();
+			this.mineralPatch = mineralPatch;
+		}
+		this.workerActor.sendOrInterrupt(new GatherMineralsMessage(mineralPatch));
 	}
 	
 	public void gather(MineralPatch mineralPatch) {
 		
-		mineralPatch.addScv();
+		releaseRefinery();
+		assignMineralPatch(mineralPatch);
 		this.workerActor.sendOrInterrupt(new GatherMineralsMessage(mineralPatch));
 	}
 	
 	public void gather(Refinery refinery) {
 		
+		releaseMineralPatch();
+		assignRefinery(refinery);
 		this.workerActor.setAvailable(false);
 		this.workerActor.sendOrInterrupt(new GatherGasMessage(refinery));
 	}
 	
+	/**
+	 * Sends this SCV to the completed refinery with the fewest SCVs.
+	 */
 	public void gatherGas() {
 		
-		gather((Refinery)this.refineries.first());
+		Refinery leastSaturated = null;
+		for (GasMiningFacility facility : this.refineries) {
+			
+			if (facility instanceof Refinery && facility.isCompleted()
+					&& (leastSaturated == null || ((Refinery)facility).getScvCount() < leastSaturated.getScvCount())) {
+				leastSaturated = (Refinery)facility;
+			}
+		}
+		if (leastSaturated != null) {
+			gather(leastSaturated);
+		}
 	}
 	
 	public void construct(TilePosition constructionSite, ConstructionType type) {
@@ -60,6 +92,66 @@ public class SCV extends org.openbw.bwapi4j.unit.SCV implements Subscriber<Frame
 		// TODO
 	}
 	
+	/**
+	 * @return the mineral patch this SCV is counted at, or null
+	 */
+	public synchronized MineralPatch getMineralPatch() {
+		
+		return this.mineralPatch;
+	}
+	
+	/**
+	 * Removes this SCV from the SCV count of its mineral patch, e.g. when it stops mining for a while or is about to be reassigned.
+	 */
+	public synchronized void releaseMineralPatch() {
+		
+		if (this.mineralPatch != null) {
+			
+			this.mineralPatch.removeScv();
+			this.mineralPatch = null;
+		}
+	}
+	
+	/**
+	 * @return the refinery this SCV is counted at, or null
+	 */
+	public synchronized Refinery getRefinery() {
+		
+		return this.refinery;
+	}
+	
+	/* default */ synchronized void releaseRefinery() {
+		
+		if (this.refinery != null) {
+			
+			this.refinery.removeScv();
+			this.refinery = null;
+		}
+	}
+	
+	private synchronized void assignRefinery(Refinery refinery) {
+		
+		if (this.refinery != refinery && !this.destroyed) {
+			
+			releaseRefinery();
+			refinery.addScv();
+			this.refinery = refinery;
+		}
+	}
+	
+	/**
+	 * Counts this SCV at the given patch instead of its previous one. An SCV is counted at one patch at most.
+	 */
+	/* default */ synchronized void assignMineralPatch(MineralPatch mineralPatch) {
+		
+		if (this.mineralPatch != mineralPatch && !this.destroyed) {
+			
+			releaseMineralPatch();
+			mineralPatch.addScv();
+			this.mineralPatch = mineralPatch;
+		}
+	}
+	
 	public boolean isAvailable() {
 		
 		return this.workerActor.isAvailable();
@@ -69,14 +161,83 @@ public class SCV extends org.openbw.bwapi4j.unit.SCV implements Subscriber<Frame
 		
 		return this.workerActor.isGathering();
 	}
+	
+	/**
+	 * @return number of gather minerals commands that failed so far
+	 */
+	public int getGatherCommandFailures() {
+		
+		return this.workerActor.getGatherCommandFailures();
+	}
 
-	public void initialize(Group<MineralPatch> mineralPatches, Group<GasMiningFacility> refineries) {
+	public void initialize(MineralPatchQueue mineralPatchQueue, Group<GasMiningFacility> refineries) {
 		
-		this.mineralPatches = mineralPatches;
+		this.mineralPatchQueue = mineralPatchQueue;
 		this.refineries = refineries;
 		this.workerActor.spawn();
 	}
 
+	/* default */ MineralPatchQueue getMineralPatchQueue() {
+		
+		return this.mineralPatchQueue;
+	}
+
+	/**
+	 * @return frame updates the worker received after a newer one had already been sent to it
+	 */
+	public int getStaleFrames() {
+		
+		return this.workerActor.getStaleFrames();
+	}
+	
+	/**
+	 * @return frame updates the worker never received because a newer one replaced them in its mailbox
+	 */
+	public int getDroppedFrames() {
+		
+		return this.workerActor.getDroppedFrames();
+	}
+	
+	/* default */ void setDefenseTarget(MobileUnit enemy) {
+		
+		this.workerActor.setDefenseTarget(enemy);
+	}
+	
+	/* default */ void onEnlisted() {
+		
+		this.workerActor.onEnlisted();
+	}
+	
+	/* default */ void setScheduler(WorkerScheduler scheduler) {
+		
+		this.workerActor.setScheduler(scheduler);
+	}
+	
+	/* default */ WorkerScheduler.Wait getWait() {
+		
+		return this.workerActor.getWait();
+	}
+	
+	/* default */ int getWakeUp() {
+		
+		return this.workerActor.getWakeUp();
+	}
+
+	/**
+	 * Called when the SCV has been destroyed, after it has been removed from the scheduler. Releases its mineral patch, refinery
+	 * and repair slot right away and stops its worker, which would otherwise wait for a frame update that never comes.
+	 */
+	public void onDestroy() {
+		
+		synchronized (this) {
+			
+			this.destroyed = true;
+			releaseRefinery();
+			releaseMineralPatch();
+		}
+		this.workerActor.stop();
+	}
+	
 	@Override
 	public void onReceive(FrameUpdate frameUpdate) {
 		
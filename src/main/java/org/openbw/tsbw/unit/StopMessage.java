@@ -0,0 +1,12 @@
+package org.openbw.tsbw.unit;
+
+/**
+ * Sent when the SCV has been destroyed: the worker leaves whatever it is doing and ends its main loop.
+ */
+class StopMessage extends Message {
+
+	public StopMessage() {
+		
+		super("");
+	}
+}
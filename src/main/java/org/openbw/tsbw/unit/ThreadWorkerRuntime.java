@@ -0,0 +1,227 @@
+package org.openbw.tsbw.unit;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs every worker on its own thread with a bounded mailbox. On a JDK with virtual threads (21+) these are virtual threads,
+ * so blocking in receive() or park() is as cheap as parking a fiber and no instrumentation is needed; otherwise daemon platform threads are used.
+ * Only frame updates are ever dropped: a frame update that does not fit into a full mailbox is dropped (the worker reads the next one),
+ * any other message replaces the oldest frame update in the mailbox. A command message finding the mailbox full of commands blocks the sender
+ * until the worker takes one, and fails with an IllegalStateException if the worker does not do so in time, since a lost command would leave
+ * its SCV, project or refinery claim stuck.
+ */
+public class ThreadWorkerRuntime implements WorkerRuntime {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	public static final int DEFAULT_MAILBOX_CAPACITY = 16;
+
+	// how long a command message waits for room in a mailbox full of commands
+	private static final long COMMAND_TIMEOUT_MILLIS = 1000;
+
+	// Thread.startVirtualThread(Runnable) if available; the source level predates it
+	private static final Method START_VIRTUAL_THREAD;
+
+	static {
+
+		Method method = null;
+		try {
+			method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+		} catch (NoSuchMethodException e) {
+			// no virtual threads: fall back to platform threads
+		}
+		START_VIRTUAL_THREAD = method;
+	}
+
+	private class ThreadContext implements Context {
+
+		private final ArrayBlockingQueue<Message> mailbox;
+
+		// messages skipped by a selective receive; only accessed by the worker thread
+		private final ArrayDeque<Message> deferred;
+
+		private volatile Thread thread;
+
+		private ThreadContext() {
+
+			this.mailbox = new ArrayBlockingQueue<>(mailboxCapacity);
+			this.deferred = new ArrayDeque<>();
+		}
+
+		@Override
+		public void start(WorkerActor worker) {
+
+			Runnable runnable = () -> {
+
+				this.thread = Thread.currentThread();
+				try {
+					worker.doRun();
+				} catch (InterruptedException e) {
+					logger.debug("{} interrupted.", worker);
+				} catch (Exception e) {
+					logger.error("{} failed: {}", worker, e.getMessage(), e);
+				}
+			};
+			if (START_VIRTUAL_THREAD != null) {
+
+				try {
+					START_VIRTUAL_THREAD.invoke(null, runnable);
+					return;
+				} catch (ReflectiveOperationException e) {
+					logger.warn("could not start virtual thread: {}", e.getMessage());
+				}
+			}
+			Thread thread = new Thread(runnable, "worker");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void send(Message message) {
+
+			if (this.mailbox.offer(message)) {
+				return;
+			}
+			if (message instanceof FrameUpdate) {
+
+				((FrameUpdate)message).release();
+				droppedFrameUpdates.incrementAndGet();
+				return;
+			}
+			for (Iterator<Message> iterator = this.mailbox.iterator(); iterator.hasNext();) {
+
+				Message queued = iterator.next();
+				if (queued instanceof FrameUpdate) {
+
+					iterator.remove();
+					((FrameUpdate)queued).release();
+					droppedFrameUpdates.incrementAndGet();
+					break;
+				}
+			}
+			if (this.mailbox.offer(message)) {
+				return;
+			}
+			logger.warn("mailbox full of commands, waiting to deliver {}.", message);
+			unpark();
+			try {
+				if (this.mailbox.offer(message, COMMAND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			droppedMessages.incrementAndGet();
+			throw new IllegalStateException("could not deliver " + message + ": the worker did not take a command from its full mailbox");
+		}
+
+		@Override
+		public Message receive() throws InterruptedException {
+
+			Message message = this.deferred.poll();
+			return message != null ? message : this.mailbox.take();
+		}
+
+		@Override
+		public Message receive(Predicate<Message> filter) throws InterruptedException {
+
+			for (Iterator<Message> iterator = this.deferred.iterator(); iterator.hasNext();) {
+
+				Message message = iterator.next();
+				if (filter.test(message)) {
+
+					iterator.remove();
+					return message;
+				}
+			}
+			while (true) {
+
+				Message message = this.mailbox.take();
+				if (filter.test(message)) {
+					return message;
+				}
+				this.deferred.add(message);
+			}
+		}
+
+		@Override
+		public void park() {
+
+			LockSupport.park(this);
+		}
+
+		@Override
+		public void unpark() {
+
+			Thread thread = this.thread;
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		@Override
+		public int getQueueLength() {
+
+			return this.mailbox.size() + this.deferred.size();
+		}
+	}
+
+	private final int mailboxCapacity;
+	private final AtomicLong droppedFrameUpdates;
+	private final AtomicLong droppedMessages;
+
+	public ThreadWorkerRuntime() {
+
+		this(DEFAULT_MAILBOX_CAPACITY);
+	}
+
+	public ThreadWorkerRuntime(int mailboxCapacity) {
+
+		this.mailboxCapacity = mailboxCapacity;
+		this.droppedFrameUpdates = new AtomicLong();
+		this.droppedMessages = new AtomicLong();
+	}
+
+	public static boolean isVirtual() {
+
+		return START_VIRTUAL_THREAD != null;
+	}
+
+	@Override
+	public Context newContext() {
+
+		return new ThreadContext();
+	}
+
+	@Override
+	public String getName() {
+
+		return isVirtual() ? "virtual threads" : "platform threads";
+	}
+
+	/**
+	 * @return frame updates dropped by all workers because their mailbox was full
+	 */
+	public long getDroppedFrameUpdates() {
+
+		return this.droppedFrameUpdates.get();
+	}
+
+	/**
+	 * @return command messages that could not be delivered because a mailbox stayed full of commands
+	 */
+	public long getDroppedMessages() {
+
+		return this.droppedMessages.get();
+	}
+}
@@ -0,0 +1,72 @@
+package org.openbw.tsbw.unit;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Growable array of units that is refilled in place and exposes a read-only list view of its current content.
+ * Clearing keeps the backing array (and its capacity), so refilling in steady state does not allocate.
+ * Not synchronized: readers on other strands rely on the hand-over of the FrameUpdate owning the buffer, which is not refilled while it is retained.
+ */
+/* default */ class UnitBuffer<T> {
+
+	private Object[] elements;
+	private int size;
+	private final List<T> view;
+
+	/* default */ UnitBuffer(int initialCapacity) {
+
+		this.elements = new Object[Math.max(initialCapacity, 1)];
+		this.size = 0;
+		this.view = new View();
+	}
+
+	/* default */ void clear() {
+
+		this.size = 0;
+	}
+
+	/* default */ void add(T element) {
+
+		if (this.size == this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, this.size * 2);
+		}
+		this.elements[this.size] = element;
+		this.size++;
+	}
+
+	/* default */ int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @return an unmodifiable view that always reflects the current content of this buffer
+	 */
+	/* default */ List<T> view() {
+
+		return this.view;
+	}
+
+	private class View extends AbstractList<T> implements RandomAccess {
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+
+			Object[] current = elements;
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+			}
+			return (T)current[index];
+		}
+
+		@Override
+		public int size() {
+
+			return size;
+		}
+	}
+}
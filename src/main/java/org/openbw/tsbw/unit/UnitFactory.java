@@ -3,16 +3,27 @@ package org.openbw.tsbw.unit;
 public class UnitFactory extends org.openbw.bwapi4j.unit.UnitFactory {
 
 	protected WorkerBoard workerBoard;
+	protected WorkerRuntime workerRuntime;
 	
 	public UnitFactory(WorkerBoard workerBoard) {
 		
+		this(workerBoard, new ConflatingWorkerRuntime(new QuasarWorkerRuntime()));
+	}
+	
+	/**
+	 * @param workerRuntime runs the SCV actors, e.g. {@link ThreadWorkerRuntime} instead of Quasar fibers,
+	 * wrapped in a {@link ConflatingWorkerRuntime} to only keep the latest frame update
+	 */
+	public UnitFactory(WorkerBoard workerBoard, WorkerRuntime workerRuntime) {
+		
 		this.workerBoard = workerBoard;
+		this.workerRuntime = workerRuntime;
 	}
 	
 	@Override
 	protected SCV getSCV(int unitId, int timeSpotted) {
 
-		return new SCV(unitId, new WorkerActor(this.workerBoard));
+		return new SCV(unitId, new WorkerActor(this.workerBoard, this.workerRuntime.newContext()));
 	}
 
 
@@ -1,21 +1,24 @@
 package org.openbw.tsbw.unit;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openbw.bwapi4j.Position;
 import org.openbw.bwapi4j.TilePosition;
 import org.openbw.bwapi4j.type.BwError;
-import org.openbw.bwapi4j.type.WeaponType;
 import org.openbw.bwapi4j.unit.Building;
+import org.openbw.bwapi4j.unit.CommandCenter;
 import org.openbw.bwapi4j.unit.Mechanical;
 import org.openbw.bwapi4j.unit.MobileUnit;
 import org.openbw.tsbw.building.ConstructionType;
+import org.openbw.tsbw.metrics.ActorMetrics;
 import org.openbw.tsbw.micro.AttackUnitCommand;
 import org.openbw.tsbw.micro.Command;
+import org.openbw.tsbw.micro.CommandBuffer;
 import org.openbw.tsbw.micro.ConstructCommand;
 import org.openbw.tsbw.micro.GatherGasCommand;
 import org.openbw.tsbw.micro.GatherMineralsCommand;
@@ -25,22 +28,37 @@ import org.openbw.tsbw.micro.RepairCommand;
 import org.openbw.tsbw.micro.ResumeBuildingCommand;
 import org.openbw.tsbw.micro.ScoutCommand;
 
-import co.paralleluniverse.actors.BasicActor;
 import co.paralleluniverse.fibers.SuspendExecution;
-import co.paralleluniverse.strands.Strand;
 
-public class WorkerActor extends BasicActor<Message, Void> {
+/**
+ * The behavior of an SCV, written as a sequential program receiving messages.
+ * The mailbox and the strand it runs on are provided by a {@link WorkerRuntime}: a Quasar fiber or a (virtual) thread.
+ */
+public class WorkerActor {
 
-	private static final long serialVersionUID = 1L;
 	private static final Logger logger = LogManager.getLogger();
 	
+	/**
+	 * Defenders do not follow enemies farther away from the main than this.
+	 */
+	private static final int DEFENSE_LEASH = 192;
+	
+	private final WorkerRuntime.Context context;
 	private SCV scv;
 	private WorkerBoard publicBoard;
+	// the frame update last received; retained as long as its views are used. Released by whoever takes it out: the worker or stop()
+	private final AtomicReference<FrameUpdate> frameUpdate;
 	private List<MobileUnit> attackingEnemies;
 	private List<Building> buildingsToRepair;
 	private boolean alive;
+	// set by the BWAPI thread when the SCV has been destroyed
+	private volatile boolean stopped;
+	private boolean stopReceived;
+	private volatile Building repairTarget;
 	private int wakeUp;
 	private Command nextCommand;
+	// the next command has been handed to the command buffer and waits for the end of the frame
+	private boolean commandSubmitted;
 	private int frame;
 	private int minerals;
 	private int gas;
@@ -49,9 +67,35 @@ public class WorkerActor extends BasicActor<Message, Void> {
 	private boolean available;
 	private boolean lastCommandReturnValue;
 	
-	WorkerActor(WorkerBoard publicBoard) {
+	// patch an SCV gathering gas has been sent to
+	private MineralPatch nextMineralPatch;
+	
+	private volatile int gatherCommandFailures;
+	
+	// pushed by the defense allocator; enlisted is set after the target once the allocator has processed the enlistment
+	private volatile MobileUnit defenseTarget;
+	private volatile boolean enlisted;
+	
+	// frame of the last frame update sent; a frame update received is stale if a newer one has been sent in the meantime
+	private volatile int lastSentFrame;
+	private volatile int staleFrames;
+	
+	private volatile WorkerScheduler scheduler;
+	// what the worker waits for in its next receive; every frame if not set
+	private WorkerScheduler.Wait nextWait;
+	private volatile WorkerScheduler.Wait wait;
+	private WorkerScheduler.Wait miningWait;
+	
+	private volatile ActorMetrics.Recorder recorder;
+	private volatile boolean retired;
+	// the build request being worked on, to measure the delay until the construct command is executed
+	private volatile BuildMessage buildRequest;
+	
+	WorkerActor(WorkerBoard publicBoard, WorkerRuntime.Context context) {
 		
 		this.publicBoard = publicBoard;
+		this.context = context;
+		this.frameUpdate = new AtomicReference<>();
 		this.wakeUp = 0;
 		this.frame = 0;
 		this.minerals = 0;
@@ -83,34 +127,282 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		return this.gathering;
 	}
 	
+	int getGatherCommandFailures() {
+		
+		return this.gatherCommandFailures;
+	}
+	
+	/**
+	 * @return frame updates the worker received after a newer one had already been sent
+	 */
+	int getStaleFrames() {
+		
+		return this.staleFrames;
+	}
+	
+	/**
+	 * @return frame updates replaced by a newer one in a conflating mailbox
+	 */
+	int getDroppedFrames() {
+		
+		return this.context.getDroppedFrames();
+	}
+	
+	void setDefenseTarget(MobileUnit defenseTarget) {
+		
+		this.defenseTarget = defenseTarget;
+	}
+	
+	void onEnlisted() {
+		
+		this.enlisted = true;
+	}
+	
+	void setScheduler(WorkerScheduler scheduler) {
+		
+		this.scheduler = scheduler;
+		this.wait = null;
+	}
+	
+	WorkerScheduler.Wait getWait() {
+		
+		return this.wait;
+	}
+	
+	int getWakeUp() {
+		
+		return this.wakeUp;
+	}
+	
+	/**
+	 * @return where to record the metrics of this actor, or null if they are disabled
+	 */
+	private ActorMetrics.Recorder getRecorder() {
+		
+		ActorMetrics actorMetrics = this.publicBoard == null ? null : this.publicBoard.getActorMetrics();
+		if (actorMetrics == null || !actorMetrics.isEnabled() || this.retired) {
+			return null;
+		}
+		ActorMetrics.Recorder recorder = this.recorder;
+		if (recorder == null || recorder.getMetrics() != actorMetrics) {
+			
+			recorder = actorMetrics.getRecorder(this, String.valueOf(this.scv));
+			this.recorder = recorder;
+			if (this.retired) {
+				
+				// the actor stopped while the recorder was created
+				actorMetrics.removeRecorder(this);
+				return null;
+			}
+		}
+		return recorder;
+	}
+	
+	/**
+	 * Folds the metrics of this actor into the retired ones, so that the recorders of dead actors are not kept.
+	 */
+	private void retireRecorder() {
+		
+		this.retired = true;
+		ActorMetrics actorMetrics = this.publicBoard == null ? null : this.publicBoard.getActorMetrics();
+		if (actorMetrics != null) {
+			actorMetrics.removeRecorder(this);
+		}
+		this.recorder = null;
+	}
+	
+	private void await(WorkerScheduler.Wait wait) {
+		
+		if (wait != this.wait) {
+			
+			this.wait = wait;
+			WorkerScheduler scheduler = this.scheduler;
+			if (scheduler != null) {
+				scheduler.onWaitChanged(this.scv);
+			}
+		}
+	}
+	
 	void onFrame(FrameUpdate frameUpdate) {
 		
 		this.frame = frameUpdate.getFrame();
+		this.lastSentFrame = this.frame;
 		if (frame >= this.wakeUp) {
 			
-			if (this.nextCommand != null) {
-				
-				this.lastCommandReturnValue = this.nextCommand.execute();
-				if (this.lastCommandReturnValue) { // TODO this is not guaranteed to return the error related to the command
+			Command command = this.nextCommand;
+			if (command != null && !this.commandSubmitted) {
 				
-					this.wakeUp = frame + this.nextCommand.getDelay();
+				CommandBuffer commandBuffer = this.publicBoard == null ? null : this.publicBoard.getCommandBuffer();
+				if (commandBuffer == null) {
+					onExecuted(command, command.execute());
 				} else {
-					BwError error = this.publicBoard.getInteractionHandler().getLastError();
-					logger.warn("{} failed with error probably being {}", this.nextCommand, error);
+					
+					this.commandSubmitted = true;
+					commandBuffer.submit(command, success -> onExecuted(command, success));
 				}
-				logger.trace("frame {}: {} executed {} ({})", frame, this.scv, this.nextCommand, this.lastCommandReturnValue ? "success" : "failed");
+			}
+		}
+		ActorMetrics.Recorder recorder = getRecorder();
+		if (recorder != null) {
+			recorder.onFrameUpdateSent(this.context.getQueueLength());
+		}
+		// released when the actor receives the next frame update
+		frameUpdate.retain();
+		this.context.send(frameUpdate);
+	}
+	
+	private void onExecuted(Command command, boolean success) {
+		
+		this.lastCommandReturnValue = success;
+		if (success) {
+			
+			this.wakeUp = this.frame + command.getDelay();
+		} else {
+			
+			// the last error belongs to this command if it was executed by the command buffer right before
+			BwError error = this.publicBoard.getInteractionHandler().getLastError();
+			logger.warn("{} failed with error probably being {}", command, error);
+		}
+		logger.trace("frame {}: {} executed {} ({})", this.frame, this.scv, command, success ? "success" : "failed");
+		
+		ActorMetrics.Recorder recorder = getRecorder();
+		if (recorder != null) {
+			
+			recorder.onCommandExecuted(success);
+			BuildMessage buildRequest = this.buildRequest;
+			if (success && command instanceof ConstructCommand && buildRequest != null && buildRequest.getSentNanos() != 0) {
 				
-				this.nextCommand = null;
-				Strand.unpark(this.getStrand());
+				recorder.onBuildExecuted(buildRequest.getSentNanos(), buildRequest.getSentFrame(), this.frame);
+				this.buildRequest = null;
 			}
 		}
-		this.sendOrInterrupt(frameUpdate);
+		
+		this.commandSubmitted = false;
+		if (this.nextCommand == command) {
+			this.nextCommand = null;
+		}
+		this.context.unpark();
+	}
+	
+	void sendOrInterrupt(Message message) {
+		
+		if (message instanceof BuildMessage && getRecorder() != null) {
+			((BuildMessage)message).setSent(System.nanoTime(), this.frame);
+		}
+		this.context.send(message);
+	}
+	
+	void spawn() {
+		
+		this.context.start(this);
+	}
+	
+	/**
+	 * Called by the BWAPI thread when the SCV has been destroyed and no frame updates are delivered to it any more.
+	 * Releases the repair slot, the defense, the frame update held and the metrics recorder, then makes the worker leave its main loop:
+	 * whatever it claims until it receives the stop message is released by the worker itself on the way out.
+	 */
+	void stop() {
+		
+		this.stopped = true;
+		Building repairTarget = this.repairTarget;
+		if (repairTarget != null) {
+			this.publicBoard.removeRepair(repairTarget, this.scv);
+		}
+		DefenseAllocator defenseAllocator = this.publicBoard == null ? null : this.publicBoard.getDefenseAllocator();
+		if (defenseAllocator != null) {
+			defenseAllocator.dismiss(this.scv);
+		}
+		FrameUpdate held = this.frameUpdate.getAndSet(null);
+		if (held != null) {
+			held.release();
+		}
+		retireRecorder();
+		try {
+			this.context.send(new StopMessage());
+		} catch (IllegalStateException e) {
+			
+			// its claims are released already: only the strand is left behind
+			logger.error("{} could not be told to stop: {}", this.scv, e.getMessage());
+		}
+		// a worker parked on a command that will never be executed
+		this.context.unpark();
+	}
+	
+	private Message receive() throws InterruptedException, SuspendExecution {
+		
+		awaitNext();
+		return received(this.context.receive());
+	}
+	
+	private Message receive(Predicate<Message> filter) throws InterruptedException, SuspendExecution {
+		
+		awaitNext();
+		return received(this.context.receive(m -> m instanceof StopMessage || filter.test(m)));
+	}
+	
+	private Message received(Message message) {
+		
+		ActorMetrics.Recorder recorder = getRecorder();
+		if (recorder != null) {
+			recorder.onMessageReceived(message instanceof FrameUpdate);
+		}
+		if (message instanceof FrameUpdate) {
+			
+			hold((FrameUpdate)message);
+		} else if (message instanceof StopMessage) {
+			
+			this.stopReceived = true;
+			this.alive = false;
+		}
+		return message;
+	}
+	
+	private void hold(FrameUpdate frameUpdate) {
+		
+		if (frameUpdate != null && this.stopped) {
+			
+			// queued before the SCV was destroyed: nothing to work with any more
+			frameUpdate.release();
+			frameUpdate = null;
+		}
+		FrameUpdate previous = this.frameUpdate.getAndSet(frameUpdate);
+		if (previous != null) {
+			previous.release();
+		}
+		if (frameUpdate != null) {
+			
+			this.attackingEnemies = frameUpdate.getAttackingUnits();
+			this.buildingsToRepair = frameUpdate.getBuildingsToRepair();
+		} else {
+			
+			this.attackingEnemies = Collections.emptyList();
+			this.buildingsToRepair = Collections.emptyList();
+		}
+	}
+	
+	private void awaitNext() {
+		
+		await(this.nextWait != null ? this.nextWait : WorkerScheduler.Wait.EVERY_FRAME);
+		this.nextWait = null;
 	}
 
 	private boolean execute(Command command) throws InterruptedException, SuspendExecution {
 		
+		if (this.stopped) {
+			return false;
+		}
 		this.nextCommand = command;
-		Strand.park();
+		await(WorkerScheduler.Wait.COMMAND);
+		ActorMetrics.Recorder recorder = getRecorder();
+		if (recorder == null) {
+			this.context.park();
+		} else {
+			
+			recorder.beginPark();
+			this.context.park();
+			recorder.endPark(command, this.lastCommandReturnValue);
+		}
 		return this.lastCommandReturnValue;
 	}
 	
@@ -120,6 +412,7 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		execute(new ScoutCommand(this.scv, this.publicBoard.getMyInventory()));
 		while(this.alive) {
 			
+			this.nextWait = WorkerScheduler.Wait.HEARTBEAT;
 			Message message = receive();
 			if (!(message instanceof FrameUpdate)) {
 				
@@ -132,76 +425,77 @@ public class WorkerActor extends BasicActor<Message, Void> {
 	
 	protected void defending() throws InterruptedException, SuspendExecution {
 		
+		DefenseAllocator defenseAllocator = this.publicBoard.getDefenseAllocator();
+		if (defenseAllocator == null) {
+			return;
+		}
 		this.available = false;
 		logger.trace("frame {}: {} is defending.", frame, this.scv);
 		
-		while (!this.attackingEnemies.isEmpty() && this.alive) {
+		// the allocator assigns an enemy with one of the next frames
+		this.defenseTarget = null;
+		this.enlisted = false;
+		defenseAllocator.enlist(this.scv);
+		MobileUnit enemyToAttack = null;
+		while (!this.attackingEnemies.isEmpty() && this.alive && isWithinLeash()) {
 			
-			MobileUnit enemyToAttack = null;
-			for (MobileUnit enemy : this.publicBoard.getAttackers().keySet()) {
+			Message message = receive();
+			if (message instanceof FrameUpdate) {
 				
-				Set<SCV> currentDefenders = this.publicBoard.getAttackers().get(enemy);
-				double combinedHitPoints = currentDefenders.stream().mapToInt(s -> s.getHitPoints()).sum();
+				update((FrameUpdate)message);
 				
-				if (combinedHitPoints * WeaponType.Fusion_Cutter.damageAmount() / WeaponType.Fusion_Cutter.damageCooldown() < 
-						enemy.getHitPoints() * enemy.getGroundWeapon().damageAmount() / enemy.getGroundWeapon().damageCooldown()) {
+				// the acknowledgement first: if it is set, the target read after it is the one assigned
+				boolean processed = this.enlisted;
+				MobileUnit target = this.defenseTarget;
+				if (target == null && processed) {
 					
-					enemyToAttack = enemy;
+					// no enemy that can be fought
 					break;
 				}
-			}
-			if (enemyToAttack == null) {
-				
-				enemyToAttack = this.attackingEnemies.stream().filter(e -> e.getGroundWeapon() != WeaponType.None).min((e1, e2) -> Integer.compare(
-		        		e1.getHitPoints(), 
-		        		e2.getHitPoints())).get();
-			}
-			
-			Set<SCV> currentDefenders = this.publicBoard.getAttackers().get(enemyToAttack);
-			if (currentDefenders == null) {
-				
-				currentDefenders = new HashSet<>();
-				this.publicBoard.getAttackers().put(enemyToAttack, currentDefenders);
-			}
-			currentDefenders.add(this.scv);
-			
-			this.nextCommand = new AttackUnitCommand(this.scv, enemyToAttack);
-			while (enemyToAttack.exists() && this.scv.getDistance(this.publicBoard.getMyInventory().getMain()) < 192 && this.alive) {
-				
-				Message message = receive();
-				if (message instanceof FrameUpdate) {
+				if (target != null && target != enemyToAttack) {
 					
-					update((FrameUpdate)message);
+					enemyToAttack = target;
+					this.nextCommand = new AttackUnitCommand(this.scv, enemyToAttack);
+				}
+				
+				for (Building toRepair : this.buildingsToRepair) {
 					
-					for (Building toRepair : this.buildingsToRepair) {
-						
-						if (this.publicBoard.addRepair(toRepair, this.scv)) {
-							
-							repairing(toRepair);
-							break;
-						}
+					if (this.publicBoard.addRepair(toRepair, this.scv)) {
 						
+						repairing(toRepair);
+						break;
 					}
-				} else if (message instanceof BuildMessage) {
 					
-					logger.warn("frame {}: {} received build request but am defending.", this.frame, this.scv);
 				}
+			} else if (message instanceof BuildMessage) {
 				
-				this.alive &= this.scv.exists();
+				logger.warn("frame {}: {} received build request but am defending.", this.frame, this.scv);
 			}
 			
-			currentDefenders.remove(this.scv);
+			this.alive &= this.scv.exists();
 		}
+		defenseAllocator.dismiss(this.scv);
 		this.available = true;
 	}
 	
+	/**
+	 * @return true if the SCV is close enough to the main to defend it
+	 */
+	private boolean isWithinLeash() {
+		
+		CommandCenter main = this.publicBoard.getMyInventory().getMain();
+		return main == null || this.scv.getDistance(main) < DEFENSE_LEASH;
+	}
+	
 	protected void waitForResources(int requiredMinerals, int requiredGas) throws InterruptedException, SuspendExecution {
 		
 		logger.trace("frame {}: {} waiting for resources: {} minerals and {} gas (currently at {} and {}).", this.frame, this.scv, 
 				requiredMinerals, requiredGas, this.minerals, this.gas);
 		
+		WorkerScheduler.Wait resourcesWait = WorkerScheduler.Wait.resources(requiredMinerals, requiredGas);
 		while (this.alive && (this.minerals < requiredMinerals || this.gas < requiredGas)) {
 			
+			this.nextWait = resourcesWait;
 			Message message = receive();
 			if (message instanceof FrameUpdate) {
 				
@@ -237,6 +531,13 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		this.available = true;
 	}
 	
+	private void build(BuildMessage buildMessage) throws InterruptedException, SuspendExecution {
+		
+		this.buildRequest = buildMessage;
+		constructing(buildMessage.getConstructionSite(), buildMessage.getType());
+		this.buildRequest = null;
+	}
+	
 	protected void constructing(TilePosition constructionSite, ConstructionType type) throws InterruptedException, SuspendExecution {
 		
 		logger.trace("frame {}: {} constructing {} at {}.", this.frame, this.scv, type, constructionSite);
@@ -310,6 +611,7 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		boolean done = false;
 		while (!done && this.alive && refinery.exists()) {
 			
+			this.nextWait = WorkerScheduler.Wait.HEARTBEAT;
 			Message message = receive();
 			if (message instanceof FrameUpdate) {
 				
@@ -320,11 +622,16 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			} else if (message instanceof ScoutMessage) {
 				
 				logger.warn("frame {}: {} received scout request although I am gathering gas.", this.frame, this.scv);
+			} else if (message instanceof GatherMineralsMessage) {
+				
+				this.nextMineralPatch = ((GatherMineralsMessage) message).getMineralPatch();
+				done = true;
 			}
 			
 			this.alive &= this.scv.exists();
 		}
 		
+		this.scv.releaseRefinery();
 		logger.trace("frame {}: {} stopped gathering gas from {}.", this.frame, this.scv, refinery);
 		this.available = true;
 	}
@@ -347,8 +654,7 @@ public class WorkerActor extends BasicActor<Message, Void> {
 				}
 			} else if (message instanceof BuildMessage) {
 				
-				BuildMessage bm = (BuildMessage) message;
-				constructing(bm.getConstructionSite(), bm.getType());
+				build((BuildMessage) message);
 			} else if (message instanceof ScoutMessage) {
 				
 				scouting();
@@ -362,6 +668,7 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		
 		logger.info("BUNKER NEEDS REPAIR");
 		
+		this.repairTarget = toRepair;
 		execute(new RepairCommand(this.scv, (Mechanical)toRepair));
 		while (toRepair.exists() && toRepair.getHitPoints() < toRepair.maxHitPoints() && this.alive) {
 			
@@ -369,6 +676,8 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			
 			this.alive &= this.scv.exists();
 		}
+		this.publicBoard.removeRepair(toRepair, this.scv);
+		this.repairTarget = null;
 	}
 	
 	protected void gathering(MineralPatch mineralPatch) throws InterruptedException, SuspendExecution {
@@ -387,6 +696,14 @@ public class WorkerActor extends BasicActor<Message, Void> {
 		boolean done = false;
 		while (!done && this.alive) {
 			
+			if (success) {
+				
+				// mining on its own: only woken for attacks, repairs and the patch running out
+				if (this.miningWait == null || this.miningWait.getPatch() != myPatch) {
+					this.miningWait = WorkerScheduler.Wait.events(myPatch);
+				}
+				this.nextWait = this.miningWait;
+			}
 			Message message = receive();
 			if (message instanceof FrameUpdate) {
 				
@@ -397,7 +714,7 @@ public class WorkerActor extends BasicActor<Message, Void> {
 					if (this.publicBoard.addRepair(toRepair, this.scv)) {
 						
 						this.gathering = false;
-						myPatch.removeScv();
+						this.scv.releaseMineralPatch();
 						repairing(toRepair);
 						this.gathering = true;
 						success = false;
@@ -405,20 +722,21 @@ public class WorkerActor extends BasicActor<Message, Void> {
 					}
 				}
 				
-				if (!this.attackingEnemies.isEmpty()) {
+				if (!this.attackingEnemies.isEmpty() && isWithinLeash()) {
 					
 					this.gathering = false;
-					myPatch.removeScv();
+					this.scv.releaseMineralPatch();
 					defending();
 					this.gathering = true;
 					success = false;
 				}
 				if (!success) {
 					
-					myPatch.addScv();
+					this.scv.assignMineralPatch(myPatch);
 					success = execute(new GatherMineralsCommand(this.scv, myPatch));
 					if (!success) {
 						logger.error("frame {}: gather command failed for {}.", this.frame, this.scv);
+						this.gatherCommandFailures++;
 					} else {
 						
 						this.gathering = true;
@@ -430,9 +748,15 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			} else if (message instanceof GatherGasMessage) {
 				
 				gathering(((GatherGasMessage) message).getRefinery());
+				if (this.nextMineralPatch != null) {
+					
+					myPatch = this.nextMineralPatch;
+					this.nextMineralPatch = null;
+				}
+				success = false;
 			} else if (message instanceof GatherMineralsMessage) {
 				
-				myPatch.removeScv();
+				// the SCV has already been counted at the new patch by the sender
 				myPatch = ((GatherMineralsMessage) message).getMineralPatch();
 				if (!myPatch.isVisible() || !myPatch.exists()) {
 					moveTo(myPatch.getPosition());
@@ -441,15 +765,14 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			} else if (message instanceof BuildMessage) {
 				
 				this.gathering = false;
-				myPatch.removeScv();
-				BuildMessage bm = (BuildMessage) message;
-				constructing(bm.getConstructionSite(), bm.getType());
+				this.scv.releaseMineralPatch();
+				build((BuildMessage) message);
 				success = false;
 			} else if (message instanceof ResumeBuildingMessage) {
 				
 				ResumeBuildingMessage bm = (ResumeBuildingMessage) message;
 				this.gathering = false;
-				myPatch.removeScv();
+				this.scv.releaseMineralPatch();
 				resumeBuilding(bm.getConstruction());
 				success = false;
 			} else if (message instanceof ScoutMessage) {
@@ -461,25 +784,24 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			this.alive &= this.scv.exists();
 		}
 		
-		if (this.gathering) {
-			
-			myPatch.removeScv();
-		}
+		this.scv.releaseMineralPatch();
 		this.gathering = false;
 	}
 	
 	private void update(FrameUpdate frameUpdate) {
 		
 		this.frame = frameUpdate.getFrame();
+		if (this.frame < this.lastSentFrame) {
+			this.staleFrames++;
+		}
 		this.minerals = frameUpdate.getMinerals();
 		this.gas = frameUpdate.getGas();
-		
-		this.attackingEnemies = frameUpdate.getAttackingUnits();
-		this.buildingsToRepair = frameUpdate.getBuildingsToRepair();
 	}
 	
-	@Override
-	protected Void doRun() throws InterruptedException, SuspendExecution {
+	/**
+	 * The main loop of the worker. Is run by the runtime on the strand of the worker.
+	 */
+	/* default */ void doRun() throws InterruptedException, SuspendExecution {
 		
 		logger.trace("frame {}: {} doRun()", this.frame, this.scv);
 		this.alive = true;
@@ -490,14 +812,24 @@ public class WorkerActor extends BasicActor<Message, Void> {
 			if (message instanceof FrameUpdate) {
 				
 				update((FrameUpdate)message);
-				gathering(this.publicBoard.getMyInventory().getMineralPatches().first());
+				gathering(this.scv.getMineralPatchQueue().peek());
 			}
 			
 			this.alive &= this.scv.exists();
 		}
 		
+		hold(null);
+		// frame updates sent before the SCV was destroyed are queued in front of the stop message
+		while (this.stopped && !this.stopReceived) {
+			
+			Message message = this.context.receive();
+			if (message instanceof FrameUpdate) {
+				((FrameUpdate)message).release();
+			} else if (message instanceof StopMessage) {
+				this.stopReceived = true;
+			}
+		}
+		retireRecorder();
 		logger.trace("frame {}: {} died ({} hitpoints left).", this.frame, this.scv, this.scv.getHitPoints());
-		
-		return null;
 	}
 }
@@ -1,74 +1,240 @@
 package org.openbw.tsbw.unit;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.openbw.bwapi4j.InteractionHandler;
 import org.openbw.bwapi4j.unit.Building;
-import org.openbw.bwapi4j.unit.Mechanical;
 import org.openbw.bwapi4j.unit.MobileUnit;
 import org.openbw.tsbw.MapAnalyzer;
 import org.openbw.tsbw.UnitInventory;
+import org.openbw.tsbw.metrics.ActorMetrics;
+import org.openbw.tsbw.micro.CommandBuffer;
 import org.openbw.tsbw.strategy.ScoutingStrategy;
 
-import co.paralleluniverse.strands.concurrent.ReentrantLock;
-
+/**
+ * State shared by all worker actors: who defends against which enemy, who repairs which building, and the scout token.
+ * Actors run concurrently on their own strands, so all shared state is kept in lock-free structures: claims are compare-and-set operations
+ * and nothing blocks a strand. The defenders of an enemy are only counted (number and combined hit points) instead of being kept in a set.
+ */
 public class WorkerBoard {
 
-	private final ReentrantLock lock;
-	private final ReentrantLock repairLock;
-	private boolean token;
+	/**
+	 * SCVs repairing the same building at most.
+	 */
+	public static final int MAX_REPAIRERS = 2;
+
+	// state of a defense entry: count in the upper, combined hit points in the lower 32 bits; both are decoded and updated separately,
+	// so hit points never borrow from the count
+	private static final long DEFENSE_RELEASED = -1L;
+
+	private static class Defense {
+
+		private final AtomicLong state = new AtomicLong();
+
+		/**
+		 * @return false if the entry has been released by its last defender and must be replaced
+		 */
+		private boolean add(int defenders, int hitPoints) {
+
+			while (true) {
+
+				long state = this.state.get();
+				if (state == DEFENSE_RELEASED) {
+					return false;
+				}
+				long next = encode(count(state) + defenders, hitPoints(state) + hitPoints);
+				if (this.state.compareAndSet(state, next)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * @return true if this was the last defender: the entry has been released
+		 */
+		private boolean remove(int hitPoints) {
+
+			while (true) {
+
+				long state = this.state.get();
+				int count = count(state);
+				long next = count <= 1 ? DEFENSE_RELEASED : encode(count - 1, hitPoints(state) - hitPoints);
+				if (this.state.compareAndSet(state, next)) {
+					return next == DEFENSE_RELEASED;
+				}
+			}
+		}
+
+		private int getDefenders() {
+
+			long state = this.state.get();
+			return state == DEFENSE_RELEASED ? 0 : count(state);
+		}
+
+		private int getHitPoints() {
+
+			long state = this.state.get();
+			return state == DEFENSE_RELEASED ? 0 : hitPoints(state);
+		}
+
+		private static int count(long state) {
+
+			return (int)(state >>> 32);
+		}
+
+		private static int hitPoints(long state) {
+
+			return (int)state;
+		}
+
+		/**
+		 * Hit points are clamped to zero, e.g. if a defender leaves with more hit points than were added for it.
+		 */
+		private static long encode(int count, int hitPoints) {
+
+			return ((long)count << 32) | Math.max(hitPoints, 0);
+		}
+	}
+
+	private final AtomicBoolean token;
 	
 	private UnitInventory myInventory;
 	private MapAnalyzer mapAnalyzer;
 	private InteractionHandler interactionHandler;
 	private ScoutingStrategy scoutingStrategy;
+	private CommandBuffer commandBuffer;
+	private DefenseAllocator defenseAllocator;
+	private ActorMetrics actorMetrics;
 	
-	private Map<MobileUnit, Set<SCV>> attackers;
-	private Map<Building, Set<SCV>> repairs;
+	private final ConcurrentHashMap<MobileUnit, Defense> defenses;
+	private final ConcurrentHashMap<Building, AtomicReferenceArray<SCV>> repairs;
 	
 	public WorkerBoard() {
 
-		this.lock = new ReentrantLock();
-		this.repairLock = new ReentrantLock();
-		this.token = false;
-		this.attackers = new HashMap<>();
-		this.repairs = new HashMap<>();
+		this.token = new AtomicBoolean(false);
+		this.defenses = new ConcurrentHashMap<>();
+		this.repairs = new ConcurrentHashMap<>();
 	}
 	
-	Map<MobileUnit, Set<SCV>> getAttackers() {
+	/**
+	 * @return enemies that have at least one defender (weakly consistent view)
+	 */
+	Set<MobileUnit> getDefendedEnemies() {
 	
-		return this.attackers;
+		return this.defenses.keySet();
 	}
 	
-	boolean addRepair(Building mechanical, SCV worker) {
+	int getDefenderCount(MobileUnit enemy) {
 		
-		this.repairLock.lock();
+		Defense defense = this.defenses.get(enemy);
+		return defense == null ? 0 : defense.getDefenders();
+	}
+	
+	/**
+	 * @return combined hit points of the defenders of the enemy
+	 */
+	int getDefenderHitPoints(MobileUnit enemy) {
 		
-		boolean repairNeeded = false;
+		Defense defense = this.defenses.get(enemy);
+		return defense == null ? 0 : defense.getHitPoints();
+	}
+	
+	void addDefender(MobileUnit enemy, int hitPoints) {
 		
-		Set<SCV> repairWorkers = this.repairs.get(mechanical);
-		if (repairWorkers == null) {
+		while (true) {
 			
-			repairWorkers = new HashSet<>();
-			this.repairs.put(mechanical, repairWorkers);
+			Defense defense = this.defenses.get(enemy);
+			if (defense == null) {
+				
+				Defense created = new Defense();
+				defense = this.defenses.putIfAbsent(enemy, created);
+				if (defense == null) {
+					defense = created;
+				}
+			}
+			if (defense.add(1, hitPoints)) {
+				return;
+			}
+			// released by its last defender in the meantime
+			this.defenses.remove(enemy, defense);
 		}
-		if (repairWorkers.size() < 2) {
-			
-			repairWorkers.add(worker);
-			repairNeeded = true;
+	}
+	
+	/**
+	 * Updates the combined hit points of the defenders of the enemy after a defender took damage.
+	 */
+	void changeDefenderHitPoints(MobileUnit enemy, int delta) {
+		
+		Defense defense = this.defenses.get(enemy);
+		if (defense != null) {
+			defense.add(0, delta);
 		}
+	}
+	
+	void removeDefender(MobileUnit enemy, int hitPoints) {
 		
-		this.repairLock.unlock();
+		Defense defense = this.defenses.get(enemy);
+		if (defense != null && defense.remove(hitPoints)) {
+			this.defenses.remove(enemy, defense);
+		}
+	}
+	
+	/**
+	 * Claims one of the repair slots of the building.
+	 * @return true if the worker repairs the building now; false if it already has enough repairers
+	 */
+	boolean addRepair(Building building, SCV worker) {
+		
+		AtomicReferenceArray<SCV> slots = this.repairs.get(building);
+		if (slots == null) {
+			
+			AtomicReferenceArray<SCV> created = new AtomicReferenceArray<>(MAX_REPAIRERS);
+			slots = this.repairs.putIfAbsent(building, created);
+			if (slots == null) {
+				slots = created;
+			}
+		}
+		for (int i = 0; i < MAX_REPAIRERS; i++) {
+			
+			if (slots.get(i) == worker) {
+				return true;
+			}
+		}
+		for (int i = 0; i < MAX_REPAIRERS; i++) {
+			
+			if (slots.compareAndSet(i, null, worker)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	void removeRepair(Building building, SCV worker) {
 		
-		return repairNeeded;
+		AtomicReferenceArray<SCV> slots = this.repairs.get(building);
+		if (slots != null) {
+			
+			for (int i = 0; i < MAX_REPAIRERS; i++) {
+				slots.compareAndSet(i, worker, null);
+			}
+		}
 	}
 	
-	void removeRepair(Mechanical mechanical, SCV worker) {
+	int getRepairerCount(Building building) {
 		
-		this.repairs.get(mechanical).remove(worker);
+		AtomicReferenceArray<SCV> slots = this.repairs.get(building);
+		int count = 0;
+		for (int i = 0; slots != null && i < MAX_REPAIRERS; i++) {
+			
+			if (slots.get(i) != null) {
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	MapAnalyzer getMapAnalyzer() {
@@ -91,37 +257,53 @@ public class WorkerBoard {
 		return this.scoutingStrategy;
 	}
 	
-	boolean reserveToken() {
+	/**
+	 * @return the buffer the workers hand their commands to, or null to execute them right away
+	 */
+	CommandBuffer getCommandBuffer() {
+		
+		return this.commandBuffer;
+	}
+	
+	public void setCommandBuffer(CommandBuffer commandBuffer) {
 		
-		boolean success;
+		this.commandBuffer = commandBuffer;
+	}
+	
+	/**
+	 * @return the allocator assigning defending workers to enemies, or null if workers do not defend
+	 */
+	DefenseAllocator getDefenseAllocator() {
 		
-		try {
-			this.lock.lock();
-			
-			if (this.token) {
-				success = false;
-			} else {
-				this.token = true;
-				success = true;
-			}
-			
-		} finally {
-			this.lock.unlock();
-		}
+		return this.defenseAllocator;
+	}
+	
+	public void setDefenseAllocator(DefenseAllocator defenseAllocator) {
+		
+		this.defenseAllocator = defenseAllocator;
+	}
+	
+	/**
+	 * @return the metrics the workers record into, or null if they are not instrumented
+	 */
+	ActorMetrics getActorMetrics() {
+		
+		return this.actorMetrics;
+	}
+	
+	public void setActorMetrics(ActorMetrics actorMetrics) {
 		
-		return success;
+		this.actorMetrics = actorMetrics;
+	}
+	
+	boolean reserveToken() {
+		
+		return this.token.compareAndSet(false, true);
 	}
 	
 	void releaseToken() {
 		
-		try {
-			this.lock.lock();
-			
-			this.token = false;
-			
-		} finally {
-			this.lock.unlock();
-		}
+		this.token.set(false);
 	}
 
 	public void initialize(MapAnalyzer mapAnalyzer, UnitInventory myInventory, InteractionHandler interactionHandler,
@@ -131,6 +313,9 @@ public class WorkerBoard {
 		this.myInventory = myInventory;
 		this.interactionHandler = interactionHandler;
 		this.scoutingStrategy = scoutingStrategy;
+		this.token.set(false);
+		this.defenses.clear();
+		this.repairs.clear();
 	}
 	
 }
@@ -0,0 +1,60 @@
+package org.openbw.tsbw.unit;
+
+import java.util.function.Predicate;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+
+/**
+ * Provides the mailbox and the strand a {@link WorkerActor} runs on.
+ * Every worker gets its own context; the context is used by the BWAPI thread to send messages and by the worker to receive them.
+ */
+public interface WorkerRuntime {
+
+	/**
+	 * The mailbox and strand of one worker.
+	 */
+	interface Context {
+
+		/**
+		 * Starts running the worker on its own strand.
+		 */
+		void start(WorkerActor worker);
+
+		/**
+		 * Sends a message to the worker. Never blocks on frame updates, which may be dropped; command messages are never dropped,
+		 * so a runtime with bounded mailboxes may block on them while the mailbox is full.
+		 */
+		void send(Message message);
+
+		/**
+		 * Blocks until the next message arrives.
+		 */
+		Message receive() throws InterruptedException, SuspendExecution;
+
+		/**
+		 * Blocks until a message matching the filter arrives. Messages not matching stay in the mailbox in their order.
+		 */
+		Message receive(Predicate<Message> filter) throws InterruptedException, SuspendExecution;
+
+		/**
+		 * Parks the worker until it is unparked. May return spuriously.
+		 */
+		void park() throws SuspendExecution;
+
+		void unpark();
+
+		int getQueueLength();
+
+		/**
+		 * @return frame updates replaced by a newer one before the worker received them
+		 */
+		default int getDroppedFrames() {
+
+			return 0;
+		}
+	}
+
+	Context newContext();
+
+	String getName();
+}
@@ -0,0 +1,344 @@
+package org.openbw.tsbw.unit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Delivers frame updates only to the SCVs that need them. Before waiting for the next frame, a worker actor declares what it waits for:
+ * every frame, the frame its pending command can be executed at, or events (enemies attacking, buildings to repair, its mineral patch mined out,
+ * enough resources). Workers waiting for events still get a frame every {@link #HEARTBEAT_FRAMES} frames to notice their death.
+ * Command messages (build, gather, scout) are sent to the actors directly and are not affected.
+ * Timed waits are kept in a timer wheel; entries are removed lazily when a worker changes its wait.
+ * The declarations are handed over from the actors in a concurrent queue; everything else is only accessed by the BWAPI thread.
+ */
+public class WorkerScheduler {
+
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * Frames between two frame updates to a worker waiting for events.
+	 */
+	public static final int HEARTBEAT_FRAMES = 24;
+
+	// a power of two larger than the usual wait
+	private static final int WHEEL_SIZE = 64;
+
+	/**
+	 * What a worker waits for. Instances are compared by identity: a worker re-declaring the same instance does not need to be rescheduled.
+	 */
+	/* default */ static final class Wait {
+
+		private enum Type { EVERY_FRAME, COMMAND, EVENTS, RESOURCES }
+
+		/* default */ static final Wait EVERY_FRAME = new Wait(Type.EVERY_FRAME, false, null, 0, 0);
+		/* default */ static final Wait COMMAND = new Wait(Type.COMMAND, false, null, 0, 0);
+		/* default */ static final Wait HEARTBEAT = new Wait(Type.EVENTS, false, null, 0, 0);
+
+		private final Type type;
+		private final boolean attacks;
+		private final MineralPatch patch;
+		private final int minerals;
+		private final int gas;
+
+		private Wait(Type type, boolean attacks, MineralPatch patch, int minerals, int gas) {
+
+			this.type = type;
+			this.attacks = attacks;
+			this.patch = patch;
+			this.minerals = minerals;
+			this.gas = gas;
+		}
+
+		/**
+		 * Waits until enemies attack, a building needs repair or the patch is mined out.
+		 */
+		/* default */ static Wait events(MineralPatch patch) {
+
+			return new Wait(Type.EVENTS, true, patch, 0, 0);
+		}
+
+		/* default */ static Wait resources(int minerals, int gas) {
+
+			return new Wait(Type.RESOURCES, false, null, minerals, gas);
+		}
+
+		/* default */ MineralPatch getPatch() {
+
+			return this.patch;
+		}
+	}
+
+	private static class Entry {
+
+		private final SCV scv;
+		private Wait wait;
+		private int dueFrame;
+		private int deliveredFrame;
+		private boolean removed;
+
+		private Entry(SCV scv) {
+
+			this.scv = scv;
+			this.dueFrame = -1;
+			this.deliveredFrame = -1;
+		}
+	}
+
+	private final Map<SCV, Entry> entries;
+	private final ConcurrentLinkedQueue<SCV> changed;
+	private final List<Entry>[] wheel;
+
+	private final Set<Entry> everyFrame;
+	private final Set<Entry> attackWatchers;
+	private final Map<MineralPatch, Set<Entry>> patchWatchers;
+	private final Set<Entry> resourceWatchers;
+	private final List<Entry> due;
+
+	private int frame;
+	private long deliveries;
+	private long skipped;
+
+	@SuppressWarnings("unchecked")
+	public WorkerScheduler() {
+
+		this.entries = new IdentityHashMap<>();
+		this.changed = new ConcurrentLinkedQueue<>();
+		this.wheel = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			this.wheel[i] = new ArrayList<>();
+		}
+		this.everyFrame = Collections.newSetFromMap(new IdentityHashMap<>());
+		this.attackWatchers = Collections.newSetFromMap(new IdentityHashMap<>());
+		this.patchWatchers = new IdentityHashMap<>();
+		this.resourceWatchers = Collections.newSetFromMap(new IdentityHashMap<>());
+		this.due = new ArrayList<>();
+		this.frame = 0;
+	}
+
+	public void clear() {
+
+		for (SCV scv : this.entries.keySet()) {
+			scv.setScheduler(null);
+		}
+		this.entries.clear();
+		this.changed.clear();
+		for (List<Entry> slot : this.wheel) {
+			slot.clear();
+		}
+		this.everyFrame.clear();
+		this.attackWatchers.clear();
+		this.patchWatchers.clear();
+		this.resourceWatchers.clear();
+		this.deliveries = 0;
+		this.skipped = 0;
+	}
+
+	/**
+	 * Adds an SCV. It receives every frame until it declares otherwise.
+	 */
+	public void add(SCV scv) {
+
+		if (this.entries.containsKey(scv)) {
+			return;
+		}
+		Entry entry = new Entry(scv);
+		this.entries.put(scv, entry);
+		place(entry, Wait.EVERY_FRAME);
+		scv.setScheduler(this);
+	}
+
+	/**
+	 * Stops delivering frame updates to the SCV. A destroyed SCV must also be stopped with {@link SCV#onDestroy()}.
+	 */
+	public void remove(SCV scv) {
+
+		Entry entry = this.entries.remove(scv);
+		if (entry != null) {
+
+			entry.removed = true;
+			unplace(entry);
+			scv.setScheduler(null);
+		}
+	}
+
+	/**
+	 * Called by a worker actor when it declares a different wait. May be called from any thread.
+	 */
+	/* default */ void onWaitChanged(SCV scv) {
+
+		this.changed.add(scv);
+	}
+
+	/**
+	 * Delivers the frame update to every SCV that is due or whose watched condition holds.
+	 */
+	public void onFrame(FrameUpdate frameUpdate) {
+
+		this.frame = frameUpdate.getFrame();
+		for (SCV scv = this.changed.poll(); scv != null; scv = this.changed.poll()) {
+
+			Entry entry = this.entries.get(scv);
+			Wait wait = scv.getWait();
+			if (entry != null && wait != null && wait != entry.wait) {
+
+				unplace(entry);
+				place(entry, wait);
+			}
+		}
+
+		this.due.addAll(this.everyFrame);
+		List<Entry> slot = this.wheel[this.frame & (WHEEL_SIZE - 1)];
+		for (int i = slot.size() - 1; i >= 0; i--) {
+
+			Entry entry = slot.get(i);
+			if (entry.removed || entry.dueFrame <= this.frame || (entry.dueFrame & (WHEEL_SIZE - 1)) != (this.frame & (WHEEL_SIZE - 1))) {
+
+				// fired now or rescheduled to another slot
+				if (!entry.removed && entry.dueFrame == this.frame) {
+					this.due.add(entry);
+				}
+				slot.set(i, slot.get(slot.size() - 1));
+				slot.remove(slot.size() - 1);
+			}
+		}
+		if (!frameUpdate.getAttackingUnits().isEmpty() || !frameUpdate.getBuildingsToRepair().isEmpty()) {
+			this.due.addAll(this.attackWatchers);
+		}
+		for (Map.Entry<MineralPatch, Set<Entry>> watched : this.patchWatchers.entrySet()) {
+
+			MineralPatch patch = watched.getKey();
+			if (!patch.exists() || patch.getResources() <= 0) {
+				this.due.addAll(watched.getValue());
+			}
+		}
+		for (Entry entry : this.resourceWatchers) {
+
+			if (frameUpdate.getMinerals() >= entry.wait.minerals && frameUpdate.getGas() >= entry.wait.gas) {
+				this.due.add(entry);
+			}
+		}
+
+		int delivered = 0;
+		for (int i = 0; i < this.due.size(); i++) {
+
+			Entry entry = this.due.get(i);
+			if (entry.deliveredFrame == this.frame) {
+				continue;
+			}
+			entry.deliveredFrame = this.frame;
+			delivered++;
+			entry.scv.onReceive(frameUpdate);
+			rearm(entry);
+		}
+		this.due.clear();
+		this.deliveries += delivered;
+		this.skipped += this.entries.size() - delivered;
+		logger.trace("frame {}: delivered frame update to {} of {} SCVs.", this.frame, delivered, this.entries.size());
+	}
+
+	/**
+	 * @return frame updates delivered so far
+	 */
+	public long getDeliveries() {
+
+		return this.deliveries;
+	}
+
+	/**
+	 * @return frame updates not delivered so far because the SCV was not due
+	 */
+	public long getSkipped() {
+
+		return this.skipped;
+	}
+
+	private void place(Entry entry, Wait wait) {
+
+		entry.wait = wait;
+		switch (wait.type) {
+		case EVERY_FRAME:
+			this.everyFrame.add(entry);
+			break;
+		case COMMAND:
+			schedule(entry, Math.max(this.frame, entry.scv.getWakeUp()));
+			break;
+		case EVENTS:
+			if (wait.attacks) {
+				this.attackWatchers.add(entry);
+			}
+			if (wait.patch != null) {
+				this.patchWatchers.computeIfAbsent(wait.patch, patch -> Collections.newSetFromMap(new IdentityHashMap<>())).add(entry);
+			}
+			schedule(entry, this.frame + HEARTBEAT_FRAMES);
+			break;
+		case RESOURCES:
+			this.resourceWatchers.add(entry);
+			schedule(entry, this.frame + HEARTBEAT_FRAMES);
+			break;
+		}
+	}
+
+	private void unplace(Entry entry) {
+
+		Wait wait = entry.wait;
+		entry.dueFrame = -1;
+		if (wait == null) {
+			return;
+		}
+		this.everyFrame.remove(entry);
+		this.attackWatchers.remove(entry);
+		this.resourceWatchers.remove(entry);
+		if (wait.patch != null) {
+
+			Set<Entry> watchers = this.patchWatchers.get(wait.patch);
+			if (watchers != null) {
+
+				watchers.remove(entry);
+				if (watchers.isEmpty()) {
+					this.patchWatchers.remove(wait.patch);
+				}
+			}
+		}
+		entry.wait = null;
+	}
+
+	/**
+	 * After a delivery the worker keeps its wait until it declares a new one: timed waits need the next heartbeat.
+	 * A command that was not executed yet is retried next frame.
+	 */
+	private void rearm(Entry entry) {
+
+		if (entry.wait == null) {
+			return;
+		}
+		switch (entry.wait.type) {
+		case COMMAND:
+			schedule(entry, Math.max(this.frame + 1, entry.scv.getWakeUp()));
+			break;
+		case EVENTS:
+		case RESOURCES:
+			schedule(entry, this.frame + HEARTBEAT_FRAMES);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void schedule(Entry entry, int frame) {
+
+		entry.dueFrame = frame;
+		if (frame <= this.frame) {
+			this.due.add(entry);
+		} else {
+			this.wheel[frame & (WHEEL_SIZE - 1)].add(entry);
+		}
+	}
+}